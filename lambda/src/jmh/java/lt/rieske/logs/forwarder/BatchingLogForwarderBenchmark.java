@@ -0,0 +1,61 @@
+package lt.rieske.logs.forwarder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Batches compacted log lines with the default limits, the consumer releases every batch straight away.
+// The score is log lines per second.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BatchingLogForwarderBenchmark.LINES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchingLogForwarderBenchmark {
+
+    static final int LINES = 10_000;
+
+    private final byte[][] compactedLines = new byte[LINES][];
+    private long totalBytes;
+
+    private BatchingLogForwarder forwarder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var logs = new SyntheticCloudflareLogs(42);
+        var transformer = new CompactingLogTransformer();
+        var output = new ByteArrayBuilder(1024);
+        for (int i = 0; i < LINES; i++) {
+            byte[] line = logs.nextLine().getBytes(StandardCharsets.UTF_8);
+            output.setLength(0);
+            transformer.transform(line, 0, line.length, output);
+            compactedLines[i] = Arrays.copyOf(output.array(), output.length());
+            totalBytes += output.length();
+        }
+        var limits = new ForwarderConfiguration("http://localhost", "").batchLimits();
+        forwarder = new BatchingLogForwarder(limits, new LogBatchPool(limits.maxBytes()), LogBatch::release, System::nanoTime);
+    }
+
+    @Benchmark
+    public void accept(ProcessedBytes processed) {
+        for (byte[] line : compactedLines) {
+            forwarder.accept(line, 0, line.length);
+        }
+        processed.add(totalBytes);
+    }
+}
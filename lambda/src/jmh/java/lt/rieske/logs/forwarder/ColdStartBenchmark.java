@@ -0,0 +1,45 @@
+package lt.rieske.logs.forwarder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.util.concurrent.TimeUnit;
+
+// Init time as paid at a Lambda cold start: every fork is a fresh JVM that measures a single run, class loading included.
+// Compare the default S3 client with the fast start one, and add up the handler and the transformer warm-up.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class ColdStartBenchmark {
+
+    private static final String REGION = "eu-west-1";
+
+    @Benchmark
+    public S3Client defaultS3Client() {
+        return S3Client.builder().region(Region.of(REGION)).build();
+    }
+
+    @Benchmark
+    public S3Client fastStartS3Client() {
+        return S3EventHandler.s3Client(REGION);
+    }
+
+    @Benchmark
+    public S3EventHandler handler() {
+        return new S3EventHandler(S3EventHandler.s3Client(REGION), new ForwarderConfiguration("http://localhost", "").region(REGION));
+    }
+
+    @Benchmark
+    public void transformerWarmUp() {
+        CompactingLogTransformer.warmUp(LogFormat.DEFAULT, OutputEncoding.TEXT, 2000);
+    }
+}
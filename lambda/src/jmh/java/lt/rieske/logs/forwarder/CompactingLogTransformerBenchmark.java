@@ -0,0 +1,66 @@
+package lt.rieske.logs.forwarder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// The score is log lines per second
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(CompactingLogTransformerBenchmark.LINES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompactingLogTransformerBenchmark {
+
+    static final int LINES = 10_000;
+
+    private final String[] lines = new String[LINES];
+    private final byte[][] lineBytes = new byte[LINES][];
+    private long totalBytes;
+
+    private final CompactingLogTransformer transformer = new CompactingLogTransformer();
+    private final ByteArrayBuilder output = new ByteArrayBuilder(1024);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var logs = new SyntheticCloudflareLogs(42);
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = logs.nextLine();
+            lineBytes[i] = lines[i].getBytes(StandardCharsets.UTF_8);
+            totalBytes += lineBytes[i].length;
+        }
+    }
+
+    @Benchmark
+    public void apply(ProcessedBytes processed, Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(transformer.apply(line));
+        }
+        processed.add(totalBytes);
+    }
+
+    @Benchmark
+    public void transform(ProcessedBytes processed, Blackhole blackhole) {
+        for (byte[] line : lineBytes) {
+            output.setLength(0);
+            transformer.transform(line, 0, line.length, output);
+            blackhole.consume(output.length());
+        }
+        processed.add(totalBytes);
+    }
+}
@@ -0,0 +1,78 @@
+package lt.rieske.logs.forwarder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// CPU cost of compressing a batch of compacted log lines versus the bytes it saves on the wire
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"1000"})
+    private int batchSize;
+
+    @Param({"1", "6"})
+    private int level;
+
+    private final ByteArrayBuilder batch = new ByteArrayBuilder(128 * 1024);
+    private final ByteArrayBuilder compressed = new ByteArrayBuilder(32 * 1024);
+    private GzipCompressor compressor;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long rawBytes;
+        public long compressedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rawBytes = 0;
+            compressedBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var logs = new SyntheticCloudflareLogs(42);
+        var transformer = new CompactingLogTransformer();
+        for (int i = 0; i < batchSize; i++) {
+            byte[] line = logs.nextLine().getBytes(StandardCharsets.UTF_8);
+            transformer.transform(line, 0, line.length, batch);
+            batch.append((byte) '\n');
+        }
+        compressor = new GzipCompressor(level);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        compressor.close();
+    }
+
+    @Benchmark
+    public int gzip(Bytes bytes) {
+        compressed.setLength(0);
+        compressor.compress(batch.array(), 0, batch.length(), compressed);
+        bytes.rawBytes += batch.length();
+        bytes.compressedBytes += compressed.length();
+        return compressed.length();
+    }
+}
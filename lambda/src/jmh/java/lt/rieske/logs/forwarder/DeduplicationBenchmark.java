@@ -0,0 +1,112 @@
+package lt.rieske.logs.forwarder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// The per line cost of deduplication, in nanoseconds: looking up the parsed RayID and EdgeStartTimestamp, hashing them and a
+// filter insert on a first run, or a filter lookup of lines all shipped before on a rerun. The key fields are extracted by the
+// parse the transformation does anyway, so a record is only pointed at the keys of every line, read up front - pointRecords
+// measures that alone, to be subtracted. Every invocation starts with a filter of the default size, fresh or loaded.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(DeduplicationBenchmark.LINES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeduplicationBenchmark {
+
+    static final int LINES = 10_000;
+
+    private static final LogFormat FORMAT = LogFormat.DEFAULT;
+
+    @Param({"false", "true"})
+    private boolean rerun;
+
+    private final int[] keyFields = FORMAT.keyFields();
+    private final LogRecord record = new LogRecord(FORMAT.fields().size(), FORMAT.extractedFieldCount());
+    private final byte[] keyTypes = new byte[LINES * keyFields.length];
+    private final int[] keyOffsets = new int[LINES * keyFields.length];
+    private final int[] keyLengths = new int[LINES * keyFields.length];
+    private final ByteArrayBuilder keys = new ByteArrayBuilder(64 * LINES);
+    private byte[] shippedLines;
+
+    private Deduplicator deduplicator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var extractor = new JsonFieldExtractor(FORMAT.fieldMatcher());
+        var logs = new SyntheticCloudflareLogs(42);
+        for (int i = 0; i < LINES; i++) {
+            byte[] line = logs.nextLine().getBytes(StandardCharsets.UTF_8);
+            extractor.extract(line, 0, line.length, record);
+            for (int key = 0, k = i * keyFields.length; key < keyFields.length; key++, k++) {
+                keyTypes[k] = record.type(keyFields[key]);
+                keyOffsets[k] = keys.length();
+                keyLengths[k] = record.length(keyFields[key]);
+                record.writeTo(keyFields[key], keys);
+            }
+        }
+        var firstRun = new Deduplicator(newFilter(), false, filter -> shippedLines = filter.toBytes(), FORMAT);
+        deduplicate(firstRun);
+        firstRun.delivered(Delivery.DELIVERED);
+    }
+
+    @Setup(Level.Invocation)
+    public void newDeduplicator() {
+        var filter = rerun ? BlockedBloomFilter.fromBytes(shippedLines) : newFilter();
+        deduplicator = new Deduplicator(filter, rerun, shipped -> {
+        }, FORMAT);
+    }
+
+    @Benchmark
+    public int deduplicate() {
+        return deduplicate(deduplicator);
+    }
+
+    @Benchmark
+    public int pointRecords() {
+        byte[] source = keys.array();
+        int length = 0;
+        for (int i = 0; i < LINES; i++) {
+            for (int key = 0, k = i * keyFields.length; key < keyFields.length; key++, k++) {
+                record.set(keyFields[key], keyTypes[k], source, keyOffsets[k], keyLengths[k]);
+            }
+            length += record.length(keyFields[0]);
+        }
+        return length;
+    }
+
+    private int deduplicate(Deduplicator deduplicator) {
+        byte[] source = keys.array();
+        int shippedBefore = 0;
+        for (int i = 0; i < LINES; i++) {
+            for (int key = 0, k = i * keyFields.length; key < keyFields.length; key++, k++) {
+                record.set(keyFields[key], keyTypes[k], source, keyOffsets[k], keyLengths[k]);
+            }
+            if (deduplicator.shippedBefore(record)) {
+                shippedBefore++;
+            }
+        }
+        return shippedBefore;
+    }
+
+    private static BlockedBloomFilter newFilter() {
+        var configuration = new ForwarderConfiguration("http://localhost", "");
+        return new BlockedBloomFilter(configuration.dedupFilterBytes(), configuration.dedupFalsePositiveRate());
+    }
+}
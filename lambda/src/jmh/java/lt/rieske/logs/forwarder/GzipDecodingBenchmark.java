@@ -0,0 +1,75 @@
+package lt.rieske.logs.forwarder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Inflates an in-memory log file into a discarding buffer. A memberSize of 0 compresses the file as a single member.
+// The score is log lines per second and megabytes are of the decompressed file.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(GzipDecodingBenchmark.LINES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GzipDecodingBenchmark {
+
+    static final int LINES = 50_000;
+
+    // JMH generated code cannot reference the package-private enums, so they are passed by name
+    @Param({"JDK", "PARALLEL"})
+    private String gzipDecoding;
+
+    @Param({"0", "1048576"})
+    private int memberSize;
+
+    private final byte[] buffer = new byte[64 * 1024];
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private byte[] gzippedFile;
+    private long fileBytes;
+    private GzipDecoding decoding;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] file = new SyntheticCloudflareLogs(42).file(LINES);
+        fileBytes = file.length;
+        decoding = GzipDecoding.fromName(gzipDecoding);
+        gzippedFile = memberSize == 0 ? SyntheticCloudflareLogs.gzip(file) : SyntheticCloudflareLogs.gzipMembers(file, memberSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Benchmark
+    public long decode(ProcessedBytes processed) throws IOException {
+        long decoded = 0;
+        try (var in = decoding.decode(new ByteArrayInputStream(gzippedFile), executor)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                decoded += read;
+            }
+        }
+        processed.add(fileBytes);
+        return decoded;
+    }
+}
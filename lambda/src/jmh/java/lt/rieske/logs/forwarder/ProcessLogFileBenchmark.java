@@ -0,0 +1,79 @@
+package lt.rieske.logs.forwarder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Decompresses, splits, transforms and batches an in-memory gzipped log file of 1MB members, the consumer discards the batches.
+// The score is log lines per second and megabytes are of the decompressed file.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ProcessLogFileBenchmark.LINES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessLogFileBenchmark {
+
+    static final int LINES = 50_000;
+
+    // JMH generated code cannot reference the package-private enums, so they are passed by name
+    @Param({"JDK", "PARALLEL"})
+    private String gzipDecoding;
+
+    @Param({"TEXT", "NDJSON", "MSGPACK"})
+    private String outputEncoding;
+
+    @Param({"NONE", "ONLY"})
+    private String rollupMode;
+
+    private byte[] gzippedFile;
+    private long fileBytes;
+
+    private S3EventHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] file = new SyntheticCloudflareLogs(42).file(LINES);
+        fileBytes = file.length;
+        gzippedFile = SyntheticCloudflareLogs.gzipMembers(file, 1024 * 1024);
+
+        CloseableLogConsumer discardingConsumer = new CloseableLogConsumer() {
+            @Override
+            public void accept(LogBatch batch) {
+                batch.release();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        var configuration = new ForwarderConfiguration("http://localhost", "")
+                .outputEncoding(OutputEncoding.fromName(outputEncoding)).rollupMode(RollupMode.fromName(rollupMode)).gzipDecoding(GzipDecoding.fromName(gzipDecoding)).parallelism(1);
+        handler = new S3EventHandler(null, configuration, List.of(new LogDestination(configuration.batchLimits(), discardingConsumer)), new ForwarderMetrics());
+    }
+
+    @Benchmark
+    public void processLogFile(ProcessedBytes processed) {
+        handler.processLogFile(new ByteArrayInputStream(gzippedFile));
+        processed.add(fileBytes);
+    }
+}
@@ -0,0 +1,24 @@
+package lt.rieske.logs.forwarder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Reported next to the lines/s score of throughput benchmarks as megabytes/s of input processed
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class ProcessedBytes {
+
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+    }
+
+    void add(long bytes) {
+        megabytes += bytes / 1_000_000.0;
+    }
+}
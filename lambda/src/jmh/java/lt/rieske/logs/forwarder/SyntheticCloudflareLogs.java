@@ -0,0 +1,209 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPOutputStream;
+
+// Generates Cloudflare http_requests log lines with the full Logpush field set, skewed value distributions,
+// user agents from a few bytes to a few hundred and the escapes Logpush emits (\u0026 in query strings, \" and \\ in user agents)
+final class SyntheticCloudflareLogs {
+
+    private static final String[] METHODS = weighted("GET", 80, "POST", 12, "HEAD", 4, "PUT", 2, "OPTIONS", 1, "PATCH", 1);
+    private static final String[] STATUSES = weighted("200", 70, "304", 10, "301", 5, "404", 8, "403", 3, "500", 2, "502", 1, "206", 1);
+    private static final String[] CACHE_STATUSES = weighted("hit", 55, "miss", 20, "dynamic", 15, "expired", 5, "revalidated", 3, "unknown", 2);
+    private static final String[] COUNTRIES = weighted("us", 35, "de", 10, "gb", 8, "lt", 6, "fr", 6, "jp", 5, "in", 5, "br", 5, "pl", 4, "nl", 4, "ca", 4, "au", 3, "xx", 5);
+    private static final String[] HOSTS = weighted("example.com", 50, "www.example.com", 30, "api.example.com", 15, "static.example-cdn.net", 5);
+    private static final String[] PATH_SEGMENTS = {
+            "api", "v1", "v2", "static", "assets", "img", "css", "js", "products", "users", "search", "blog", "2024", "lacinia",
+            "aenean", "condimentum", "molestie", "checkout", "cart", "item", "category", "feed", "de", "en"
+    };
+    private static final String[] EXTENSIONS = weighted("", 40, ".js", 15, ".css", 10, ".png", 12, ".jpg", 8, ".html", 8, ".json", 5, ".woff2", 2);
+    private static final String[] CONTENT_TYPES = {"text/html", "application/javascript", "text/css", "image/png", "image/jpeg", "application/json", "font/woff2"};
+    private static final String[] COLOS = {"AMS", "FRA", "LHR", "VNO", "IAD", "SJC", "NRT", "GRU", "WAW", "CDG"};
+    private static final String[] USER_AGENTS = weighted(
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36", 30,
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 17_4 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4 Mobile/15E148 Safari/604.1", 15,
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 14_4_1) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4.1 Safari/605.1.15", 10,
+            "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/535.11 (KHTML, like Gecko) Ubuntu/11.10 Chromium/17.0.963.65 Chrome/17.0.963.65 Safari/535.11", 5,
+            "Mozilla/5.0 (Linux; Android 14; SM-S918B Build/UP1A.231005.007; wv) AppleWebKit/537.36 (KHTML, like Gecko) Version/4.0 Chrome/123.0.6312.118 Mobile Safari/537.36 [FB_IAB/FB4A;FBAV/458.0.0.41.108;FBBV/573066440;FBDM/{density=3.0,width=1080,height=2340};FBLC/en_US;FBRV/0;FBCR/;FBMF/samsung;FBBD/samsung;FBPN/com.facebook.katana;FBDV/SM-S918B;FBSV/14;FBOP/1;FBCA/arm64-v8a:;]", 5,
+            "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)", 8,
+            "curl/8.4.0", 8,
+            "python-requests/2.31.0", 5,
+            "Go-http-client/1.1", 4,
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36 Edg/124.0.0.0 \\\"quoted\\\" C:\\\\Program Files", 3,
+            "", 2
+    );
+
+    private final SplittableRandom random;
+    private final StringBuilder line = new StringBuilder(2048);
+    private long timestamp = 1_700_000_000_000_000_000L;
+
+    SyntheticCloudflareLogs(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    String nextLine() {
+        timestamp += random.nextLong(2_000_000L);
+        long edgeEnd = timestamp + random.nextLong(100_000_000L);
+        String contentType = pick(CONTENT_TYPES);
+        line.setLength(0);
+        line.append('{');
+        string("CacheCacheStatus", pick(CACHE_STATUSES));
+        number("CacheResponseBytes", random.nextInt(500_000));
+        number("CacheResponseStatus", pick(STATUSES));
+        literal("CacheTieredFill", random.nextInt(10) == 0 ? "true" : "false");
+        number("ClientASN", random.nextInt(1, 70_000));
+        string("ClientCountry", pick(COUNTRIES));
+        string("ClientDeviceType", random.nextInt(3) == 0 ? "mobile" : "desktop");
+        string("ClientIP", ip());
+        string("ClientIPClass", random.nextInt(20) == 0 ? "searchEngine" : "noRecord");
+        number("ClientRequestBytes", random.nextInt(200, 20_000));
+        string("ClientRequestHost", pick(HOSTS));
+        string("ClientRequestMethod", pick(METHODS));
+        String path = path();
+        string("ClientRequestPath", path);
+        string("ClientRequestProtocol", random.nextInt(4) == 0 ? "HTTP/1.1" : "HTTP/2");
+        if (random.nextInt(3) == 0) {
+            literal("ClientRequestReferer", "null");
+        } else {
+            string("ClientRequestReferer", "https://www.example.com/caf\\u00e9" + path());
+        }
+        string("ClientRequestURI", random.nextInt(4) == 0 ? path + query() : path);
+        string("ClientRequestUserAgent", pick(USER_AGENTS));
+        string("ClientSSLCipher", "ECDHE-ECDSA-AES128-GCM-SHA256");
+        string("ClientSSLProtocol", random.nextInt(5) == 0 ? "TLSv1.2" : "TLSv1.3");
+        number("ClientSrcPort", random.nextInt(1024, 65_536));
+        literal("ClientXRequestedWith", "null");
+        string("EdgeColoCode", pick(COLOS));
+        number("EdgeColoID", random.nextInt(1, 300));
+        string("EdgeEndTimestamp", Long.toString(edgeEnd));
+        string("EdgePathingOp", "wl");
+        string("EdgePathingSrc", "macro");
+        string("EdgePathingStatus", "nr");
+        literal("EdgeRateLimitAction", "null");
+        number("EdgeRateLimitID", 0);
+        string("EdgeRequestHost", pick(HOSTS));
+        number("EdgeResponseBytes", random.nextInt(100, 2_000_000));
+        number("EdgeResponseCompressionRatio", random.nextInt(100, 400) / 100.0);
+        string("EdgeResponseContentType", contentType);
+        number("EdgeResponseStatus", pick(STATUSES));
+        string("EdgeServerIP", ip());
+        string("EdgeStartTimestamp", Long.toString(timestamp));
+        string("FirewallMatchesActions", random.nextInt(20) == 0 ? "simulate" : "");
+        string("FirewallMatchesRuleIDs", "");
+        literal("FirewallMatchesSources", "null");
+        string("OriginIP", ip());
+        number("OriginResponseBytes", random.nextInt(0, 2_000_000));
+        string("OriginResponseHTTPExpires", "2024-01-15T02:36:44Z");
+        string("OriginResponseHTTPLastModified", "2023-05-21T15:18:29Z");
+        number("OriginResponseStatus", pick(STATUSES));
+        string("OriginResponseTime", Long.toString(random.nextLong(1_000_000L, 900_000_000L)));
+        string("OriginSSLProtocol", "TLSv1.3");
+        string("ParentRayID", "00");
+        string("RayID", "%016x".formatted(random.nextLong()));
+        string("SecurityLevel", "med");
+        string("WAFAction", "unknown");
+        number("WAFFlags", 0);
+        literal("WAFMatchedVar", "null");
+        string("WAFProfile", "unknown");
+        literal("WAFRuleID", "null");
+        literal("WAFRuleMessage", "null");
+        number("WorkerCPUTime", 0);
+        string("WorkerStatus", "unknown");
+        literal("WorkerSubrequest", "false");
+        number("WorkerSubrequestCount", 0);
+        number("ZoneID", 289_326_123);
+        line.setLength(line.length() - 1);
+        return line.append('}').toString();
+    }
+
+    byte[] file(int lineCount) {
+        var file = new ByteArrayOutputStream(lineCount * 2048);
+        for (int i = 0; i < lineCount; i++) {
+            file.writeBytes(nextLine().getBytes(StandardCharsets.UTF_8));
+            file.write('\n');
+        }
+        return file.toByteArray();
+    }
+
+    static byte[] gzip(byte[] content) {
+        var gzipped = new ByteArrayOutputStream(content.length / 4);
+        try (var out = new GZIPOutputStream(gzipped)) {
+            out.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return gzipped.toByteArray();
+    }
+
+    // Compresses every run of lines of about memberSize bytes into a gzip member of its own
+    static byte[] gzipMembers(byte[] content, int memberSize) {
+        var gzipped = new ByteArrayOutputStream(content.length / 4);
+        int memberStart = 0;
+        while (memberStart < content.length) {
+            int memberEnd = Math.min(memberStart + memberSize, content.length);
+            while (memberEnd < content.length && content[memberEnd - 1] != '\n') {
+                memberEnd++;
+            }
+            gzipped.writeBytes(gzip(Arrays.copyOfRange(content, memberStart, memberEnd)));
+            memberStart = memberEnd;
+        }
+        return gzipped.toByteArray();
+    }
+
+    private void string(String name, String value) {
+        line.append('"').append(name).append("\":\"").append(value).append("\",");
+    }
+
+    private void number(String name, Object value) {
+        literal(name, value.toString());
+    }
+
+    private void literal(String name, String value) {
+        line.append('"').append(name).append("\":").append(value).append(',');
+    }
+
+    private String path() {
+        var path = new StringBuilder();
+        int depth = random.nextInt(0, 6);
+        for (int i = 0; i < depth; i++) {
+            path.append('/').append(PATH_SEGMENTS[random.nextInt(PATH_SEGMENTS.length)]);
+        }
+        if (depth > 0) {
+            path.append(pick(EXTENSIONS));
+        }
+        return path.isEmpty() ? "/" : path.toString();
+    }
+
+    private String query() {
+        return "?q=" + random.nextInt(10_000) + "\\u0026page=" + random.nextInt(1, 50) + "\\u0026utm_source=newsletter";
+    }
+
+    private String ip() {
+        return random.nextInt(1, 224) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(1, 255);
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    // Expands value, weight pairs into an array where each value occurs weight times
+    private static String[] weighted(Object... valuesAndWeights) {
+        int total = 0;
+        for (int i = 1; i < valuesAndWeights.length; i += 2) {
+            total += (Integer) valuesAndWeights[i];
+        }
+        var values = new String[total];
+        int position = 0;
+        for (int i = 0; i < valuesAndWeights.length; i += 2) {
+            for (int k = 0; k < (Integer) valuesAndWeights[i + 1]; k++) {
+                values[position++] = (String) valuesAndWeights[i];
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,155 @@
+package lt.rieske.logs.forwarder;
+
+import java.time.Duration;
+
+// The batch size and in flight batches of an HTTP destination, adapted to its responses the way TCP adapts its congestion window:
+// both grow with every window delivered within the target latency, and a failure or a slow batch halves one of them.
+// Shared by the threads sending batches and the ones handling responses.
+final class AdaptiveLimits {
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int minInFlightBatches;
+    private final int maxInFlightBatches;
+    private final long targetLatencyNanos;
+    private final ForwarderMetrics metrics;
+
+    private volatile int batchSize;
+    private int inFlightLimit;
+    private int inFlightBatches;
+    private boolean slowStart = true;
+    private long epoch;
+    private int windowDelivered;
+
+    AdaptiveLimits(int minBatchSize, int maxBatchSize, int minInFlightBatches, int maxInFlightBatches, Duration targetLatency, ForwarderMetrics metrics) {
+        if (minBatchSize < 1 || minBatchSize > maxBatchSize) {
+            throw new IllegalArgumentException("Batch size bounds have to be positive and ordered: " + minBatchSize + ", " + maxBatchSize);
+        }
+        if (minInFlightBatches < 1 || minInFlightBatches > maxInFlightBatches) {
+            throw new IllegalArgumentException("In flight batch bounds have to be positive and ordered: " + minInFlightBatches + ", " + maxInFlightBatches);
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.minInFlightBatches = minInFlightBatches;
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.targetLatencyNanos = targetLatency.toNanos();
+        this.metrics = metrics;
+        this.batchSize = minBatchSize;
+        this.inFlightLimit = minInFlightBatches;
+    }
+
+    static AdaptiveLimits fixed(int batchSize, int inFlightBatches, ForwarderMetrics metrics) {
+        return new AdaptiveLimits(batchSize, batchSize, inFlightBatches, inFlightBatches, Duration.ofNanos(Long.MAX_VALUE), metrics);
+    }
+
+    boolean adaptive() {
+        return minBatchSize < maxBatchSize || minInFlightBatches < maxInFlightBatches;
+    }
+
+    // The lines of the next batch - read without locking, a batch being filled keeps the size it started with
+    int batchSize() {
+        return batchSize;
+    }
+
+    synchronized int inFlightLimit() {
+        return inFlightLimit;
+    }
+
+    int maxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    // Blocks while the limit of batches is in flight - a lowered limit lets no more through until enough have completed
+    synchronized void acquire() throws InterruptedException {
+        while (inFlightBatches >= inFlightLimit) {
+            wait();
+        }
+        inFlightBatches++;
+    }
+
+    synchronized void release() {
+        inFlightBatches--;
+        notifyAll();
+    }
+
+    synchronized void awaitIdle() throws InterruptedException {
+        while (inFlightBatches > 0) {
+            wait();
+        }
+    }
+
+    // Taken as a request is sent and handed back with its outcome
+    synchronized long epoch() {
+        return epoch;
+    }
+
+    synchronized void delivered(long sentEpoch, long latencyNanos) {
+        if (sentEpoch != epoch) {
+            return;
+        }
+        if (latencyNanos > targetLatencyNanos) {
+            slowStart = false;
+            if (!decreaseBatchSize()) {
+                decreaseInFlightBatches();
+            }
+            return;
+        }
+        if (++windowDelivered >= inFlightLimit) {
+            windowDelivered = 0;
+            if (!increaseBatchSize()) {
+                increaseInFlightBatches();
+            }
+        }
+    }
+
+    synchronized void congested(long sentEpoch) {
+        if (sentEpoch != epoch) {
+            return;
+        }
+        slowStart = false;
+        decreaseInFlightBatches();
+    }
+
+    private boolean increaseBatchSize() {
+        int increased = (int) Math.min(maxBatchSize, slowStart ? 2L * batchSize : (long) batchSize + minBatchSize);
+        if (increased == batchSize) {
+            return false;
+        }
+        batchSize = increased;
+        changed(ForwarderMetrics.Counter.BATCH_SIZE_INCREASES);
+        return true;
+    }
+
+    private void increaseInFlightBatches() {
+        int increased = (int) Math.min(maxInFlightBatches, slowStart ? 2L * inFlightLimit : inFlightLimit + 1L);
+        if (increased != inFlightLimit) {
+            inFlightLimit = increased;
+            changed(ForwarderMetrics.Counter.IN_FLIGHT_INCREASES);
+            notifyAll();
+        }
+    }
+
+    private boolean decreaseBatchSize() {
+        int decreased = Math.max(minBatchSize, batchSize / 2);
+        if (decreased == batchSize) {
+            return false;
+        }
+        batchSize = decreased;
+        changed(ForwarderMetrics.Counter.BATCH_SIZE_DECREASES);
+        return true;
+    }
+
+    private void decreaseInFlightBatches() {
+        int decreased = Math.max(minInFlightBatches, inFlightLimit / 2);
+        if (decreased != inFlightLimit) {
+            inFlightLimit = decreased;
+            changed(ForwarderMetrics.Counter.IN_FLIGHT_DECREASES);
+        }
+    }
+
+    private void changed(ForwarderMetrics.Counter decision) {
+        metrics.add(decision, 1);
+        epoch++;
+        windowDelivered = 0;
+    }
+}
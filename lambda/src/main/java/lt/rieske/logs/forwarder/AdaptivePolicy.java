@@ -0,0 +1,23 @@
+package lt.rieske.logs.forwarder;
+
+import java.time.Duration;
+
+// The lower bounds the batch size and in flight batches of every HTTP destination are adapted within, up to its own batch
+// size and in flight batches, aiming for batches delivered within targetLatency
+record AdaptivePolicy(boolean enabled, int minBatchSize, int minInFlightBatches, Duration targetLatency) {
+
+    static AdaptivePolicy disabled() {
+        return new AdaptivePolicy(false, 0, 0, Duration.ZERO);
+    }
+
+    // A lower bound over the destination's own is taken as fixed at the latter
+    AdaptiveLimits limits(HttpDestination destination, ForwarderMetrics metrics) {
+        int maxBatchSize = destination.batchLimits().maxLines();
+        int maxInFlightBatches = destination.maxInFlightBatches();
+        if (!enabled) {
+            return AdaptiveLimits.fixed(maxBatchSize, maxInFlightBatches, metrics);
+        }
+        return new AdaptiveLimits(Math.min(minBatchSize, maxBatchSize), maxBatchSize, Math.min(minInFlightBatches, maxInFlightBatches),
+                maxInFlightBatches, targetLatency, metrics);
+    }
+}
@@ -0,0 +1,11 @@
+package lt.rieske.logs.forwarder;
+
+import java.time.Duration;
+
+// A batch is flushed as soon as any of the limits is reached
+record BatchLimits(int maxLines, int maxBytes, Duration maxLinger) {
+
+    static BatchLimits ofLines(int maxLines) {
+        return new BatchLimits(maxLines, Integer.MAX_VALUE, Duration.ofNanos(Long.MAX_VALUE));
+    }
+}
@@ -1,34 +1,79 @@
 package lt.rieske.logs.forwarder;
 
 import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
 
+// The linger time is checked as lines arrive - an idle forwarder holds on to its batch until the next line or flush().
+// The line limit is taken as every batch is started, so that it can be adapted between batches.
 class BatchingLogForwarder implements LogForwarder {
 
-    private final int batchSize;
-    private final Consumer<String> logConsumer;
-    private final StringBuilder batch = new StringBuilder();
+    private static final int INITIAL_BATCH_CAPACITY = 64 * 1024;
 
-    private int logLinesInCurrentBatch = 0;
+    private final IntSupplier maxLines;
+    private final int maxBytes;
+    private final long maxLingerNanos;
+    private final LogBatchPool batchPool;
+    private final LogBatchConsumer batchConsumer;
+    private final LongSupplier nanoClock;
+    private final PendingBatches pendingBatches = new PendingBatches();
+
+    private LogBatch batch;
+    private int batchMaxLines;
+    private long batchStartNanos;
 
     BatchingLogForwarder(int batchSize, Consumer<String> logConsumer) {
-        this.batchSize = batchSize;
-        this.logConsumer = logConsumer;
+        this(BatchLimits.ofLines(batchSize), new LogBatchPool(INITIAL_BATCH_CAPACITY), batch -> {
+            try {
+                logConsumer.accept(batch.toString());
+                batch.markDelivered();
+            } finally {
+                batch.release();
+            }
+        }, System::nanoTime);
+    }
+
+    BatchingLogForwarder(BatchLimits limits, LogBatchPool batchPool, LogBatchConsumer batchConsumer, LongSupplier nanoClock) {
+        this(limits, limits::maxLines, batchPool, batchConsumer, nanoClock);
+    }
+
+    BatchingLogForwarder(BatchLimits limits, IntSupplier maxLines, LogBatchPool batchPool, LogBatchConsumer batchConsumer, LongSupplier nanoClock) {
+        this.maxLines = maxLines;
+        this.maxBytes = limits.maxBytes();
+        this.maxLingerNanos = limits.maxLinger().toNanos();
+        this.batchPool = batchPool;
+        this.batchConsumer = batchConsumer;
+        this.nanoClock = nanoClock;
     }
 
     @Override
     public void flush() {
-        if (logLinesInCurrentBatch > 0) {
-            logConsumer.accept(batch.toString());
-            batch.setLength(0);
-            logLinesInCurrentBatch = 0;
+        if (batch != null && batch.lineCount() > 0) {
+            var fullBatch = batch;
+            batch = null;
+            fullBatch.track(pendingBatches);
+            batchConsumer.accept(fullBatch);
         }
     }
 
     @Override
-    public void accept(String log) {
-        batch.append(log).append("\n");
-        logLinesInCurrentBatch++;
-        if (logLinesInCurrentBatch == batchSize) {
+    public Delivery awaitDelivered(long deadlineNanos) {
+        return pendingBatches.awaitReleased(deadlineNanos);
+    }
+
+    @Override
+    public void accept(byte[] line, int offset, int length) {
+        // a line that does not fit into the current batch starts the next one - a single line over the limit is sent on its own
+        if (batch != null && batch.lineCount() > 0 && batch.length() + length + 1 > maxBytes) {
+            flush();
+        }
+        if (batch == null) {
+            batch = batchPool.acquire();
+            batchMaxLines = maxLines.getAsInt();
+            batchStartNanos = nanoClock.getAsLong();
+        }
+        batch.append(line, offset, length);
+        if (batch.lineCount() >= batchMaxLines || batch.length() >= maxBytes || nanoClock.getAsLong() - batchStartNanos >= maxLingerNanos) {
             flush();
         }
     }
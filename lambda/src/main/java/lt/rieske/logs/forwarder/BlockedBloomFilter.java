@@ -0,0 +1,150 @@
+package lt.rieske.logs.forwarder;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Split block Bloom filter of 64-bit hashes - a hash sets one bit in each of the eight words of a 256-bit block.
+// It takes no more hashes than its false positive rate allows, so that a full filter still holds to the rate. Not thread safe.
+final class BlockedBloomFilter {
+
+    private static final int BLOCK_WORDS = 8;
+    private static final int BLOCK_BYTES = BLOCK_WORDS * Integer.BYTES;
+    private static final int[] SALTS = {0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d, 0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31};
+    // Tells the filters of this layout from those of an earlier one, which are not read
+    private static final int LAYOUT = 0x53424246;
+    private static final int HEADER_BYTES = Integer.BYTES + 2 * Long.BYTES;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final int[] words;
+    private final int blockCount;
+    private final long capacity;
+
+    private long count;
+
+    BlockedBloomFilter(int bytes, double falsePositiveRate) {
+        if (bytes < BLOCK_BYTES) {
+            throw new IllegalArgumentException("Bloom filter has to take at least " + BLOCK_BYTES + " bytes: " + bytes);
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate has to be between 0 and 1: " + falsePositiveRate);
+        }
+        this.blockCount = bytes / BLOCK_BYTES;
+        this.words = new int[blockCount * BLOCK_WORDS];
+        this.capacity = capacity(blockCount, falsePositiveRate);
+    }
+
+    private BlockedBloomFilter(int[] words, long capacity, long count) {
+        this.words = words;
+        this.blockCount = words.length / BLOCK_WORDS;
+        this.capacity = capacity;
+        this.count = count;
+    }
+
+    boolean mightContain(long hash) {
+        int block = block(hash);
+        int h = (int) hash;
+        int missing = 0;
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+            missing |= ~words[block + i] & 1 << (h * SALTS[i] >>> 27);
+        }
+        return missing == 0;
+    }
+
+    // Returns false once the filter is at capacity, without adding the hash
+    boolean put(long hash) {
+        if (full()) {
+            return false;
+        }
+        int block = block(hash);
+        int h = (int) hash;
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+            words[block + i] |= 1 << (h * SALTS[i] >>> 27);
+        }
+        count++;
+        return true;
+    }
+
+    long count() {
+        return count;
+    }
+
+    boolean full() {
+        return count >= capacity;
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    byte[] toBytes() {
+        var buffer = ByteBuffer.allocate(HEADER_BYTES + words.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(LAYOUT).putLong(capacity).putLong(count);
+        buffer.asIntBuffer().put(words);
+        return buffer.array();
+    }
+
+    // Null for a filter of an earlier layout
+    static BlockedBloomFilter fromBytes(byte[] bytes) {
+        if (bytes.length < HEADER_BYTES || (bytes.length - HEADER_BYTES) % BLOCK_BYTES != 0) {
+            throw new IllegalArgumentException("Malformed Bloom filter of " + bytes.length + " bytes");
+        }
+        var buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != LAYOUT) {
+            return null;
+        }
+        long capacity = buffer.getLong();
+        long count = buffer.getLong();
+        var words = new int[buffer.remaining() / Integer.BYTES];
+        buffer.asIntBuffer().get(words);
+        return new BlockedBloomFilter(words, capacity, count);
+    }
+
+    // Eight bytes at a time, chained through the seed to hash several values into one
+    static long hash(byte[] bytes, int start, int end, long seed) {
+        long h = seed ^ (end - start) * 0x9E3779B97F4A7C15L;
+        int i = start;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            h = (h ^ (long) LONGS.get(bytes, i)) * 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 32;
+        }
+        for (; i < end; i++) {
+            h = (h ^ bytes[i]) * 0xC4CEB9FE1A85EC53L;
+        }
+        h = (h ^ h >>> 33) * 0xFF51AFD7ED558CCDL;
+        return h ^ h >>> 33;
+    }
+
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blockCount) >>> 32) * BLOCK_WORDS;
+    }
+
+    // The hashes per block follow a Poisson distribution, and a block holding j of them gives false positives at
+    // (1 - (31/32)^j)^8 - the capacity is the largest count whose rate, averaged over the blocks, is within the given one
+    private static long capacity(int blockCount, double falsePositiveRate) {
+        long low = 0;
+        long high = (long) blockCount * BLOCK_BYTES * Byte.SIZE;
+        while (low < high) {
+            long mid = (low + high + 1) >>> 1;
+            if (falsePositiveRate(blockCount, mid) <= falsePositiveRate) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static double falsePositiveRate(int blockCount, long count) {
+        double perBlock = (double) count / blockCount;
+        int maxHashes = (int) (perBlock + 12 * Math.sqrt(perBlock) + 20);
+        double probability = Math.exp(-perBlock);
+        double rate = 0;
+        for (int j = 0; j <= maxHashes; j++) {
+            rate += probability * Math.pow(1 - Math.pow(1 - 1.0 / Integer.SIZE, j), BLOCK_WORDS);
+            probability *= perBlock / (j + 1);
+        }
+        return rate;
+    }
+}
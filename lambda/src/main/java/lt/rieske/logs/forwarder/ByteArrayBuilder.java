@@ -0,0 +1,63 @@
+package lt.rieske.logs.forwarder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+final class ByteArrayBuilder {
+
+    private byte[] bytes;
+    private int length = 0;
+
+    ByteArrayBuilder(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    ByteArrayBuilder append(byte b) {
+        ensureCapacity(length + 1);
+        bytes[length++] = b;
+        return this;
+    }
+
+    ByteArrayBuilder append(byte[] src) {
+        return append(src, 0, src.length);
+    }
+
+    ByteArrayBuilder append(byte[] src, int offset, int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(src, offset, bytes, length, count);
+        length += count;
+        return this;
+    }
+
+    byte[] array() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    void ensureCapacity(int minCapacity) {
+        ensureCapacity(minCapacity, Integer.MAX_VALUE);
+    }
+
+    // Doubles the capacity, but not past maxCapacity unless minCapacity is larger
+    void ensureCapacity(int minCapacity, int maxCapacity) {
+        if (minCapacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(minCapacity, (int) Math.min(maxCapacity, bytes.length * 2L)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
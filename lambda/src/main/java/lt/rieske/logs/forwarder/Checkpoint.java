@@ -0,0 +1,18 @@
+package lt.rieske.logs.forwarder;
+
+// How far forwarding of a log object got: every line before the linesToSkip-th line of the gzip member at memberOffset
+// has been delivered. Only valid for the version of the object with the given ETag.
+record Checkpoint(String eTag, long memberOffset, long linesToSkip, boolean completed) {
+
+    static Checkpoint parse(String checkpoint) {
+        String[] fields = checkpoint.strip().split(" ");
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Malformed checkpoint: " + checkpoint);
+        }
+        return new Checkpoint(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), Boolean.parseBoolean(fields[3]));
+    }
+
+    String format() {
+        return eTag + " " + memberOffset + " " + linesToSkip + " " + completed;
+    }
+}
@@ -0,0 +1,15 @@
+package lt.rieske.logs.forwarder;
+
+import java.time.Duration;
+
+// A log file is checkpointed every interval, and once the invocation has less than handOffMargin left to run
+record CheckpointPolicy(CheckpointStore store, Duration interval, Duration handOffMargin) {
+
+    static CheckpointPolicy disabled() {
+        return new CheckpointPolicy(CheckpointStore.NONE, Duration.ofNanos(Long.MAX_VALUE), Duration.ZERO);
+    }
+
+    boolean enabled() {
+        return store != CheckpointStore.NONE;
+    }
+}
@@ -0,0 +1,20 @@
+package lt.rieske.logs.forwarder;
+
+interface CheckpointStore {
+
+    CheckpointStore NONE = new CheckpointStore() {
+        @Override
+        public Checkpoint load(String bucket, String key) {
+            return null;
+        }
+
+        @Override
+        public void save(String bucket, String key, Checkpoint checkpoint) {
+        }
+    };
+
+    // Returns null if there is no checkpoint of the object
+    Checkpoint load(String bucket, String key);
+
+    void save(String bucket, String key, Checkpoint checkpoint);
+}
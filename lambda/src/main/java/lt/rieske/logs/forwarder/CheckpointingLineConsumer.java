@@ -0,0 +1,147 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Forwards the lines of a single log object, checkpointing every checkpoint interval and once the deadline is reached.
+// A checkpoint is saved only once every line before it has been delivered, and none is once a line was not.
+// The clock is only looked at every CLOCK_CHECK_INTERVAL lines.
+class CheckpointingLineConsumer implements LineConsumer, GzipMemberListener {
+
+    private static final int CLOCK_CHECK_INTERVAL = 1024;
+
+    // Thrown to stop reading the log object once it has been checkpointed at the deadline
+    static class OutOfTime extends RuntimeException {
+        OutOfTime() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final String bucket;
+    private final String key;
+    private final String eTag;
+    private final long resumeOffset;
+    private final long linesToSkip;
+    private final LogForwarder logForwarder;
+    private final LineReader lineReader;
+    private final CheckpointStore checkpointStore;
+    private final long checkpointIntervalNanos;
+    private final long deadlineNanos;
+    private final long deliveryDeadlineNanos;
+    private final ForwarderMetrics metrics;
+    private final Queue<MemberStart> memberStarts = new ConcurrentLinkedQueue<>();
+
+    private long lineIndex = 0;
+    private long lineStart = 0;
+    private long checkpointMemberOffset;
+    private long checkpointMemberLine = 0;
+    private long lastCheckpointNanos = System.nanoTime();
+    private boolean checkpointed;
+    private boolean undelivered;
+
+    // The resumed checkpoint can be null to start from the beginning of the object
+    CheckpointingLineConsumer(String bucket, String key, String eTag, Checkpoint resumed, LogForwarder logForwarder, LineReader lineReader,
+                              CheckpointPolicy policy, long deadlineNanos, ForwarderMetrics metrics) {
+        this.bucket = bucket;
+        this.key = key;
+        this.eTag = eTag;
+        this.resumeOffset = resumed != null ? resumed.memberOffset() : 0;
+        this.linesToSkip = resumed != null ? resumed.linesToSkip() : 0;
+        this.logForwarder = logForwarder;
+        this.lineReader = lineReader;
+        this.checkpointStore = policy.store();
+        this.checkpointIntervalNanos = policy.interval().toNanos();
+        this.deadlineNanos = deadlineNanos;
+        this.deliveryDeadlineNanos = deadlineNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadlineNanos + policy.handOffMargin().toNanos() / 2;
+        this.metrics = metrics;
+        this.checkpointMemberOffset = resumeOffset;
+        this.checkpointed = resumed != null;
+    }
+
+    @Override
+    public void memberStart(long compressedOffset, long inflatedOffset) {
+        memberStarts.add(new MemberStart(resumeOffset + compressedOffset, inflatedOffset));
+    }
+
+    @Override
+    public void accept(byte[] line, int offset, int length) {
+        accept(line, offset, length, false);
+    }
+
+    @Override
+    public void acceptTruncated(byte[] line, int offset, int length) {
+        accept(line, offset, length, true);
+    }
+
+    private void accept(byte[] line, int offset, int length, boolean truncated) {
+        long lineEnd = lineReader.lineEnd();
+        passMemberStarts(lineEnd);
+        if (lineIndex % CLOCK_CHECK_INTERVAL == CLOCK_CHECK_INTERVAL - 1) {
+            checkClock();
+        }
+        if (lineIndex >= linesToSkip) {
+            if (truncated) {
+                logForwarder.acceptTruncated(line, offset, length);
+            } else {
+                logForwarder.accept(line, offset, length);
+            }
+        }
+        lineIndex++;
+        lineStart = lineEnd;
+    }
+
+    // Marks the object as forwarded if it was ever checkpointed, so that a retry of the event does not forward it again
+    void completed() {
+        if (checkpointed && awaitDelivered(Long.MAX_VALUE)) {
+            checkpointStore.save(bucket, key, new Checkpoint(eTag, checkpointMemberOffset, lineIndex - checkpointMemberLine, true));
+        }
+    }
+
+    private void passMemberStarts(long lineEnd) {
+        MemberStart member;
+        while ((member = memberStarts.peek()) != null && member.inflatedOffset() < lineEnd) {
+            memberStarts.poll();
+            if (member.inflatedOffset() == lineStart) {
+                checkpointMemberOffset = member.compressedOffset();
+                checkpointMemberLine = lineIndex;
+            }
+        }
+    }
+
+    private void checkClock() {
+        long now = System.nanoTime();
+        if (now >= deadlineNanos) {
+            checkpoint(now);
+            throw new OutOfTime();
+        }
+        if (now - lastCheckpointNanos >= checkpointIntervalNanos) {
+            checkpoint(now);
+        }
+    }
+
+    // Called between lines - every line before the current one has been handed to the log forwarder
+    private void checkpoint(long now) {
+        logForwarder.flush();
+        lastCheckpointNanos = now;
+        if (awaitDelivered(deliveryDeadlineNanos)) {
+            checkpointStore.save(bucket, key, new Checkpoint(eTag, checkpointMemberOffset, lineIndex - checkpointMemberLine, false));
+            metrics.add(ForwarderMetrics.Counter.CHECKPOINTS, 1);
+            checkpointed = true;
+        }
+    }
+
+    // Returns false once some lines were neither delivered nor failed, and from then on
+    private boolean awaitDelivered(long deadlineNanos) {
+        var delivery = logForwarder.awaitDelivered(deadlineNanos);
+        if (delivery == Delivery.FAILED) {
+            throw new UncheckedIOException(new IOException("Failed to deliver log batches of " + key));
+        }
+        undelivered |= delivery != Delivery.DELIVERED;
+        return !undelivered;
+    }
+
+    private record MemberStart(long compressedOffset, long inflatedOffset) {
+    }
+}
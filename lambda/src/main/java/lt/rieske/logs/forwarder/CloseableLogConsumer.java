@@ -1,7 +1,9 @@
 package lt.rieske.logs.forwarder;
 
-import java.io.Closeable;
-import java.util.function.Consumer;
+interface CloseableLogConsumer extends LogBatchConsumer, LogConsumerLifecycle {
 
-interface CloseableLogConsumer extends Consumer<String>, Closeable {
+    // The most batches the consumer holds on to at a time - queued, being sent or awaiting a retry
+    default int maxHeldBatches() {
+        return Integer.MAX_VALUE;
+    }
 }
@@ -1,88 +1,61 @@
 package lt.rieske.logs.forwarder;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
 
-class CompactingLogTransformer implements Function<String, String> {
+// Not thread safe - the extracted values and the output buffer are reused between log lines
+class CompactingLogTransformer implements Function<String, String>, LogTransformer {
 
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
-            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    private static final String SEPARATOR = " ";
+    private static final byte[] WARM_UP_LINE = ("{\"ClientRequestMethod\":\"GET\",\"ClientRequestHost\":\"example.com\",\"ClientRequestURI\":\"/foo/bar?fizz=buzz\"," +
+            "\"ClientIP\":\"127.0.0.1\",\"ClientCountry\":\"lt\",\"EdgeResponseStatus\":200,\"EdgeResponseBytes\":1234,\"CacheCacheStatus\":\"hit\"," +
+            "\"RayID\":\"7f3a1c2b4d5e6f70\",\"EdgeStartTimestamp\":1700000000000000000,\"EdgeEndTimestamp\":1700000000001000000," +
+            "\"ClientRequestUserAgent\":\"Mozilla/5.0 (X11; Linux x86_64) caf\\u00e9\",\"ClientSSLProtocol\":\"TLSv1.3\"}").getBytes(StandardCharsets.UTF_8);
 
-    @Override
-    public String apply(String rawLogLine) {
-        return LogLine.fromJson(rawLogLine).toString();
+    private final JsonFieldExtractor extractor;
+    private final LogRecord record;
+    private final RecordEncoder encoder;
+    private final ByteArrayBuilder output = new ByteArrayBuilder(1024);
+
+    CompactingLogTransformer() {
+        this(LogFormat.DEFAULT);
     }
 
-    private static class LogLine {
-        private final String clientRequestMethod;
-        private final String clientRequestHost;
-        private final String clientRequestUri;
-        private final String clientIp;
-        private final String clientCountry;
-        private final String edgeResponseStatus;
-        private final String edgeResponseBytes;
-        private final String cacheStatus;
-        private final String rayId;
-        private final String edgeStartTimestamp;
-        private final String edgeEndTimestamp;
-        private final String clientRequestUserAgent;
+    CompactingLogTransformer(LogFormat format) {
+        this(format, OutputEncoding.TEXT);
+    }
 
-        @JsonCreator
-        LogLine(@JsonProperty("ClientRequestMethod") String clientRequestMethod,
-                @JsonProperty("ClientRequestHost") String clientRequestHost,
-                @JsonProperty("ClientRequestURI") String clientRequestUri,
-                @JsonProperty("ClientIP") String clientIp,
-                @JsonProperty("ClientCountry") String clientCountry,
-                @JsonProperty("EdgeResponseStatus") String edgeResponseStatus,
-                @JsonProperty("EdgeResponseBytes") String edgeResponseBytes,
-                @JsonProperty("CacheCacheStatus") String cacheStatus,
-                @JsonProperty("RayID") String rayId,
-                @JsonProperty("EdgeStartTimestamp") String edgeStartTimestamp,
-                @JsonProperty("EdgeEndTimestamp") String edgeEndTimestamp,
-                @JsonProperty("ClientRequestUserAgent") String clientRequestUserAgent) {
-            this.clientRequestMethod = clientRequestMethod;
-            this.clientRequestHost = clientRequestHost;
-            this.clientRequestUri = clientRequestUri;
-            this.clientIp = clientIp;
-            this.clientCountry = clientCountry;
-            this.edgeResponseStatus = edgeResponseStatus;
-            this.edgeResponseBytes = edgeResponseBytes;
-            this.cacheStatus = cacheStatus;
-            this.rayId = rayId;
-            this.edgeStartTimestamp = edgeStartTimestamp;
-            this.edgeEndTimestamp = edgeEndTimestamp;
-            this.clientRequestUserAgent = clientRequestUserAgent;
-        }
+    CompactingLogTransformer(LogFormat format, OutputEncoding encoding) {
+        this.extractor = new JsonFieldExtractor(format.fieldMatcher());
+        this.record = new LogRecord(format.fields().size(), format.extractedFieldCount());
+        this.encoder = encoding.encoder(format);
+    }
 
-        static LogLine fromJson(String json) {
-            try {
-                return OBJECT_MAPPER.readValue(json, LogLine.class);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
+    // Loads the classes and compiles the hot loops during init rather than during the first invocation
+    static void warmUp(LogFormat format, OutputEncoding encoding, int lines) {
+        var transformer = new CompactingLogTransformer(format, encoding);
+        var out = new ByteArrayBuilder(1024);
+        for (int i = 0; i < lines; i++) {
+            out.setLength(0);
+            transformer.transform(WARM_UP_LINE, 0, WARM_UP_LINE.length, out);
         }
+    }
 
-        @Override
-        public String toString() {
-            return clientRequestMethod + SEPARATOR +
-                    clientRequestHost + SEPARATOR +
-                    clientRequestUri + SEPARATOR +
-                    clientIp + SEPARATOR +
-                    clientCountry + SEPARATOR +
-                    edgeResponseStatus + SEPARATOR +
-                    edgeResponseBytes + SEPARATOR +
-                    cacheStatus + SEPARATOR +
-                    rayId + SEPARATOR +
-                    edgeStartTimestamp + SEPARATOR +
-                    edgeEndTimestamp + SEPARATOR +
-                    clientRequestUserAgent;
-        }
+    @Override
+    public String apply(String rawLogLine) {
+        byte[] line = rawLogLine.getBytes(StandardCharsets.UTF_8);
+        output.setLength(0);
+        transform(line, 0, line.length, output);
+        return output.toString();
+    }
+
+    @Override
+    public LogRecord parse(byte[] line, int offset, int length, boolean truncated) {
+        extractor.extract(line, offset, length, record, truncated);
+        return record;
+    }
+
+    @Override
+    public void encode(LogRecord record, ByteArrayBuilder out) {
+        encoder.encode(record, out);
     }
 }
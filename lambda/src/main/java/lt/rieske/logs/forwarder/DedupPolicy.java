@@ -0,0 +1,24 @@
+package lt.rieske.logs.forwarder;
+
+// The shipped lines of every log object are kept in a Bloom filter of filterBytes, with the given false positive rate
+record DedupPolicy(DedupStore store, int filterBytes, double falsePositiveRate) {
+
+    static DedupPolicy disabled() {
+        return new DedupPolicy(DedupStore.NONE, 0, 0);
+    }
+
+    boolean enabled() {
+        return store != DedupStore.NONE;
+    }
+
+    BlockedBloomFilter newFilter() {
+        return new BlockedBloomFilter(filterBytes, falsePositiveRate);
+    }
+
+    // The lines of an object - not the rollups, which every run counts again - skip those shipped by an earlier run
+    Deduplicator deduplicator(String bucket, String key, LogFormat format) {
+        var shippedBefore = store.load(bucket, key);
+        return new Deduplicator(shippedBefore != null ? shippedBefore : newFilter(), shippedBefore != null,
+                shippedLines -> store.save(bucket, key, shippedLines), format);
+    }
+}
@@ -0,0 +1,20 @@
+package lt.rieske.logs.forwarder;
+
+interface DedupStore {
+
+    DedupStore NONE = new DedupStore() {
+        @Override
+        public BlockedBloomFilter load(String bucket, String key) {
+            return null;
+        }
+
+        @Override
+        public void save(String bucket, String key, BlockedBloomFilter shippedLines) {
+        }
+    };
+
+    // Returns null if none of the lines of the object have been shipped yet
+    BlockedBloomFilter load(String bucket, String key);
+
+    void save(String bucket, String key, BlockedBloomFilter shippedLines);
+}
@@ -0,0 +1,56 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.function.Consumer;
+
+// Tells the lines of an object shipped by an earlier run by their RayID and EdgeStartTimestamp, kept in a Bloom filter per object
+// that is stored once the lines forwarded so far are delivered. Confined to the thread processing one file.
+class Deduplicator {
+
+    private static final long SEED = 0x2545F4914F6CDD1DL;
+
+    private final BlockedBloomFilter shippedLines;
+    private final boolean rerun;
+    private final Consumer<BlockedBloomFilter> store;
+    private final int[] keyFields;
+
+    private boolean unsaved;
+
+    // A rerun resumes the filter stored by the earlier run
+    Deduplicator(BlockedBloomFilter shippedLines, boolean rerun, Consumer<BlockedBloomFilter> store, LogFormat format) {
+        this.shippedLines = shippedLines;
+        this.rerun = rerun;
+        this.store = store;
+        this.keyFields = format.keyFields();
+    }
+
+    boolean rerun() {
+        return rerun;
+    }
+
+    // Whether an earlier run shipped the line of a record - one that was not is added to the shipped lines
+    boolean shippedBefore(LogRecord record) {
+        if (!rerun && shippedLines.full()) {
+            return false;
+        }
+        long hash = SEED;
+        for (int field : keyFields) {
+            if (record.isNull(field)) {
+                return false;
+            }
+            int offset = record.offset(field);
+            hash = BlockedBloomFilter.hash(record.source(field), offset, offset + record.length(field), hash);
+        }
+        if (rerun && shippedLines.mightContain(hash)) {
+            return true;
+        }
+        unsaved |= shippedLines.put(hash);
+        return false;
+    }
+
+    void delivered(Delivery delivery) {
+        if (delivery == Delivery.DELIVERED && unsaved) {
+            store.accept(shippedLines);
+            unsaved = false;
+        }
+    }
+}
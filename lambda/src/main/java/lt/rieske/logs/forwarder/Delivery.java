@@ -0,0 +1,14 @@
+package lt.rieske.logs.forwarder;
+
+// What became of log batches handed over for sending. Unconfirmed batches were spilled to be delivered later, or were still in
+// flight when the wait for them ran out - they have not failed, but there is no telling yet that they will not be lost.
+enum Delivery {
+    DELIVERED,
+    UNCONFIRMED,
+    FAILED;
+
+    // The outcome of two sets of batches together
+    Delivery and(Delivery other) {
+        return compareTo(other) >= 0 ? this : other;
+    }
+}
@@ -0,0 +1,95 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.IOException;
+import java.util.List;
+
+// Shares every batch with all the log consumers rather than copying it for each. The consumers are expected to queue
+// the batches they accept, so that a slow one holds back the others by no more than the capacity of its queue.
+final class FanOutLogConsumer implements CloseableLogConsumer {
+
+    private final List<CloseableLogConsumer> logConsumers;
+
+    private FanOutLogConsumer(List<CloseableLogConsumer> logConsumers) {
+        this.logConsumers = List.copyOf(logConsumers);
+    }
+
+    static CloseableLogConsumer of(List<CloseableLogConsumer> logConsumers) {
+        return logConsumers.size() == 1 ? logConsumers.getFirst() : new FanOutLogConsumer(logConsumers);
+    }
+
+    // A consumer that fails to accept the batch has released its reference - the ones after it never got theirs
+    @Override
+    public void accept(LogBatch batch) {
+        batch.share(logConsumers.size() - 1);
+        for (int i = 0; i < logConsumers.size(); i++) {
+            try {
+                logConsumers.get(i).accept(batch);
+            } catch (RuntimeException e) {
+                for (int j = i + 1; j < logConsumers.size(); j++) {
+                    batch.release();
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flush(Long.MAX_VALUE);
+    }
+
+    // Every consumer is flushed, even once one of them has failed
+    @Override
+    public void flush(long deadlineNanos) throws IOException {
+        Exception failure = null;
+        for (var logConsumer : logConsumers) {
+            try {
+                logConsumer.flush(deadlineNanos);
+            } catch (IOException | RuntimeException e) {
+                failure = suppress(failure, e);
+            }
+        }
+        rethrow(failure);
+    }
+
+    @Override
+    public void closeIdleConnections() {
+        logConsumers.forEach(CloseableLogConsumer::closeIdleConnections);
+    }
+
+    // A shared batch is held by all of them at once
+    @Override
+    public int maxHeldBatches() {
+        return logConsumers.stream().mapToInt(CloseableLogConsumer::maxHeldBatches).max().orElse(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        Exception failure = null;
+        for (var logConsumer : logConsumers) {
+            try {
+                logConsumer.close();
+            } catch (IOException | RuntimeException e) {
+                failure = suppress(failure, e);
+            }
+        }
+        rethrow(failure);
+    }
+
+    private static Exception suppress(Exception failure, Exception e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    private static void rethrow(Exception failure) throws IOException {
+        if (failure instanceof IOException e) {
+            throw e;
+        }
+        if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.List;
+
+// Hands every transformed line to the forwarders of destinations with different batch limits, which batch the lines
+// each into their own batches. Destinations with the same limits share a forwarder and its batches instead.
+final class FanOutLogForwarder implements LogForwarder {
+
+    private final List<LogForwarder> logForwarders;
+
+    private FanOutLogForwarder(List<LogForwarder> logForwarders) {
+        this.logForwarders = List.copyOf(logForwarders);
+    }
+
+    static LogForwarder of(List<LogForwarder> logForwarders) {
+        return logForwarders.size() == 1 ? logForwarders.getFirst() : new FanOutLogForwarder(logForwarders);
+    }
+
+    @Override
+    public void accept(byte[] line, int offset, int length) {
+        for (var logForwarder : logForwarders) {
+            logForwarder.accept(line, offset, length);
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (var logForwarder : logForwarders) {
+            logForwarder.flush();
+        }
+    }
+
+    // Waits for all of them, rather than returning as soon as one had undelivered lines
+    @Override
+    public Delivery awaitDelivered(long deadlineNanos) {
+        var delivered = Delivery.DELIVERED;
+        for (var logForwarder : logForwarders) {
+            delivered = delivered.and(logForwarder.awaitDelivered(deadlineNanos));
+        }
+        return delivered;
+    }
+}
@@ -0,0 +1,43 @@
+package lt.rieske.logs.forwarder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// The common values of a low cardinality field, which the MessagePack output writes as their position in the list instead.
+// The lists are part of the output format - they only ever grow at the end, so that the positions keep their meaning.
+final class FieldDictionary {
+
+    private static final Map<String, FieldDictionary> DICTIONARIES = Map.of(
+            "ClientRequestMethod", new FieldDictionary("GET POST HEAD PUT DELETE OPTIONS PATCH CONNECT TRACE PURGE"),
+            "CacheCacheStatus", new FieldDictionary("unknown miss expired updating stale hit ignored bypass revalidated dynamic stream_hit deferred"),
+            // ISO 3166-1 alpha-2, followed by the codes Cloudflare uses for unknown countries and Tor
+            "ClientCountry", new FieldDictionary("ad ae af ag ai al am ao aq ar as at au aw ax az ba bb bd be bf bg bh bi bj bl bm bn bo bq br bs bt " +
+                    "bv bw by bz ca cc cd cf cg ch ci ck cl cm cn co cr cu cv cw cx cy cz de dj dk dm do dz ec ee eg eh er es et fi fj fk fm fo fr " +
+                    "ga gb gd ge gf gg gh gi gl gm gn gp gq gr gs gt gu gw gy hk hm hn hr ht hu id ie il im in io iq ir is it je jm jo jp ke kg kh " +
+                    "ki km kn kp kr kw ky kz la lb lc li lk lr ls lt lu lv ly ma mc md me mf mg mh mk ml mm mn mo mp mq mr ms mt mu mv mw mx my mz " +
+                    "na nc ne nf ng ni nl no np nr nu nz om pa pe pf pg ph pk pl pm pn pr ps pt pw py qa re ro rs ru rw sa sb sc sd se sg sh si sj " +
+                    "sk sl sm sn so sr ss st sv sx sy sz tc td tf tg th tj tk tl tm tn to tr tt tv tw tz ua ug um us uy uz va vc ve vg vi vn vu wf " +
+                    "ws ye yt za zm zw xx t1"));
+
+    // full from the start, so that looking up a value never adds it
+    private final ValueDictionary values;
+
+    private FieldDictionary(String values) {
+        String[] list = values.split(" ");
+        this.values = new ValueDictionary(list.length);
+        for (String value : list) {
+            this.values.idOf(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Null for fields without a dictionary
+    static FieldDictionary of(String field) {
+        return DICTIONARIES.get(field);
+    }
+
+    // The position of the value in the list, or -1 if it is not in the list
+    int code(byte[] source, int offset, int length) {
+        int id = values.idOf(source, offset, length);
+        return id > ValueDictionary.OTHER ? id - ValueDictionary.OTHER - 1 : -1;
+    }
+}
@@ -0,0 +1,139 @@
+package lt.rieske.logs.forwarder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Perfect hash of the configured field names, compiled once at startup and shared by the extractors.
+// The hash only looks at the key length and at the few key bytes that tell the field names apart - picked counting
+// from the end of the key, as Cloudflare field names share long prefixes like "ClientRequest" - so that matching a key
+// takes a hash of a few bytes and a single comparison, whichever the number of fields.
+final class FieldMatcher {
+
+    private static final int MAX_SAMPLED_POSITIONS = 4;
+    private static final int SEEDS_PER_TABLE_SIZE = 10_000;
+
+    private final byte[][] names;
+    // Positions counted from the end of the key, or null to hash every byte of the key
+    private final int[] sampledPositions;
+    private final int seed;
+    private final int mask;
+    private final int[] fieldsBySlot;
+
+    FieldMatcher(List<String> fieldNames) {
+        this.names = new byte[fieldNames.size()][];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = fieldNames.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        if (new HashSet<>(fieldNames).size() != fieldNames.size()) {
+            throw new IllegalArgumentException("Duplicate field names: " + fieldNames);
+        }
+        this.sampledPositions = samplePositions(names);
+
+        int tableSize = Integer.highestOneBit(Math.max(1, names.length * 2 - 1)) << 1;
+        int found;
+        while ((found = findSeed(tableSize)) < 0) {
+            tableSize <<= 1;
+        }
+        this.seed = found;
+        this.mask = tableSize - 1;
+        this.fieldsBySlot = table(found, mask);
+    }
+
+    int fieldCount() {
+        return names.length;
+    }
+
+    // Returns the index of the field the key names, or -1 if the key is not one of the fields
+    int fieldOf(byte[] key, int offset, int length) {
+        int field = fieldsBySlot[hash(key, offset, length, seed) & mask];
+        if (field < 0) {
+            return -1;
+        }
+        byte[] name = names[field];
+        return Arrays.equals(key, offset, offset + length, name, 0, name.length) ? field : -1;
+    }
+
+    private int hash(byte[] key, int offset, int length, int seed) {
+        int h = seed ^ length * 0x9E3779B9;
+        if (sampledPositions == null) {
+            for (int i = offset; i < offset + length; i++) {
+                h = (h ^ key[i]) * 0x85EBCA6B;
+            }
+        } else {
+            for (int position : sampledPositions) {
+                h = (h ^ (position <= length ? key[offset + length - position] : 0)) * 0x85EBCA6B;
+            }
+        }
+        return h ^ h >>> 16;
+    }
+
+    private int findSeed(int tableSize) {
+        int mask = tableSize - 1;
+        boolean[] taken = new boolean[tableSize];
+        for (int seed = 0; seed < SEEDS_PER_TABLE_SIZE; seed++) {
+            Arrays.fill(taken, false);
+            boolean collision = false;
+            for (byte[] name : names) {
+                int slot = hash(name, 0, name.length, seed) & mask;
+                if (taken[slot]) {
+                    collision = true;
+                    break;
+                }
+                taken[slot] = true;
+            }
+            if (!collision) {
+                return seed;
+            }
+        }
+        return -1;
+    }
+
+    private int[] table(int seed, int mask) {
+        int[] table = new int[mask + 1];
+        Arrays.fill(table, -1);
+        for (int i = 0; i < names.length; i++) {
+            table[hash(names[i], 0, names[i].length, seed) & mask] = i;
+        }
+        return table;
+    }
+
+    // Greedily picks the positions that tell apart the most names, until every name has its own length and sampled bytes
+    private static int[] samplePositions(byte[][] names) {
+        int maxLength = Arrays.stream(names).mapToInt(name -> name.length).max().orElse(0);
+        int[] positions = new int[0];
+        while (distinctKeys(names, positions) < names.length) {
+            if (positions.length == MAX_SAMPLED_POSITIONS) {
+                return null;
+            }
+            int bestPosition = -1;
+            int bestDistinct = -1;
+            for (int position = 1; position <= maxLength; position++) {
+                int[] candidate = Arrays.copyOf(positions, positions.length + 1);
+                candidate[positions.length] = position;
+                int distinct = distinctKeys(names, candidate);
+                if (distinct > bestDistinct) {
+                    bestDistinct = distinct;
+                    bestPosition = position;
+                }
+            }
+            positions = Arrays.copyOf(positions, positions.length + 1);
+            positions[positions.length - 1] = bestPosition;
+        }
+        return positions;
+    }
+
+    private static int distinctKeys(byte[][] names, int[] positions) {
+        Set<String> keys = new HashSet<>();
+        for (byte[] name : names) {
+            var key = new StringBuilder().append(name.length);
+            for (int position : positions) {
+                key.append(',').append(position <= name.length ? name[name.length - position] : 0);
+            }
+            keys.add(key.toString());
+        }
+        return keys.size();
+    }
+}
@@ -0,0 +1,449 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+final class ForwarderConfiguration {
+
+    private final String endpoint;
+    private final String credentials;
+
+    private String region;
+    private int batchSize = 1000;
+    private int maxBatchBytes = 1024 * 1024;
+    private int maxLineBytes = 1024 * 1024;
+    private OversizedLines oversizedLines = OversizedLines.TRUNCATE;
+    private Duration maxBatchLinger = Duration.ofSeconds(1);
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int maxInFlightBatches = 4;
+    private Duration httpTimeout = Duration.ofSeconds(5);
+    private boolean adaptiveBatching = false;
+    private int minBatchSize = 100;
+    private int minInFlightBatches = 1;
+    private Duration targetLatency = Duration.ofSeconds(1);
+    // Derived from the download memory budget unless configured - see downloadBudgetBytes()
+    private int downloadPartSize = 0;
+    private int downloadConcurrency = 0;
+    private PayloadCompression compression = PayloadCompression.NONE;
+    private GzipDecoding gzipDecoding = GzipDecoding.PARALLEL;
+    private LogFormat logFormat = LogFormat.DEFAULT;
+    private OutputEncoding outputEncoding = OutputEncoding.TEXT;
+    private RollupMode rollupMode = RollupMode.NONE;
+    private LogFilter logFilter = LogFilter.NONE;
+    private LogSink sink = LogSink.HTTP;
+    private String s3Bucket;
+    private String s3Prefix = "";
+    private int s3ObjectBytes = 64 * 1024 * 1024;
+    private int maxRetries = 3;
+    private Duration retryBaseDelay = Duration.ofMillis(100);
+    private Duration retryMaxDelay = Duration.ofSeconds(5);
+    private Path spillDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+    private long maxSpillBytes;
+    private boolean checkpointing = false;
+    private Duration checkpointInterval = Duration.ofSeconds(10);
+    private Duration handOffMargin = Duration.ofSeconds(5);
+    private boolean deduplication = false;
+    private int dedupFilterBytes = 512 * 1024;
+    private double dedupFalsePositiveRate = 0.0001;
+    private final List<HttpDestination> additionalDestinations = new ArrayList<>();
+
+    ForwarderConfiguration(String endpoint, String credentials) {
+        this.endpoint = endpoint;
+        this.credentials = credentials;
+    }
+
+    String endpoint() {
+        return endpoint;
+    }
+
+    String credentials() {
+        return credentials;
+    }
+
+    String region() {
+        return region;
+    }
+
+    ForwarderConfiguration region(String region) {
+        this.region = region;
+        return this;
+    }
+
+    int batchSize() {
+        return batchSize;
+    }
+
+    ForwarderConfiguration batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    int maxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    ForwarderConfiguration maxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    Duration maxBatchLinger() {
+        return maxBatchLinger;
+    }
+
+    ForwarderConfiguration maxBatchLinger(Duration maxBatchLinger) {
+        this.maxBatchLinger = maxBatchLinger;
+        return this;
+    }
+
+    int maxLineBytes() {
+        return maxLineBytes;
+    }
+
+    ForwarderConfiguration maxLineBytes(int maxLineBytes) {
+        this.maxLineBytes = maxLineBytes;
+        return this;
+    }
+
+    OversizedLines oversizedLines() {
+        return oversizedLines;
+    }
+
+    ForwarderConfiguration oversizedLines(OversizedLines oversizedLines) {
+        this.oversizedLines = oversizedLines;
+        return this;
+    }
+
+    BatchLimits batchLimits() {
+        return new BatchLimits(batchSize, maxBatchBytes, maxBatchLinger);
+    }
+
+    int parallelism() {
+        return parallelism;
+    }
+
+    ForwarderConfiguration parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    int maxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    ForwarderConfiguration maxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+        return this;
+    }
+
+    Duration httpTimeout() {
+        return httpTimeout;
+    }
+
+    ForwarderConfiguration httpTimeout(Duration httpTimeout) {
+        this.httpTimeout = httpTimeout;
+        return this;
+    }
+
+    boolean adaptiveBatching() {
+        return adaptiveBatching;
+    }
+
+    ForwarderConfiguration adaptiveBatching(boolean adaptiveBatching) {
+        this.adaptiveBatching = adaptiveBatching;
+        return this;
+    }
+
+    int minBatchSize() {
+        return minBatchSize;
+    }
+
+    ForwarderConfiguration minBatchSize(int minBatchSize) {
+        this.minBatchSize = minBatchSize;
+        return this;
+    }
+
+    int minInFlightBatches() {
+        return minInFlightBatches;
+    }
+
+    ForwarderConfiguration minInFlightBatches(int minInFlightBatches) {
+        this.minInFlightBatches = minInFlightBatches;
+        return this;
+    }
+
+    Duration targetLatency() {
+        return targetLatency;
+    }
+
+    ForwarderConfiguration targetLatency(Duration targetLatency) {
+        this.targetLatency = targetLatency;
+        return this;
+    }
+
+    // The batch size and in flight batches of a destination are its upper bounds
+    AdaptivePolicy adaptivePolicy() {
+        return adaptiveBatching ? new AdaptivePolicy(true, minBatchSize, minInFlightBatches, targetLatency) : AdaptivePolicy.disabled();
+    }
+
+    int downloadPartSize() {
+        return downloadPartSize > 0 ? downloadPartSize : S3ObjectDownloader.partSize(downloadBudgetBytes(), downloadConcurrency());
+    }
+
+    ForwarderConfiguration downloadPartSize(int downloadPartSize) {
+        this.downloadPartSize = downloadPartSize;
+        return this;
+    }
+
+    int downloadConcurrency() {
+        if (downloadConcurrency > 0) {
+            return downloadConcurrency;
+        }
+        return S3ObjectDownloader.concurrency(downloadBudgetBytes(), downloadPartSize > 0 ? downloadPartSize : S3ObjectDownloader.MIN_PART_SIZE);
+    }
+
+    // The downloads of the log files processed concurrently share a quarter of the heap
+    private long downloadBudgetBytes() {
+        return Runtime.getRuntime().maxMemory() / 4 / parallelism;
+    }
+
+    ForwarderConfiguration downloadConcurrency(int downloadConcurrency) {
+        this.downloadConcurrency = downloadConcurrency;
+        return this;
+    }
+
+    PayloadCompression compression() {
+        return compression;
+    }
+
+    ForwarderConfiguration compression(PayloadCompression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    GzipDecoding gzipDecoding() {
+        return gzipDecoding;
+    }
+
+    ForwarderConfiguration gzipDecoding(GzipDecoding gzipDecoding) {
+        this.gzipDecoding = gzipDecoding;
+        return this;
+    }
+
+    LogFormat logFormat() {
+        return logFormat;
+    }
+
+    ForwarderConfiguration logFormat(LogFormat logFormat) {
+        this.logFormat = logFormat;
+        return this;
+    }
+
+    OutputEncoding outputEncoding() {
+        return outputEncoding;
+    }
+
+    ForwarderConfiguration outputEncoding(OutputEncoding outputEncoding) {
+        this.outputEncoding = outputEncoding;
+        return this;
+    }
+
+    RollupMode rollupMode() {
+        return rollupMode;
+    }
+
+    ForwarderConfiguration rollupMode(RollupMode rollupMode) {
+        this.rollupMode = rollupMode;
+        return this;
+    }
+
+    LogFilter logFilter() {
+        return logFilter;
+    }
+
+    ForwarderConfiguration logFilter(LogFilter logFilter) {
+        this.logFilter = logFilter;
+        return this;
+    }
+
+    LogSink sink() {
+        return sink;
+    }
+
+    ForwarderConfiguration sink(LogSink sink) {
+        this.sink = sink;
+        return this;
+    }
+
+    String s3Bucket() {
+        return s3Bucket;
+    }
+
+    ForwarderConfiguration s3Bucket(String s3Bucket) {
+        this.s3Bucket = s3Bucket;
+        return this;
+    }
+
+    String s3Prefix() {
+        return s3Prefix;
+    }
+
+    ForwarderConfiguration s3Prefix(String s3Prefix) {
+        this.s3Prefix = s3Prefix;
+        return this;
+    }
+
+    int s3ObjectBytes() {
+        return s3ObjectBytes;
+    }
+
+    ForwarderConfiguration s3ObjectBytes(int s3ObjectBytes) {
+        this.s3ObjectBytes = s3ObjectBytes;
+        return this;
+    }
+
+    int maxRetries() {
+        return maxRetries;
+    }
+
+    ForwarderConfiguration maxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    Duration retryBaseDelay() {
+        return retryBaseDelay;
+    }
+
+    ForwarderConfiguration retryBaseDelay(Duration retryBaseDelay) {
+        this.retryBaseDelay = retryBaseDelay;
+        return this;
+    }
+
+    Duration retryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    ForwarderConfiguration retryMaxDelay(Duration retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+        return this;
+    }
+
+    RetryPolicy retryPolicy() {
+        return new RetryPolicy(maxRetries, retryBaseDelay, retryMaxDelay);
+    }
+
+    Path spillDirectory() {
+        return spillDirectory;
+    }
+
+    ForwarderConfiguration spillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    // All the spill files share half of the file system they are on - /tmp holds 512 MB unless configured otherwise
+    long maxSpillBytes() {
+        return maxSpillBytes > 0 ? maxSpillBytes : spillFileSystemBytes() / 2;
+    }
+
+    ForwarderConfiguration maxSpillBytes(long maxSpillBytes) {
+        this.maxSpillBytes = maxSpillBytes;
+        return this;
+    }
+
+    // Every HTTP destination spills to a file of its own, which gets an even share
+    long maxSpillBytesPerDestination() {
+        int httpDestinations = additionalDestinations.size() + (sink == LogSink.HTTP ? 1 : 0);
+        return maxSpillBytes() / Math.max(httpDestinations, 1);
+    }
+
+    private long spillFileSystemBytes() {
+        try {
+            return Files.getFileStore(spillDirectory).getTotalSpace();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    boolean checkpointing() {
+        return checkpointing;
+    }
+
+    ForwarderConfiguration checkpointing(boolean checkpointing) {
+        this.checkpointing = checkpointing;
+        return this;
+    }
+
+    Duration checkpointInterval() {
+        return checkpointInterval;
+    }
+
+    ForwarderConfiguration checkpointInterval(Duration checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    Duration handOffMargin() {
+        return handOffMargin;
+    }
+
+    ForwarderConfiguration handOffMargin(Duration handOffMargin) {
+        this.handOffMargin = handOffMargin;
+        return this;
+    }
+
+    boolean deduplication() {
+        return deduplication;
+    }
+
+    ForwarderConfiguration deduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+        return this;
+    }
+
+    int dedupFilterBytes() {
+        return dedupFilterBytes;
+    }
+
+    ForwarderConfiguration dedupFilterBytes(int dedupFilterBytes) {
+        this.dedupFilterBytes = dedupFilterBytes;
+        return this;
+    }
+
+    double dedupFalsePositiveRate() {
+        return dedupFalsePositiveRate;
+    }
+
+    ForwarderConfiguration dedupFalsePositiveRate(double dedupFalsePositiveRate) {
+        this.dedupFalsePositiveRate = dedupFalsePositiveRate;
+        return this;
+    }
+
+    // The first HTTP destination, configured by the unnumbered settings
+    HttpDestination httpDestination() {
+        return new HttpDestination(endpoint, credentials, batchLimits(), compression, maxInFlightBatches, httpTimeout, retryPolicy());
+    }
+
+    List<HttpDestination> additionalDestinations() {
+        return List.copyOf(additionalDestinations);
+    }
+
+    ForwarderConfiguration additionalDestination(HttpDestination destination) {
+        additionalDestinations.add(destination);
+        return this;
+    }
+
+    CheckpointPolicy checkpointPolicy(CheckpointStore store) {
+        return checkpointing ? new CheckpointPolicy(store, checkpointInterval, handOffMargin) : CheckpointPolicy.disabled();
+    }
+
+    DedupPolicy dedupPolicy(DedupStore store) {
+        return deduplication ? new DedupPolicy(store, dedupFilterBytes, dedupFalsePositiveRate) : DedupPolicy.disabled();
+    }
+}
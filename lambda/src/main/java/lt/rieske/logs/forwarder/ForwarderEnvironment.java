@@ -0,0 +1,142 @@
+package lt.rieske.logs.forwarder;
+
+import java.time.Duration;
+
+// Reads the configuration of the function from its environment variables
+final class ForwarderEnvironment {
+
+    private ForwarderEnvironment() {
+    }
+
+    // The HTTP endpoint and credentials are only required when forwarding to HTTP, as is the bucket when writing to S3.
+    // Additional HTTP destinations are numbered from 2, e.g. LogForwarderHttpEndpoint2 - see httpDestination().
+    static ForwarderConfiguration configuration() {
+        var sink = LogSink.fromName(getEnvVar("LogForwarderSink", LogSink.HTTP.name()));
+        var configuration = sink == LogSink.HTTP
+                ? new ForwarderConfiguration(getRequiredEnvVar("LogForwarderHttpEndpoint"), getRequiredEnvVar("LogForwarderCredentials"))
+                : new ForwarderConfiguration(null, null).s3Bucket(getRequiredEnvVar("LogForwarderS3Bucket"));
+        configuration
+                .sink(sink)
+                .s3Prefix(getEnvVar("LogForwarderS3Prefix", configuration.s3Prefix()))
+                .s3ObjectBytes(getPositiveIntEnvVar("LogForwarderS3ObjectBytes", configuration.s3ObjectBytes()))
+                .region(getRequiredEnvVar("AWS_REGION"))
+                .batchSize(getPositiveIntEnvVar("LogForwarderBatchSize", configuration.batchSize()))
+                .maxBatchBytes(getPositiveIntEnvVar("LogForwarderBatchMaxBytes", configuration.maxBatchBytes()))
+                .maxBatchLinger(Duration.ofMillis(getPositiveIntEnvVar("LogForwarderBatchMaxLingerMillis", (int) configuration.maxBatchLinger().toMillis())))
+                .maxLineBytes(getPositiveIntEnvVar("LogForwarderMaxLineBytes", configuration.maxLineBytes()))
+                .oversizedLines(OversizedLines.fromName(getEnvVar("LogForwarderOversizedLines", configuration.oversizedLines().name())))
+                .parallelism(getPositiveIntEnvVar("LogForwarderParallelism", configuration.parallelism()))
+                .maxInFlightBatches(getPositiveIntEnvVar("LogForwarderMaxInFlightBatches", configuration.maxInFlightBatches()))
+                .httpTimeout(Duration.ofMillis(getPositiveIntEnvVar("LogForwarderHttpTimeoutMillis", (int) configuration.httpTimeout().toMillis())))
+                .adaptiveBatching(Boolean.parseBoolean(getEnvVar("LogForwarderAdaptiveBatching", Boolean.toString(configuration.adaptiveBatching()))))
+                .minBatchSize(getPositiveIntEnvVar("LogForwarderMinBatchSize", configuration.minBatchSize()))
+                .minInFlightBatches(getPositiveIntEnvVar("LogForwarderMinInFlightBatches", configuration.minInFlightBatches()))
+                .targetLatency(Duration.ofMillis(getPositiveIntEnvVar("LogForwarderTargetLatencyMillis", (int) configuration.targetLatency().toMillis())))
+                .downloadPartSize(getPositiveIntEnvVar("LogForwarderDownloadPartSize", 0))
+                .downloadConcurrency(getPositiveIntEnvVar("LogForwarderDownloadConcurrency", 0))
+                .compression(PayloadCompression.fromName(getEnvVar("LogForwarderCompression", configuration.compression().name())))
+                .gzipDecoding(GzipDecoding.fromName(getEnvVar("LogForwarderGzipDecoding", configuration.gzipDecoding().name())))
+                .logFormat(LogFormat.parse(
+                        getEnvVar("LogForwarderFields", String.join(",", LogFormat.DEFAULT_FIELDS)),
+                        getEnvVar("LogForwarderFieldSeparator", LogFormat.DEFAULT_SEPARATOR),
+                        getEnvVar("LogForwarderNullValue", LogFormat.DEFAULT_NULL_VALUE)))
+                .outputEncoding(OutputEncoding.fromName(getEnvVar("LogForwarderOutputEncoding", configuration.outputEncoding().name())))
+                .rollupMode(RollupMode.fromName(getEnvVar("LogForwarderRollups", configuration.rollupMode().name())))
+                .logFilter(LogFilter.parse(
+                        getPositiveIntEnvVar("LogForwarderSampleRate", 1),
+                        getEnvVar("LogForwarderDropUriPrefixes", ""),
+                        getEnvVar("LogForwarderDropCachedExtensions", ""),
+                        getEnvVar("LogForwarderDropUserAgents", "")))
+                .maxRetries(getNonNegativeIntEnvVar("LogForwarderMaxRetries", configuration.maxRetries()))
+                .retryBaseDelay(Duration.ofMillis(getPositiveIntEnvVar("LogForwarderRetryBaseDelayMillis", (int) configuration.retryBaseDelay().toMillis())))
+                .retryMaxDelay(Duration.ofMillis(getPositiveIntEnvVar("LogForwarderRetryMaxDelayMillis", (int) configuration.retryMaxDelay().toMillis())))
+                .maxSpillBytes(getPositiveLongEnvVar("LogForwarderMaxSpillBytes", 0))
+                .checkpointing(Boolean.parseBoolean(getEnvVar("LogForwarderCheckpointing", Boolean.toString(configuration.checkpointing()))))
+                .checkpointInterval(Duration.ofMillis(getPositiveIntEnvVar("LogForwarderCheckpointIntervalMillis", (int) configuration.checkpointInterval().toMillis())))
+                .handOffMargin(Duration.ofMillis(getPositiveIntEnvVar("LogForwarderHandOffMarginMillis", (int) configuration.handOffMargin().toMillis())))
+                .deduplication(Boolean.parseBoolean(getEnvVar("LogForwarderDeduplication", Boolean.toString(configuration.deduplication()))))
+                .dedupFilterBytes(getPositiveIntEnvVar("LogForwarderDedupFilterBytes", configuration.dedupFilterBytes()))
+                .dedupFalsePositiveRate(getProbabilityEnvVar("LogForwarderDedupFalsePositiveRate", configuration.dedupFalsePositiveRate()));
+        for (int number = 2; System.getenv("LogForwarderHttpEndpoint" + number) != null; number++) {
+            configuration.additionalDestination(httpDestination(number, configuration));
+        }
+        return configuration;
+    }
+
+    // The batch limits, compression, concurrency, timeout and retries of a numbered destination default to those of the first one
+    private static HttpDestination httpDestination(int number, ForwarderConfiguration configuration) {
+        return new HttpDestination(
+                getRequiredEnvVar("LogForwarderHttpEndpoint" + number),
+                getRequiredEnvVar("LogForwarderCredentials" + number),
+                new BatchLimits(
+                        getPositiveIntEnvVar("LogForwarderBatchSize" + number, configuration.batchSize()),
+                        getPositiveIntEnvVar("LogForwarderBatchMaxBytes" + number, configuration.maxBatchBytes()),
+                        configuration.maxBatchLinger()),
+                PayloadCompression.fromName(getEnvVar("LogForwarderCompression" + number, configuration.compression().name())),
+                getPositiveIntEnvVar("LogForwarderMaxInFlightBatches" + number, configuration.maxInFlightBatches()),
+                Duration.ofMillis(getPositiveIntEnvVar("LogForwarderHttpTimeoutMillis" + number, (int) configuration.httpTimeout().toMillis())),
+                new RetryPolicy(getNonNegativeIntEnvVar("LogForwarderMaxRetries" + number, configuration.maxRetries()),
+                        configuration.retryBaseDelay(), configuration.retryMaxDelay()));
+    }
+
+    private static String getRequiredEnvVar(String varName) {
+        var value = System.getenv(varName);
+        if (value == null) {
+            throw new IllegalStateException(varName + " has to be configured");
+        }
+        return value;
+    }
+
+    private static String getEnvVar(String varName, String defaultValue) {
+        var value = System.getenv(varName);
+        return value != null ? value : defaultValue;
+    }
+
+    private static int getPositiveIntEnvVar(String varName, int defaultValue) {
+        var value = System.getenv(varName);
+        if (value == null) {
+            return defaultValue;
+        }
+        int intValue = Integer.parseInt(value);
+        if (intValue < 1) {
+            throw new IllegalStateException(varName + " has to be a positive number");
+        }
+        return intValue;
+    }
+
+    private static long getPositiveLongEnvVar(String varName, long defaultValue) {
+        var value = System.getenv(varName);
+        if (value == null) {
+            return defaultValue;
+        }
+        long longValue = Long.parseLong(value);
+        if (longValue < 1) {
+            throw new IllegalStateException(varName + " has to be a positive number");
+        }
+        return longValue;
+    }
+
+    private static int getNonNegativeIntEnvVar(String varName, int defaultValue) {
+        var value = System.getenv(varName);
+        if (value == null) {
+            return defaultValue;
+        }
+        int intValue = Integer.parseInt(value);
+        if (intValue < 0) {
+            throw new IllegalStateException(varName + " has to be zero or a positive number");
+        }
+        return intValue;
+    }
+
+    private static double getProbabilityEnvVar(String varName, double defaultValue) {
+        var value = System.getenv(varName);
+        if (value == null) {
+            return defaultValue;
+        }
+        double doubleValue = Double.parseDouble(value);
+        if (!(doubleValue > 0 && doubleValue < 1)) {
+            throw new IllegalStateException(varName + " has to be between 0 and 1");
+        }
+        return doubleValue;
+    }
+}
@@ -0,0 +1,155 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Totals of a single invocation, reported as CloudWatch Embedded Metric Format records that CloudWatch Logs turns into metrics.
+// Updated concurrently by every file and HTTP request - the per-line counts are summed per file before they get here.
+class ForwarderMetrics {
+
+    static final String NAMESPACE = "CloudflareLogsForwarder";
+
+    enum Counter {
+        FILES("Files", "Count"),
+        FILES_RESUMED("FilesResumed", "Count"),
+        FILES_HANDED_OFF("FilesHandedOff", "Count"),
+        CHECKPOINTS("Checkpoints", "Count"),
+        BYTES_DOWNLOADED("BytesDownloaded", "Bytes"),
+        BYTES_DECOMPRESSED("BytesDecompressed", "Bytes"),
+        LINES_PARSED("LinesParsed", "Count"),
+        LINES_DROPPED("LinesDropped", "Count"),
+        LINES_FILTERED("LinesFiltered", "Count"),
+        LINES_SAMPLED_OUT("LinesSampledOut", "Count"),
+        LINES_OVERSIZED("LinesOversized", "Count"),
+        LINES_DEDUPLICATED("LinesDeduplicated", "Count"),
+        LINES_AGGREGATED("LinesAggregated", "Count"),
+        ROLLUP_RECORDS("RollupRecords", "Count"),
+        BATCHES_SENT("BatchesSent", "Count"),
+        BYTES_SENT("BytesSent", "Bytes"),
+        BATCHES_RETRIED("BatchesRetried", "Count"),
+        BATCHES_SPILLED("BatchesSpilled", "Count"),
+        SPILLED_BATCHES_SENT("SpilledBatchesSent", "Count"),
+        BATCHES_RATE_LIMITED("BatchesRateLimited", "Count"),
+        BATCH_SIZE_INCREASES("BatchSizeIncreases", "Count"),
+        BATCH_SIZE_DECREASES("BatchSizeDecreases", "Count"),
+        IN_FLIGHT_INCREASES("InFlightBatchesIncreases", "Count"),
+        IN_FLIGHT_DECREASES("InFlightBatchesDecreases", "Count"),
+        DOWNLOAD_NANOS("DownloadTime", "Milliseconds"),
+        DECOMPRESS_NANOS("DecompressTime", "Milliseconds"),
+        TRANSFORM_NANOS("TransformTime", "Milliseconds"),
+        HTTP_NANOS("HttpTime", "Milliseconds");
+
+        private final String metricName;
+        private final String unit;
+
+        Counter(String metricName, String unit) {
+            this.metricName = metricName;
+            this.unit = unit;
+        }
+    }
+
+    // Values of a destination read as the records are rendered rather than totals of the invocation
+    enum Gauge {
+        BATCH_SIZE("BatchSize", "Count"),
+        IN_FLIGHT_BATCHES("InFlightBatches", "Count");
+
+        private final String metricName;
+        private final String unit;
+
+        Gauge(String metricName, String unit) {
+            this.metricName = metricName;
+            this.unit = unit;
+        }
+    }
+
+    private static final double[] HTTP_LATENCY_PERCENTILES = {50, 90, 99};
+
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+    private final Map<String, Map<Gauge, LongSupplier>> gauges = new ConcurrentSkipListMap<>();
+    private final LatencyHistogram httpLatency = new LatencyHistogram();
+
+    ForwarderMetrics() {
+        for (var counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+    }
+
+    void add(Counter counter, long value) {
+        counters.get(counter).add(value);
+    }
+
+    void gauge(Gauge gauge, String destination, LongSupplier value) {
+        gauges.computeIfAbsent(destination, d -> new ConcurrentHashMap<>()).put(gauge, value);
+    }
+
+    void recordHttpRequest(long bytes, long latencyNanos) {
+        add(Counter.BATCHES_SENT, 1);
+        add(Counter.BYTES_SENT, bytes);
+        add(Counter.HTTP_NANOS, latencyNanos);
+        httpLatency.recordNanos(latencyNanos);
+    }
+
+    long get(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    // Renders everything recorded since the previous call as single line EMF records and starts over. The gauges follow
+    // in a record per destination, as a record holds a single value of each dimension.
+    String emfRecordAndReset(String functionName, long timestampMillis) {
+        var definitions = new StringBuilder();
+        var values = new StringBuilder();
+        for (var counter : Counter.values()) {
+            long value = counters.get(counter).sumThenReset();
+            // times are kept in nanoseconds
+            boolean isTime = counter.unit.equals("Milliseconds");
+            appendMetric(definitions, values, counter.metricName, counter.unit, isTime ? millis(value / 1000) : Long.toString(value));
+        }
+        var latency = httpLatency.snapshotAndReset();
+        for (double percentile : HTTP_LATENCY_PERCENTILES) {
+            appendMetric(definitions, values, "HttpLatencyP" + (int) percentile, "Milliseconds", millis(latency.percentileMicros(percentile)));
+        }
+        appendMetric(definitions, values, "HttpLatencyMax", "Milliseconds", millis(latency.maxMicros()));
+
+        var records = new StringBuilder(emfRecord(timestampMillis, "[\"FunctionName\"]", definitions,
+                ",\"FunctionName\":\"" + escape(functionName) + "\"" + values));
+        gauges.forEach((destination, destinationGauges) -> {
+            var gaugeDefinitions = new StringBuilder();
+            var gaugeValues = new StringBuilder();
+            for (var gauge : Gauge.values()) {
+                var value = destinationGauges.get(gauge);
+                if (value != null) {
+                    appendMetric(gaugeDefinitions, gaugeValues, gauge.metricName, gauge.unit, Long.toString(value.getAsLong()));
+                }
+            }
+            records.append('\n').append(emfRecord(timestampMillis, "[\"FunctionName\",\"Destination\"]", gaugeDefinitions,
+                    ",\"FunctionName\":\"" + escape(functionName) + "\",\"Destination\":\"" + escape(destination) + "\"" + gaugeValues));
+        });
+        return records.toString();
+    }
+
+    private static String emfRecord(long timestampMillis, String dimensions, CharSequence definitions, String values) {
+        return "{\"_aws\":{\"Timestamp\":" + timestampMillis
+                + ",\"CloudWatchMetrics\":[{\"Namespace\":\"" + NAMESPACE + "\",\"Dimensions\":[" + dimensions + "],\"Metrics\":[" + definitions + "]}]}"
+                + values + "}";
+    }
+
+    private static void appendMetric(StringBuilder definitions, StringBuilder values, String name, String unit, String value) {
+        if (!definitions.isEmpty()) {
+            definitions.append(',');
+        }
+        definitions.append("{\"Name\":\"").append(name).append("\",\"Unit\":\"").append(unit).append("\"}");
+        values.append(",\"").append(name).append("\":").append(value);
+    }
+
+    private static String millis(long micros) {
+        return micros % 1000 == 0 ? Long.toString(micros / 1000) : Double.toString(micros / 1000.0);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,107 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+// Builds the forwarder of every file and writes out the rollups of the invocation once the files are done
+final class Forwarders {
+
+    private final Function<Deduplicator, FileForwarder> fileForwarders;
+    private final RollupAggregator rollups;
+    private final LogFormat logFormat;
+
+    Forwarders(Supplier<LogForwarder> fileForwarders) {
+        this.fileForwarders = deduplicator -> {
+            var logForwarder = fileForwarders.get();
+            return new FileForwarder(logForwarder, logForwarder);
+        };
+        this.rollups = null;
+        this.logFormat = LogFormat.DEFAULT;
+    }
+
+    // Destinations with the same fixed batch limits share the batches - the others, adaptive ones included, are batched separately
+    Forwarders(Supplier<LogTransformer> logTransformers, List<LogDestination> destinations, OutputEncoding outputEncoding, LogFilter logFilter,
+               RollupMode rollupMode, LogFormat logFormat, int parallelism, ForwarderMetrics metrics) {
+        Map<Batching, List<CloseableLogConsumer>> logConsumersByLimits = new LinkedHashMap<>();
+        for (var destination : destinations) {
+            logConsumersByLimits.computeIfAbsent(new Batching(destination.batchLimits(), destination.adaptiveLimits()), limits -> new ArrayList<>())
+                    .add(destination.logConsumer());
+        }
+        List<Supplier<LogForwarder>> batchingForwardersByLimits = new ArrayList<>();
+        logConsumersByLimits.forEach((batching, logConsumers) -> {
+            var batchLimits = batching.batchLimits();
+            IntSupplier maxLines = batching.adaptiveLimits() != null ? batching.adaptiveLimits()::batchSize : batchLimits::maxLines;
+            var logConsumer = FanOutLogConsumer.of(logConsumers);
+            var batchPool = new LogBatchPool(batchLimits.maxBytes(), outputEncoding.newlineTerminated(), maxBatches(logConsumer, parallelism));
+            batchingForwardersByLimits.add(() -> new BatchingLogForwarder(batchLimits, maxLines, batchPool, logConsumer, System::nanoTime));
+        });
+        Supplier<LogForwarder> batchingForwarders = () -> FanOutLogForwarder.of(batchingForwardersByLimits.stream().map(Supplier::get).toList());
+        Function<Deduplicator, LogForwarder> lineForwarders = deduplicator -> new TransformingLogForwarder(logFilter, logTransformers.get(),
+                deduplicator, batchingForwarders.get(), metrics);
+        var rollupAggregator = new RollupAggregator(logFormat, outputEncoding, batchingForwarders, metrics);
+        this.fileForwarders = switch (rollupMode) {
+            case NONE -> deduplicator -> {
+                var lineForwarder = lineForwarders.apply(deduplicator);
+                return new FileForwarder(lineForwarder, lineForwarder);
+            };
+            case ONLY -> deduplicator -> new FileForwarder(new RollupLogForwarder(rollupAggregator, metrics), null);
+            case BOTH -> deduplicator -> {
+                var lineForwarder = lineForwarders.apply(deduplicator);
+                return new FileForwarder(new RollupLogForwarder(rollupAggregator, lineForwarder, metrics), lineForwarder);
+            };
+        };
+        this.rollups = rollupMode != RollupMode.NONE ? rollupAggregator : null;
+        this.logFormat = logFormat;
+    }
+
+    // Besides the batches the consumer holds, one for every file processed concurrently and one for the rollups
+    private static int maxBatches(CloseableLogConsumer logConsumer, int parallelism) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) logConsumer.maxHeldBatches() + parallelism + 1);
+    }
+
+    LogForwarder fileForwarder() {
+        return fileForwarder(null).logForwarder();
+    }
+
+    // The deduplicator, if any, skips the lines shipped by an earlier run
+    FileForwarder fileForwarder(Deduplicator deduplicator) {
+        return fileForwarders.apply(deduplicator);
+    }
+
+    LogFormat logFormat() {
+        return logFormat;
+    }
+
+    // Returns false if some of the rollups failed to be delivered
+    boolean writeOutRollups() {
+        return rollups == null || rollups.writeOut() != Delivery.FAILED;
+    }
+
+    void clearRollups() {
+        if (rollups != null) {
+            rollups.clear();
+        }
+    }
+
+    // The forwarder of the lines of a file, without its rollups, is null if only the rollups are forwarded
+    record FileForwarder(LogForwarder logForwarder, LogForwarder lineForwarder) {
+
+        // Waits for the lines alone, so that the deduplicator stores the shipped lines of the completed file
+        void awaitLinesDelivered(String key) {
+            if (lineForwarder != null && lineForwarder.awaitDelivered() == Delivery.FAILED) {
+                throw new UncheckedIOException(new IOException("Failed to deliver log batches of " + key));
+            }
+        }
+    }
+
+    // Adaptive limits are compared by identity, so that every adaptive destination gets batches of its own
+    private record Batching(BatchLimits batchLimits, AdaptiveLimits adaptiveLimits) {
+    }
+}
@@ -0,0 +1,44 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Not thread safe - reuses a single Deflater for all the payloads it compresses
+class GzipCompressor {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+
+    GzipCompressor(int level) {
+        this.deflater = new Deflater(level, true);
+    }
+
+    void compress(byte[] input, int offset, int length, ByteArrayBuilder out) {
+        out.append(HEADER);
+        deflater.reset();
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.ensureCapacity(out.length() + Math.max(length / 4, 4096));
+            int compressed = deflater.deflate(out.array(), out.length(), out.capacity() - out.length());
+            out.setLength(out.length() + compressed);
+        }
+        crc.reset();
+        crc.update(input, offset, length);
+        appendIntLittleEndian((int) crc.getValue(), out);
+        appendIntLittleEndian(length, out);
+    }
+
+    void close() {
+        deflater.end();
+    }
+
+    private static void appendIntLittleEndian(int value, ByteArrayBuilder out) {
+        out.append((byte) value)
+                .append((byte) (value >> 8))
+                .append((byte) (value >> 16))
+                .append((byte) (value >> 24));
+    }
+}
@@ -0,0 +1,41 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+
+enum GzipDecoding {
+
+    // GZIPInputStream inflating on a separate thread ahead of the reader. Does not report gzip members.
+    JDK {
+        @Override
+        InputStream decode(InputStream compressed, ExecutorService executor, GzipMemberListener memberListener) throws IOException {
+            return new ReadAheadInputStream(new GZIPInputStream(compressed, BUFFER_SIZE), executor, BUFFER_SIZE, READ_AHEAD_CHUNKS);
+        }
+    },
+
+    // Independent gzip members inflated concurrently, falling back to a sequential Inflater for large members
+    PARALLEL {
+        @Override
+        InputStream decode(InputStream compressed, ExecutorService executor, GzipMemberListener memberListener) {
+            return new ParallelGzipInputStream(compressed, executor, SEGMENT_SIZE, SEGMENTS_IN_FLIGHT, memberListener);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int READ_AHEAD_CHUNKS = 4;
+    private static final int SEGMENT_SIZE = 256 * 1024;
+    private static final int SEGMENTS_IN_FLIGHT = 2;
+
+    abstract InputStream decode(InputStream compressed, ExecutorService executor, GzipMemberListener memberListener) throws IOException;
+
+    InputStream decode(InputStream compressed, ExecutorService executor) throws IOException {
+        return decode(compressed, executor, GzipMemberListener.NONE);
+    }
+
+    static GzipDecoding fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
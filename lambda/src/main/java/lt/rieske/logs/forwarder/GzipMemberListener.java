@@ -0,0 +1,10 @@
+package lt.rieske.logs.forwarder;
+
+// Told where gzip members start, before any of their inflated bytes can be read
+interface GzipMemberListener {
+
+    GzipMemberListener NONE = (compressedOffset, inflatedOffset) -> {
+    };
+
+    void memberStart(long compressedOffset, long inflatedOffset);
+}
@@ -0,0 +1,213 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Inflates a stream of one or more concatenated gzip members with a single Inflater reading through a large input buffer.
+// Strict mode is for byte ranges that have to consist of whole members only, where anything else is an error
+// rather than the trailing garbage a gzip file is allowed to end with.
+class GzipMembersInputStream extends InputStream {
+
+    private static final int GZIP_MAGIC_1 = 0x1F;
+    private static final int GZIP_MAGIC_2 = 0x8B;
+    private static final int DEFLATE = 8;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream source;
+    private final ByteBuffer input;
+    private final boolean strict;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final GzipMemberListener memberListener;
+    private final long compressedOffset;
+    private final long inflatedOffset;
+
+    private boolean inMember = false;
+    private boolean finished = false;
+    private int members = 0;
+    private long memberSize;
+    private long sourceBytesRead = 0;
+    private long inflatedBytes = 0;
+
+    GzipMembersInputStream(InputStream source, int bufferSize) {
+        this(source, bufferSize, GzipMemberListener.NONE, 0, 0);
+    }
+
+    // The offsets are where the source starts in the whole compressed stream, and how many bytes were inflated before it
+    GzipMembersInputStream(InputStream source, int bufferSize, GzipMemberListener memberListener, long compressedOffset, long inflatedOffset) {
+        this.source = source;
+        this.input = ByteBuffer.allocate(bufferSize).flip();
+        this.strict = false;
+        this.memberListener = memberListener;
+        this.compressedOffset = compressedOffset;
+        this.inflatedOffset = inflatedOffset;
+    }
+
+    GzipMembersInputStream(byte[] members, int length) {
+        this.source = InputStream.nullInputStream();
+        this.input = ByteBuffer.wrap(members, 0, length);
+        this.strict = true;
+        this.memberListener = GzipMemberListener.NONE;
+        this.compressedOffset = 0;
+        this.inflatedOffset = 0;
+        this.sourceBytesRead = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!finished) {
+            if (!inMember) {
+                if (!startMember()) {
+                    finished = true;
+                    break;
+                }
+                continue;
+            }
+            int count = inflate(b, off, len);
+            if (count > 0) {
+                crc.update(b, off, count);
+                memberSize += count;
+                inflatedBytes += count;
+                return count;
+            }
+            if (inflater.finished()) {
+                endMember();
+            } else if (inflater.needsInput()) {
+                if (!fill()) {
+                    throw new EOFException("Unexpected end of gzip member");
+                }
+                inflater.setInput(input);
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("Unsupported preset dictionary in gzip member");
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int available() {
+        return 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        inflater.end();
+        source.close();
+    }
+
+    private int inflate(byte[] b, int off, int len) throws ZipException {
+        try {
+            return inflater.inflate(b, off, len);
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflate data: " + e.getMessage());
+        }
+    }
+
+    private boolean startMember() throws IOException {
+        if (!input.hasRemaining() && !fill()) {
+            if (members == 0) {
+                throw new EOFException("Empty gzip stream");
+            }
+            return false;
+        }
+        long memberOffset = sourceBytesRead - input.remaining();
+        int magic1 = readUnsignedByte();
+        int magic2 = input.hasRemaining() || fill() ? readUnsignedByte() : -1;
+        if (magic1 != GZIP_MAGIC_1 || magic2 != GZIP_MAGIC_2) {
+            if (members == 0 || strict) {
+                throw new ZipException("Not in gzip format");
+            }
+            return false; // trailing garbage after the last member is ignored, same as GZIPInputStream does
+        }
+        if (readUnsignedByte() != DEFLATE) {
+            throw new ZipException("Unsupported gzip compression method");
+        }
+        int flags = readUnsignedByte();
+        skip(6); // modification time, extra flags and OS
+        if ((flags & FEXTRA) != 0) {
+            skip(readUnsignedByte() | (readUnsignedByte() << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FHCRC) != 0) {
+            skip(2);
+        }
+        memberListener.memberStart(compressedOffset + memberOffset, inflatedOffset + inflatedBytes);
+        inflater.reset();
+        inflater.setInput(input);
+        crc.reset();
+        memberSize = 0;
+        inMember = true;
+        members++;
+        return true;
+    }
+
+    private void endMember() throws IOException {
+        long expectedCrc = readIntLittleEndian();
+        long expectedSize = readIntLittleEndian();
+        if (expectedCrc != crc.getValue() || expectedSize != (memberSize & 0xFFFFFFFFL)) {
+            throw new ZipException("Corrupt gzip trailer");
+        }
+        inMember = false;
+    }
+
+    private long readIntLittleEndian() throws IOException {
+        return (readUnsignedByte() | (readUnsignedByte() << 8) | (readUnsignedByte() << 16) | ((long) readUnsignedByte() << 24));
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        while (readUnsignedByte() != 0) {
+            // skip
+        }
+    }
+
+    private void skip(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            readUnsignedByte();
+        }
+    }
+
+    private int readUnsignedByte() throws IOException {
+        if (!input.hasRemaining() && !fill()) {
+            throw new EOFException("Unexpected end of gzip header or trailer");
+        }
+        return input.get() & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        input.compact();
+        try {
+            int read = source.read(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            if (read > 0) {
+                input.position(input.position() + read);
+                sourceBytesRead += read;
+            }
+        } finally {
+            input.flip();
+        }
+        return input.hasRemaining();
+    }
+}
@@ -0,0 +1,8 @@
+package lt.rieske.logs.forwarder;
+
+import java.time.Duration;
+
+// An HTTP endpoint the log lines are forwarded to, batched, compressed, sent and retried independently of the others
+record HttpDestination(String endpoint, String credentials, BatchLimits batchLimits, PayloadCompression compression, int maxInFlightBatches,
+                       Duration timeout, RetryPolicy retryPolicy) {
+}
@@ -1,45 +1,321 @@
 package lt.rieske.logs.forwarder;
 
-import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.LambdaRuntime;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
 import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.Deflater;
 
+// Sends as many batches concurrently as the limits allow, blocking the caller once that many are awaiting a response.
+// Batches failed by the network or a 408, 429 or 5xx response are retried, and spilled to disk once out of retries.
 class HttpLogConsumer implements CloseableLogConsumer {
 
-    private final String endpoint;
+    private static final LambdaLogger logger = LambdaRuntime.getLogger();
+
+    private final URI endpoint;
     private final String credentials;
-    private final CloseableHttpClient httpClient;
+    private final ContentType contentType;
+    private final Duration timeout;
+    private final AdaptiveLimits limits;
+    private final PayloadCompression compression;
+    private final GzipCompressor compressor;
+    private final PoolingAsyncClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient httpClient;
+    private final RetryPolicy retryPolicy;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("http-retry").factory());
+    private final SpillQueue spillQueue;
+    private final ForwarderMetrics metrics;
+
+    private volatile IOException failure;
 
-    HttpLogConsumer(String endpoint, String credentials) {
-        this.endpoint = endpoint;
+    HttpLogConsumer(String endpoint, String credentials, OutputEncoding encoding, AdaptiveLimits limits, PayloadCompression compression,
+                    Duration timeout, RetryPolicy retryPolicy, SpillQueue spillQueue, ForwarderMetrics metrics) {
+        this.endpoint = URI.create(endpoint);
         this.credentials = "Bearer " + credentials;
-        this.httpClient = HttpClients.createDefault();
+        this.contentType = ContentType.create(encoding.mimeType(), encoding.charset());
+        this.timeout = timeout;
+        this.limits = limits;
+        this.compression = compression;
+        this.compressor = compression == PayloadCompression.GZIP ? new GzipCompressor(Deflater.BEST_SPEED) : null;
+        this.connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setDefaultTlsConfig(TlsConfig.custom().setVersionPolicy(HttpVersionPolicy.NEGOTIATE).build())
+                .setMaxConnPerRoute(limits.maxInFlightBatches())
+                .setMaxConnTotal(limits.maxInFlightBatches())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(timeout.toMillis()))
+                        .setSocketTimeout(Timeout.ofMilliseconds(timeout.toMillis()))
+                        .build())
+                .build();
+        this.httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(timeout.toMillis()))
+                        .setResponseTimeout(Timeout.ofMilliseconds(timeout.toMillis()))
+                        .build())
+                .build();
+        this.httpClient.start();
+        this.retryPolicy = retryPolicy;
+        this.spillQueue = spillQueue;
+        this.metrics = metrics;
     }
 
     @Override
-    public void accept(String payload) {
-        var request = new HttpPost(endpoint);
-        request.setEntity(new StringEntity(payload, ContentType.TEXT_PLAIN));
-        request.setHeader("Authorization", credentials);
+    public void accept(LogBatch batch) {
         try {
-            httpClient.execute(request, response -> {
-                if (response.getCode() != 200) {
-                    throw new IOException("Error consuming logs: " + response.getReasonPhrase());
-                }
-                return response;
-            });
+            throwIfFailed();
+            limits.acquire();
         } catch (IOException e) {
+            batch.release();
             throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            batch.release();
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException());
+        }
+
+        try {
+            send(batch, payload(batch), 0);
+        } catch (RuntimeException e) {
+            batch.release();
+            limits.release();
+            throw e;
+        }
+    }
+
+    private Payload payload(LogBatch batch) {
+        if (compressor == null) {
+            return new Payload(batch.array(), batch.length(), compression);
+        }
+        var compressed = batch.encodingBuffer();
+        synchronized (compressor) {
+            compressor.compress(batch.array(), 0, batch.length(), compressed);
+        }
+        return new Payload(compressed.array(), compressed.length(), compression);
+    }
+
+    private void send(LogBatch batch, Payload payload, int retries) {
+        httpClient.execute(payload.request(endpoint, credentials, contentType), SimpleResponseConsumer.create(), responseCallback(batch, payload, retries, limits.epoch(), System.nanoTime()));
+    }
+
+    private FutureCallback<SimpleHttpResponse> responseCallback(LogBatch batch, Payload payload, int retries, long epoch, long startNanos) {
+        return new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                if (response.getCode() == 200) {
+                    long latencyNanos = System.nanoTime() - startNanos;
+                    metrics.recordHttpRequest(payload.length(), latencyNanos);
+                    limits.delivered(epoch, latencyNanos);
+                    complete(batch, null);
+                } else if (isRetryable(response.getCode())) {
+                    if (response.getCode() == 429) {
+                        metrics.add(ForwarderMetrics.Counter.BATCHES_RATE_LIMITED, 1);
+                    }
+                    limits.congested(epoch);
+                    retryOrSpill(batch, payload, retries, new IOException("Error consuming logs: " + response.getReasonPhrase()));
+                } else {
+                    complete(batch, new IOException("Error consuming logs: " + response.getReasonPhrase()));
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                limits.congested(epoch);
+                retryOrSpill(batch, payload, retries, e instanceof IOException ioException ? ioException : new IOException(e));
+            }
+
+            @Override
+            public void cancelled() {
+                complete(batch, new InterruptedIOException("Log batch request cancelled"));
+            }
+        };
+    }
+
+    // The batch keeps its in flight slot while waiting for a retry, so retries slow down the producers rather than pile up
+    private void retryOrSpill(LogBatch batch, Payload payload, int retries, IOException error) {
+        if (retryPolicy.canRetry(retries)) {
+            metrics.add(ForwarderMetrics.Counter.BATCHES_RETRIED, 1);
+            try {
+                retryScheduler.schedule(() -> retry(batch, payload, retries + 1), retryPolicy.delayMillis(retries), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                complete(batch, error);
+            }
+            return;
+        }
+        try {
+            if (spillQueue.offer(payload.content(), payload.length(), payload.compression())) {
+                metrics.add(ForwarderMetrics.Counter.BATCHES_SPILLED, 1);
+                batch.markSpilled();
+                release(batch, null);
+                return;
+            }
+        } catch (IOException e) {
+            error.addSuppressed(e);
+        }
+        complete(batch, error);
+    }
+
+    private void retry(LogBatch batch, Payload payload, int retries) {
+        try {
+            send(batch, payload, retries);
+        } catch (RuntimeException e) {
+            complete(batch, new IOException(e));
+        }
+    }
+
+    private void complete(LogBatch batch, IOException error) {
+        if (error == null) {
+            batch.markDelivered();
+        }
+        release(batch, error);
+    }
+
+    private void release(LogBatch batch, IOException error) {
+        batch.release();
+        if (error != null) {
+            recordFailure(error);
+        }
+        limits.release();
+    }
+
+    // Sends the batches spilled by this or an earlier invocation until the deadline - the rest stay spilled for the next one
+    private void sendSpilledBatches(long deadlineNanos) throws IOException {
+        if (spillQueue.size() == 0) {
+            return;
         }
+        int sent = spillQueue.drain(this::sendSpilledBatch, deadlineNanos);
+        metrics.add(ForwarderMetrics.Counter.SPILLED_BATCHES_SENT, sent);
+        if (spillQueue.size() > 0) {
+            logger.log("Log batches that could not be sent remain spilled to " + spillQueue.file() + ": " + spillQueue.size() + " bytes");
+        }
+    }
+
+    private boolean sendSpilledBatch(byte[] content, PayloadCompression payloadCompression) throws IOException {
+        var payload = new Payload(content, content.length, payloadCompression);
+        long startNanos = System.nanoTime();
+        var request = httpClient.execute(payload.request(endpoint, credentials, contentType), SimpleResponseConsumer.create(), null);
+        try {
+            // the client times out a stalled request on its own - this only bounds the wait should it not
+            var response = request.get(3 * timeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (response.getCode() != 200) {
+                return false;
+            }
+            metrics.recordHttpRequest(payload.length(), System.nanoTime() - startNanos);
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (TimeoutException e) {
+            request.cancel(true);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flush(Long.MAX_VALUE);
+    }
+
+    // Once no batches are in flight the failure is cleared, so that the next invocation starts afresh
+    @Override
+    public void flush(long deadlineNanos) throws IOException {
+        try {
+            limits.awaitIdle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        var error = takeFailure();
+        if (error != null) {
+            throw error;
+        }
+        sendSpilledBatches(deadlineNanos);
+    }
+
+    @Override
+    public void closeIdleConnections() {
+        connectionManager.closeIdle(TimeValue.ZERO_MILLISECONDS);
+    }
+
+    // A batch keeps its in flight slot while waiting for a retry
+    @Override
+    public int maxHeldBatches() {
+        return limits.maxInFlightBatches();
     }
 
     @Override
     public void close() throws IOException {
-        httpClient.close();
+        try {
+            flush();
+        } finally {
+            retryScheduler.shutdownNow();
+            httpClient.close(CloseMode.GRACEFUL);
+            if (compressor != null) {
+                compressor.close();
+            }
+            spillQueue.close();
+        }
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    private synchronized void recordFailure(IOException error) {
+        if (failure == null) {
+            failure = error;
+        } else {
+            failure.addSuppressed(error);
+        }
+    }
+
+    private synchronized IOException takeFailure() {
+        var error = failure;
+        failure = null;
+        return error;
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private record Payload(byte[] content, int length, PayloadCompression compression) {
+
+        BasicRequestProducer request(URI endpoint, String credentials, ContentType contentType) {
+            var request = new BasicHttpRequest(Method.POST, endpoint);
+            request.setHeader("Authorization", credentials);
+            return new BasicRequestProducer(request, new LogBatchEntityProducer(content, length, contentType, compression.contentEncoding()));
+        }
     }
 }
@@ -0,0 +1,274 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+class JsonFieldExtractor {
+
+    private final FieldMatcher fieldMatcher;
+    private final ByteArrayBuilder keyBuffer = new ByteArrayBuilder(64);
+
+    private boolean escaped;
+    private int lineStart;
+    private boolean truncated;
+
+    JsonFieldExtractor(FieldMatcher fieldMatcher) {
+        this.fieldMatcher = fieldMatcher;
+    }
+
+    int fieldCount() {
+        return fieldMatcher.fieldCount();
+    }
+
+    void extract(byte[] json, int offset, int length, LogRecord record) {
+        extract(json, offset, length, record, false);
+    }
+
+    // A truncated line keeps the fields read before it ends, and leaves the field it ends in and the rest unset
+    void extract(byte[] json, int offset, int length, LogRecord record, boolean truncated) {
+        this.truncated = truncated;
+        try {
+            extractFields(json, offset, length, record);
+        } catch (UncheckedIOException e) {
+            if (!truncated) {
+                throw e;
+            }
+        }
+    }
+
+    private void extractFields(byte[] json, int offset, int length, LogRecord record) {
+        record.clear();
+        lineStart = offset;
+        int end = offset + length;
+        int i = expect(json, skipWhitespace(json, offset, end), end, '{');
+        i = skipWhitespace(json, i, end);
+        if (i < end && json[i] == '}') {
+            return;
+        }
+        while (true) {
+            int keyStart = expect(json, i, end, '"');
+            int keyEnd = scanString(json, keyStart, end);
+            int field = escaped ? fieldOfEscapedKey(json, keyStart, keyEnd) : fieldMatcher.fieldOf(json, keyStart, keyEnd - keyStart);
+            i = skipWhitespace(json, expect(json, skipWhitespace(json, keyEnd + 1, end), end, ':'), end);
+            i = field < 0 ? skipValue(json, i, end) : readValue(json, i, end, record, field);
+            i = skipWhitespace(json, i, end);
+            if (i < end && json[i] == ',') {
+                i = skipWhitespace(json, i + 1, end);
+            } else if (i < end && json[i] == '}') {
+                return;
+            } else {
+                throw malformed("expected ',' or '}'", i);
+            }
+        }
+    }
+
+    private int fieldOfEscapedKey(byte[] json, int keyStart, int keyEnd) {
+        keyBuffer.setLength(0);
+        unescape(json, keyStart, keyEnd, keyBuffer);
+        return fieldMatcher.fieldOf(keyBuffer.array(), 0, keyBuffer.length());
+    }
+
+    private int readValue(byte[] json, int i, int end, LogRecord record, int field) {
+        if (i >= end) {
+            throw malformed("expected a value", i);
+        }
+        byte b = json[i];
+        if (b == '"') {
+            int closingQuote = scanString(json, i + 1, end);
+            if (escaped) {
+                unescape(json, i + 1, closingQuote, record.beginUnescapedValue(field));
+                record.endUnescapedValue(field);
+            } else {
+                record.set(field, LogRecord.STRING, json, i + 1, closingQuote - i - 1);
+            }
+            return closingQuote + 1;
+        }
+        if (b == '{' || b == '[') {
+            throw malformed("expected a scalar value", i);
+        }
+        int literalEnd = scanLiteral(json, i, end);
+        if (truncated && literalEnd == end) {
+            throw malformed("truncated literal", i);
+        }
+        if (isLiteral(json, i, literalEnd, "null")) {
+            record.setNull(field);
+        } else if (isLiteral(json, i, literalEnd, "true") || isLiteral(json, i, literalEnd, "false")
+                || b == '-' || (b >= '0' && b <= '9')) {
+            record.set(field, LogRecord.LITERAL, json, i, literalEnd - i);
+        } else {
+            throw malformed("unrecognized token", i);
+        }
+        return literalEnd;
+    }
+
+    private int skipValue(byte[] json, int i, int end) {
+        if (i >= end) {
+            throw malformed("expected a value", i);
+        }
+        byte b = json[i];
+        if (b == '"') {
+            return scanString(json, i + 1, end) + 1;
+        }
+        if (b == '{' || b == '[') {
+            return skipNested(json, i, end);
+        }
+        int literalEnd = scanLiteral(json, i, end);
+        if (truncated && literalEnd == end) {
+            throw malformed("truncated literal", i);
+        }
+        if (literalEnd == i) {
+            throw malformed("expected a value", i);
+        }
+        return literalEnd;
+    }
+
+    private int skipNested(byte[] json, int i, int end) {
+        int depth = 0;
+        while (i < end) {
+            byte b = json[i];
+            if (b == '"') {
+                i = scanString(json, i + 1, end) + 1;
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        throw malformed("unterminated object or array", i);
+    }
+
+    private int scanString(byte[] json, int i, int end) {
+        escaped = false;
+        while (i < end) {
+            byte b = json[i];
+            if (b == '"') {
+                return i;
+            }
+            if (b == '\\') {
+                escaped = true;
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+        throw malformed("unterminated string", end);
+    }
+
+    private static int scanLiteral(byte[] json, int i, int end) {
+        while (i < end) {
+            byte b = json[i];
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                return i;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isLiteral(byte[] json, int start, int end, String literal) {
+        if (end - start != literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (json[start + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void unescape(byte[] json, int from, int to, ByteArrayBuilder out) {
+        int runStart = from;
+        int i = from;
+        while (i < to) {
+            if (json[i] != '\\') {
+                i++;
+                continue;
+            }
+            out.append(json, runStart, i - runStart);
+            byte escape = json[i + 1];
+            switch (escape) {
+                case '"', '\\', '/' -> out.append(escape);
+                case 'b' -> out.append((byte) '\b');
+                case 'f' -> out.append((byte) '\f');
+                case 'n' -> out.append((byte) '\n');
+                case 'r' -> out.append((byte) '\r');
+                case 't' -> out.append((byte) '\t');
+                case 'u' -> {
+                    int codePoint = hex4(json, i + 2, to);
+                    if (Character.isHighSurrogate((char) codePoint) && i + 12 <= to
+                            && json[i + 6] == '\\' && json[i + 7] == 'u') {
+                        int low = hex4(json, i + 8, to);
+                        if (Character.isLowSurrogate((char) low)) {
+                            codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                            i += 6;
+                        }
+                    }
+                    appendUtf8(codePoint, out);
+                    i += 4;
+                }
+                default -> throw malformed("unrecognized character escape", i);
+            }
+            i += 2;
+            runStart = i;
+        }
+        out.append(json, runStart, to - runStart);
+    }
+
+    private int hex4(byte[] json, int i, int end) {
+        if (i + 4 > end) {
+            throw malformed("truncated unicode escape", i);
+        }
+        int value = 0;
+        for (int k = i; k < i + 4; k++) {
+            int digit = Character.digit(json[k], 16);
+            if (digit < 0) {
+                throw malformed("invalid unicode escape", k);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static void appendUtf8(int codePoint, ByteArrayBuilder out) {
+        if (codePoint < 0x80) {
+            out.append((byte) codePoint);
+        } else if (codePoint < 0x800) {
+            out.append((byte) (0xC0 | (codePoint >> 6)))
+                    .append((byte) (0x80 | (codePoint & 0x3F)));
+        } else if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+            // a lone surrogate is not representable in UTF-8 and gets replaced the same way String encoding does
+            out.append((byte) '?');
+        } else if (codePoint < 0x10000) {
+            out.append((byte) (0xE0 | (codePoint >> 12)))
+                    .append((byte) (0x80 | ((codePoint >> 6) & 0x3F)))
+                    .append((byte) (0x80 | (codePoint & 0x3F)));
+        } else {
+            out.append((byte) (0xF0 | (codePoint >> 18)))
+                    .append((byte) (0x80 | ((codePoint >> 12) & 0x3F)))
+                    .append((byte) (0x80 | ((codePoint >> 6) & 0x3F)))
+                    .append((byte) (0x80 | (codePoint & 0x3F)));
+        }
+    }
+
+    private static int skipWhitespace(byte[] json, int i, int end) {
+        while (i < end && (json[i] == ' ' || json[i] == '\t' || json[i] == '\n' || json[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private int expect(byte[] json, int i, int end, char expected) {
+        if (i >= end || json[i] != expected) {
+            throw malformed("expected '" + expected + "'", i);
+        }
+        return i + 1;
+    }
+
+    private UncheckedIOException malformed(String reason, int position) {
+        return new UncheckedIOException(new IOException("Malformed log line: " + reason + " at position " + (position - lineStart)));
+    }
+}
@@ -0,0 +1,58 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.Arrays;
+
+// Mergeable log-linear histogram of latencies in microseconds, with the bucket layout of LatencyHistogram.
+// Not thread safe - one is kept per rollup row, so the counts only grow as far as the largest recorded bucket.
+final class LatencySketch {
+
+    private int[] counts = new int[0];
+    private long count;
+    private long maxMicros;
+
+    void record(long micros) {
+        int bucket = LatencyHistogram.bucket(micros);
+        ensureBuckets(bucket + 1);
+        counts[bucket]++;
+        count++;
+        maxMicros = Math.max(maxMicros, micros);
+    }
+
+    void merge(LatencySketch other) {
+        ensureBuckets(other.counts.length);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        maxMicros = Math.max(maxMicros, other.maxMicros);
+    }
+
+    long count() {
+        return count;
+    }
+
+    long maxMicros() {
+        return maxMicros;
+    }
+
+    long percentileMicros(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.bucketUpperBound(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    private void ensureBuckets(int buckets) {
+        if (buckets > counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(buckets, counts.length * 2));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package lt.rieske.logs.forwarder;
+
+interface LineConsumer {
+    void accept(byte[] line, int offset, int length);
+
+    // The head of a line over the line length limit - not a complete JSON object
+    default void acceptTruncated(byte[] line, int offset, int length) {
+        accept(line, offset, length);
+    }
+}
@@ -0,0 +1,120 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// The buffer grows to fit the longest line, up to maxLineBytes and a read past it. The rest of a longer line is skipped
+// without being buffered, and the line is passed on truncated to its first maxLineBytes, or dropped as an empty line,
+// so that line numbers stay the same for checkpoints.
+class LineReader {
+
+    private final int readSize;
+    private final int maxLineBytes;
+    private final OversizedLines oversizedLines;
+
+    private byte[] buffer;
+    private long bufferOffset;
+    private long lineEnd;
+    private long oversizedLineCount;
+
+    LineReader(int bufferSize) {
+        this(bufferSize, Integer.MAX_VALUE, OversizedLines.TRUNCATE);
+    }
+
+    LineReader(int bufferSize, int maxLineBytes, OversizedLines oversizedLines) {
+        this.readSize = bufferSize;
+        this.maxLineBytes = maxLineBytes;
+        this.oversizedLines = oversizedLines;
+        this.buffer = new byte[bufferSize];
+    }
+
+    void forEachLine(InputStream in, LineConsumer lineConsumer) throws IOException {
+        bufferOffset = 0;
+        lineEnd = 0;
+        int lineStart = 0;
+        int end = 0;
+        // bytes of an oversized line skipped past the part kept in the buffer, -1 unless skipping one
+        long skipped = -1;
+        while (true) {
+            if (end == buffer.length) {
+                if (lineStart > 0) {
+                    System.arraycopy(buffer, lineStart, buffer, 0, end - lineStart);
+                    bufferOffset += lineStart;
+                    end -= lineStart;
+                    lineStart = 0;
+                } else if (end > maxLineBytes) {
+                    skipped = end - maxLineBytes;
+                    end = maxLineBytes;
+                } else {
+                    buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, (long) maxLineBytes + readSize));
+                }
+            }
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                if (skipped >= 0) {
+                    lineEnd = bufferOffset + skipped + end;
+                    emitOversized(lineStart, lineConsumer);
+                } else if (end > lineStart) {
+                    lineEnd = bufferOffset + end;
+                    emitLine(lineStart, end, lineConsumer);
+                }
+                return;
+            }
+            int i = end;
+            if (skipped >= 0) {
+                while (i < end + read && buffer[i] != '\n') {
+                    i++;
+                }
+                if (i == end + read) {
+                    skipped += read;
+                    continue;
+                }
+                // the skipped bytes precede whatever is read next
+                bufferOffset += skipped;
+                skipped = -1;
+                lineEnd = bufferOffset + i + 1;
+                emitOversized(lineStart, lineConsumer);
+                lineStart = i + 1;
+                i++;
+            }
+            for (; i < end + read; i++) {
+                if (buffer[i] == '\n') {
+                    lineEnd = bufferOffset + i + 1;
+                    emitLine(lineStart, i, lineConsumer);
+                    lineStart = i + 1;
+                }
+            }
+            end += read;
+        }
+    }
+
+    // Offset in the stream just past the line being consumed, including its newline
+    long lineEnd() {
+        return lineEnd;
+    }
+
+    // Lines over maxLineBytes, truncated or dropped, since the reader was created
+    long oversizedLineCount() {
+        return oversizedLineCount;
+    }
+
+    private void emitLine(int start, int end, LineConsumer lineConsumer) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        if (end - start > maxLineBytes) {
+            emitOversized(start, lineConsumer);
+            return;
+        }
+        lineConsumer.accept(buffer, start, end - start);
+    }
+
+    private void emitOversized(int start, LineConsumer lineConsumer) {
+        oversizedLineCount++;
+        switch (oversizedLines) {
+            case TRUNCATE -> lineConsumer.acceptTruncated(buffer, start, maxLineBytes);
+            case DROP -> lineConsumer.accept(buffer, start, 0);
+        }
+    }
+}
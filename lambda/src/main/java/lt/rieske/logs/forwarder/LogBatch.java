@@ -0,0 +1,123 @@
+package lt.rieske.logs.forwarder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A batch can be shared by several consumers, each holding a reference of its own - the content is not modified once
+// shared, and the batch goes back to the pool once all of them have released it. It was delivered if all of them say so,
+// and spilled if the rest of them spilled it.
+final class LogBatch {
+
+    private static final byte NEWLINE = '\n';
+
+    private final LogBatchPool pool;
+    private final ByteArrayBuilder content;
+    private final boolean newlineTerminated;
+    private final List<ByteArrayBuilder> encodingBuffers = new ArrayList<>(1);
+    private int encodingBuffersInUse = 0;
+    private int lineCount = 0;
+    private PendingBatches pendingBatches;
+    private int consumers = 1;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicInteger deliveries = new AtomicInteger();
+    private final AtomicInteger spills = new AtomicInteger();
+
+    LogBatch(LogBatchPool pool, int initialCapacity) {
+        this(pool, initialCapacity, true);
+    }
+
+    // Binary records delimit themselves, so they are not terminated by newlines
+    LogBatch(LogBatchPool pool, int initialCapacity, boolean newlineTerminated) {
+        this.pool = pool;
+        this.content = new ByteArrayBuilder(initialCapacity);
+        this.newlineTerminated = newlineTerminated;
+    }
+
+    void append(byte[] line, int offset, int length) {
+        content.ensureCapacity(content.length() + length + 1);
+        content.append(line, offset, length);
+        if (newlineTerminated) {
+            content.append(NEWLINE);
+        }
+        lineCount++;
+    }
+
+    byte[] array() {
+        return content.array();
+    }
+
+    int length() {
+        return content.length();
+    }
+
+    int lineCount() {
+        return lineCount;
+    }
+
+    // A reusable buffer for an encoded (e.g. compressed) representation of the batch content - every call until the batch
+    // is released gets a buffer of its own, so that the consumers of a shared batch do not encode over each other
+    synchronized ByteArrayBuilder encodingBuffer() {
+        if (encodingBuffersInUse == encodingBuffers.size()) {
+            encodingBuffers.add(new ByteArrayBuilder(Math.max(content.length() / 4, 1024)));
+        }
+        var encodingBuffer = encodingBuffers.get(encodingBuffersInUse++);
+        encodingBuffer.setLength(0);
+        return encodingBuffer;
+    }
+
+    // Hands out references for that many more consumers, before the batch is passed on to any of them
+    void share(int moreConsumers) {
+        consumers += moreConsumers;
+        references.addAndGet(moreConsumers);
+    }
+
+    // The pending batches are told whether the batch was delivered once it is released
+    void track(PendingBatches pendingBatches) {
+        this.pendingBatches = pendingBatches;
+        pendingBatches.submitted();
+    }
+
+    // Delivered by the consumer about to release its reference
+    void markDelivered() {
+        deliveries.incrementAndGet();
+    }
+
+    // Stored to be delivered later by the consumer about to release its reference, to be lost with the execution environment
+    void markSpilled() {
+        spills.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() > 0) {
+            return;
+        }
+        if (pendingBatches != null) {
+            pendingBatches.released(delivery());
+            pendingBatches = null;
+        }
+        consumers = 1;
+        references.set(1);
+        deliveries.set(0);
+        spills.set(0);
+        synchronized (this) {
+            encodingBuffersInUse = 0;
+        }
+        content.setLength(0);
+        lineCount = 0;
+        pool.release(this);
+    }
+
+    private Delivery delivery() {
+        if (deliveries.get() >= consumers) {
+            return Delivery.DELIVERED;
+        }
+        return deliveries.get() + spills.get() >= consumers ? Delivery.UNCONFIRMED : Delivery.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return new String(content.array(), 0, content.length(), StandardCharsets.UTF_8);
+    }
+}
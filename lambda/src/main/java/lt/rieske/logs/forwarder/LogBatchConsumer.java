@@ -0,0 +1,6 @@
+package lt.rieske.logs.forwarder;
+
+// Takes over the ownership of the batch and has to release it once the batch is no longer needed
+interface LogBatchConsumer {
+    void accept(LogBatch batch);
+}
@@ -0,0 +1,76 @@
+package lt.rieske.logs.forwarder;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+// Streams the request body straight from the batch buffer without copying it
+class LogBatchEntityProducer implements AsyncEntityProducer {
+
+    private final ContentType contentType;
+    private final String contentEncoding;
+    private final ByteBuffer content;
+
+    LogBatchEntityProducer(byte[] content, int length, ContentType contentType, String contentEncoding) {
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+        this.content = ByteBuffer.wrap(content, 0, length);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public void failed(Exception cause) {
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.limit();
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType.toString();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return false;
+    }
+
+    @Override
+    public Set<String> getTrailerNames() {
+        return null;
+    }
+
+    @Override
+    public int available() {
+        return content.remaining();
+    }
+
+    @Override
+    public void produce(DataStreamChannel channel) throws IOException {
+        if (content.hasRemaining()) {
+            channel.write(content);
+        }
+        if (!content.hasRemaining()) {
+            channel.endStream();
+        }
+    }
+
+    @Override
+    public void releaseResources() {
+    }
+}
@@ -0,0 +1,47 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+// Hands out at most maxBatches batches at a time, blocking once all of them are out until one is released,
+// so that the memory held by batches stays bounded whatever the consumers do
+class LogBatchPool {
+
+    private final int initialBatchCapacity;
+    private final boolean newlineTerminated;
+    private final Queue<LogBatch> freeBatches = new ConcurrentLinkedQueue<>();
+    private final Semaphore availableBatches;
+
+    LogBatchPool(int initialBatchCapacity) {
+        this(initialBatchCapacity, true);
+    }
+
+    LogBatchPool(int initialBatchCapacity, boolean newlineTerminated) {
+        this(initialBatchCapacity, newlineTerminated, Integer.MAX_VALUE);
+    }
+
+    LogBatchPool(int initialBatchCapacity, boolean newlineTerminated, int maxBatches) {
+        this.initialBatchCapacity = initialBatchCapacity;
+        this.newlineTerminated = newlineTerminated;
+        this.availableBatches = new Semaphore(maxBatches);
+    }
+
+    LogBatch acquire() {
+        try {
+            availableBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException());
+        }
+        var batch = freeBatches.poll();
+        return batch != null ? batch : new LogBatch(this, initialBatchCapacity, newlineTerminated);
+    }
+
+    void release(LogBatch batch) {
+        freeBatches.offer(batch);
+        availableBatches.release();
+    }
+}
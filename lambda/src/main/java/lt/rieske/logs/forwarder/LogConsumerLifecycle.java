@@ -0,0 +1,23 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+// Flushed at the end of every invocation and closed only when the execution environment shuts down,
+// so that pooled connections to the log consumer are reused by the warm invocations in between
+interface LogConsumerLifecycle extends Flushable, Closeable {
+
+    // Waits for the batches accepted so far to be sent, throwing the first failure since the previous flush
+    @Override
+    void flush() throws IOException;
+
+    // Flushes, and then catches up on the work left over by earlier invocations, such as spilled batches, until the deadline
+    default void flush(long deadlineNanos) throws IOException {
+        flush();
+    }
+
+    // Pooled connections do not survive a snapshot of the execution environment
+    default void closeIdleConnections() {
+    }
+}
@@ -0,0 +1,9 @@
+package lt.rieske.logs.forwarder;
+
+// A log consumer and the limits of the batches it is handed - their line limit adapted by adaptiveLimits, unless null
+record LogDestination(BatchLimits batchLimits, CloseableLogConsumer logConsumer, AdaptiveLimits adaptiveLimits) {
+
+    LogDestination(BatchLimits batchLimits, CloseableLogConsumer logConsumer) {
+        this(batchLimits, logConsumer, null);
+    }
+}
@@ -0,0 +1,214 @@
+package lt.rieske.logs.forwarder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Drops health checks, cache hits of static assets and bots, and samples 2xx responses 1 in sampleRate by the hash of the RayID.
+// Runs on the raw line bytes, and keeps a line missing a field. Immutable, so shared by all forwarders.
+final class LogFilter {
+
+    static final LogFilter NONE = new LogFilter(1, List.of(), List.of(), List.of());
+
+    enum Decision {
+        KEEP,
+        DROP,
+        SAMPLE_OUT
+    }
+
+    private static final byte[] STATUS = key("EdgeResponseStatus");
+    private static final byte[] RAY_ID = key("RayID");
+    private static final byte[] URI = key("ClientRequestURI");
+    private static final byte[] CACHE_STATUS = key("CacheCacheStatus");
+    private static final byte[] USER_AGENT = key("ClientRequestUserAgent");
+    private static final byte[] HIT = "hit".getBytes(StandardCharsets.US_ASCII);
+
+    private final int sampleRate;
+    private final byte[][] droppedUriPrefixes;
+    private final byte[][] droppedCachedExtensions;
+    private final byte[][] droppedUserAgents;
+
+    // The extensions and user agent substrings match regardless of case
+    LogFilter(int sampleRate, List<String> droppedUriPrefixes, List<String> droppedCachedExtensions, List<String> droppedUserAgents) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("The sample rate has to be positive");
+        }
+        this.sampleRate = sampleRate;
+        this.droppedUriPrefixes = bytes(droppedUriPrefixes, false);
+        this.droppedCachedExtensions = bytes(droppedCachedExtensions, true);
+        this.droppedUserAgents = bytes(droppedUserAgents, true);
+    }
+
+    // Comma separated lists
+    static LogFilter parse(int sampleRate, String droppedUriPrefixes, String droppedCachedExtensions, String droppedUserAgents) {
+        return new LogFilter(sampleRate, split(droppedUriPrefixes), split(droppedCachedExtensions), split(droppedUserAgents));
+    }
+
+    boolean enabled() {
+        return sampleRate > 1 || droppedUriPrefixes.length > 0 || droppedCachedExtensions.length > 0 || droppedUserAgents.length > 0;
+    }
+
+    Decision decide(byte[] line, int offset, int length) {
+        int end = offset + length;
+        int status = statusOf(line, offset, end);
+        if (status >= 400) {
+            return Decision.KEEP;
+        }
+        if (sampleRate > 1 && status >= 200 && status < 300 && !sampled(line, offset, end)) {
+            return Decision.SAMPLE_OUT;
+        }
+        if (droppedUriPrefixes.length > 0 || droppedCachedExtensions.length > 0) {
+            int uri = valueStart(line, offset, end, URI);
+            int uriEnd = stringEnd(line, uri, end);
+            if (uriEnd >= 0 && (startsWithAny(line, uri + 1, uriEnd, droppedUriPrefixes) || isCachedStaticAsset(line, offset, end, uri + 1, uriEnd))) {
+                return Decision.DROP;
+            }
+        }
+        if (droppedUserAgents.length > 0) {
+            int userAgent = valueStart(line, offset, end, USER_AGENT);
+            int userAgentEnd = stringEnd(line, userAgent, end);
+            if (userAgentEnd >= 0 && containsAnyIgnoringCase(line, userAgent + 1, userAgentEnd, droppedUserAgents)) {
+                return Decision.DROP;
+            }
+        }
+        return Decision.KEEP;
+    }
+
+    // -1 if the status is missing or not a number
+    private static int statusOf(byte[] line, int offset, int end) {
+        int i = valueStart(line, offset, end, STATUS);
+        if (i < 0) {
+            return -1;
+        }
+        int status = 0;
+        int digits = 0;
+        for (; i < end && line[i] >= '0' && line[i] <= '9' && digits < 4; i++, digits++) {
+            status = status * 10 + line[i] - '0';
+        }
+        return digits > 0 ? status : -1;
+    }
+
+    private boolean sampled(byte[] line, int offset, int end) {
+        int rayId = valueStart(line, offset, end, RAY_ID);
+        int rayIdEnd = stringEnd(line, rayId, end);
+        if (rayIdEnd < 0) {
+            return true;
+        }
+        return Long.remainderUnsigned(hash(line, rayId + 1, rayIdEnd), sampleRate) == 0;
+    }
+
+    private boolean isCachedStaticAsset(byte[] line, int offset, int end, int uriStart, int uriEnd) {
+        if (droppedCachedExtensions.length == 0) {
+            return false;
+        }
+        int pathEnd = uriStart;
+        while (pathEnd < uriEnd && line[pathEnd] != '?' && line[pathEnd] != '#') {
+            pathEnd++;
+        }
+        if (!endsWithAnyIgnoringCase(line, uriStart, pathEnd, droppedCachedExtensions)) {
+            return false;
+        }
+        int cacheStatus = valueStart(line, offset, end, CACHE_STATUS);
+        int cacheStatusEnd = stringEnd(line, cacheStatus, end);
+        return cacheStatusEnd >= 0 && Arrays.equals(line, cacheStatus + 1, cacheStatusEnd, HIT, 0, HIT.length);
+    }
+
+    // The index right after "key": in the line, or -1 if the key is not there
+    static int valueStart(byte[] line, int offset, int end, byte[] key) {
+        int last = end - key.length;
+        for (int i = offset + 1; i <= last; i++) {
+            if (isKeyAt(line, i, key)) {
+                return i + key.length;
+            }
+        }
+        return -1;
+    }
+
+    // Whether "key": starts at i, which has a byte before it and the length of the key after it.
+    // A quote preceded by '{' or ',' starts a key - inside a string value it would have been escaped.
+    private static boolean isKeyAt(byte[] line, int i, byte[] key) {
+        return line[i] == '"' && line[i + 1] == key[1] && (line[i - 1] == ',' || line[i - 1] == '{')
+                && Arrays.equals(line, i, i + key.length, key, 0, key.length);
+    }
+
+    // The index of the closing quote of the string value at start, or -1 if the value is not a string
+    private static int stringEnd(byte[] line, int start, int end) {
+        if (start < 0 || start >= end || line[start] != '"') {
+            return -1;
+        }
+        for (int i = start + 1; i < end; i++) {
+            if (line[i] == '\\') {
+                i++;
+            } else if (line[i] == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWithAny(byte[] line, int start, int end, byte[][] prefixes) {
+        for (byte[] prefix : prefixes) {
+            if (end - start >= prefix.length && Arrays.equals(line, start, start + prefix.length, prefix, 0, prefix.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean endsWithAnyIgnoringCase(byte[] line, int start, int end, byte[][] suffixes) {
+        for (byte[] suffix : suffixes) {
+            if (end - start >= suffix.length && regionMatchesIgnoringCase(line, end - suffix.length, suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAnyIgnoringCase(byte[] line, int start, int end, byte[][] substrings) {
+        for (byte[] substring : substrings) {
+            for (int i = start; i <= end - substring.length; i++) {
+                if (regionMatchesIgnoringCase(line, i, substring)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // The pattern is lower case ASCII
+    private static boolean regionMatchesIgnoringCase(byte[] line, int start, byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            byte b = line[start + i];
+            if ((b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a with a 64-bit finalizer, so that the low bits the remainder depends on are well mixed
+    static long hash(byte[] bytes, int start, int end) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = start; i < end; i++) {
+            h = (h ^ (bytes[i] & 0xFF)) * 0x100000001B3L;
+        }
+        h = (h ^ h >>> 33) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ h >>> 33) * 0xC4CEB9FE1A85EC53L;
+        return h ^ h >>> 33;
+    }
+
+    private static byte[] key(String name) {
+        return ("\"" + name + "\":").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[][] bytes(List<String> values, boolean lowerCase) {
+        return values.stream()
+                .map(value -> (lowerCase ? value.toLowerCase(Locale.ROOT) : value).getBytes(StandardCharsets.UTF_8))
+                .toArray(byte[][]::new);
+    }
+
+    private static List<String> split(String values) {
+        return Arrays.stream(values.split(",")).map(String::strip).filter(value -> !value.isEmpty()).toList();
+    }
+}
@@ -0,0 +1,111 @@
+package lt.rieske.logs.forwarder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+// The fields picked from the JSON log lines, in output order, and how the compacted lines are written.
+// Immutable and shared by all transformers - the field matcher is compiled once, when the format is created.
+final class LogFormat {
+
+    static final List<String> DEFAULT_FIELDS = List.of(
+            "ClientRequestMethod",
+            "ClientRequestHost",
+            "ClientRequestURI",
+            "ClientIP",
+            "ClientCountry",
+            "EdgeResponseStatus",
+            "EdgeResponseBytes",
+            "CacheCacheStatus",
+            "RayID",
+            "EdgeStartTimestamp",
+            "EdgeEndTimestamp",
+            "ClientRequestUserAgent"
+    );
+    static final String DEFAULT_SEPARATOR = " ";
+    static final String DEFAULT_NULL_VALUE = "null";
+
+    // Extracted from every line, whether written or not, to tell the lines apart by
+    private static final List<String> KEY_FIELDS = List.of("RayID", "EdgeStartTimestamp");
+
+    static final LogFormat DEFAULT = new LogFormat(DEFAULT_FIELDS, DEFAULT_SEPARATOR, DEFAULT_NULL_VALUE);
+
+    private final List<String> fields;
+    private final int extractedFieldCount;
+    private final int[] keyFields;
+    private final byte[] separator;
+    private final byte[] nullValue;
+    private final FieldMatcher fieldMatcher;
+
+    LogFormat(List<String> fields, String separator, String nullValue) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("At least one log field has to be configured");
+        }
+        if (separator.indexOf('\n') >= 0 || nullValue.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("The separator and the null value cannot contain line breaks");
+        }
+        this.fields = List.copyOf(fields);
+        this.separator = separator.getBytes(StandardCharsets.UTF_8);
+        this.nullValue = nullValue.getBytes(StandardCharsets.UTF_8);
+        var extractedFields = Stream.concat(this.fields.stream(), KEY_FIELDS.stream().filter(key -> !this.fields.contains(key))).toList();
+        this.extractedFieldCount = extractedFields.size();
+        this.keyFields = KEY_FIELDS.stream().mapToInt(extractedFields::indexOf).toArray();
+        this.fieldMatcher = new FieldMatcher(extractedFields);
+    }
+
+    // Fields are comma separated. The separator and the null value take \t and \\ escapes, so that a tab separator
+    // can be set through an environment variable.
+    static LogFormat parse(String fields, String separator, String nullValue) {
+        return new LogFormat(Arrays.stream(fields.split(",")).map(String::strip).filter(field -> !field.isEmpty()).toList(),
+                unescape(separator), unescape(nullValue));
+    }
+
+    // The same separator and null value for other fields, e.g. those of the rollup records
+    LogFormat withFields(List<String> fields) {
+        return new LogFormat(fields, new String(separator, StandardCharsets.UTF_8), new String(nullValue, StandardCharsets.UTF_8));
+    }
+
+    List<String> fields() {
+        return fields;
+    }
+
+    // The written fields followed by the key fields not among them
+    int extractedFieldCount() {
+        return extractedFieldCount;
+    }
+
+    int[] keyFields() {
+        return keyFields.clone();
+    }
+
+    byte[] separator() {
+        return separator;
+    }
+
+    byte[] nullValue() {
+        return nullValue;
+    }
+
+    FieldMatcher fieldMatcher() {
+        return fieldMatcher;
+    }
+
+    private static String unescape(String value) {
+        var unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escape = value.charAt(++i);
+                switch (escape) {
+                    case 't' -> unescaped.append('\t');
+                    case '\\' -> unescaped.append('\\');
+                    default -> unescaped.append(c).append(escape);
+                }
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
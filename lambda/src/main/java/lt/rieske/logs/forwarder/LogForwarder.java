@@ -1,7 +1,24 @@
 package lt.rieske.logs.forwarder;
 
+import java.nio.charset.StandardCharsets;
 import java.util.function.Consumer;
 
-interface LogForwarder extends Consumer<String> {
+interface LogForwarder extends Consumer<String>, LineConsumer {
     void flush();
+
+    // Blocks until every line flushed so far has been delivered or given up on
+    default Delivery awaitDelivered() {
+        return awaitDelivered(Long.MAX_VALUE);
+    }
+
+    // Blocks no longer than until the deadline, past which the lines still in flight are unconfirmed
+    default Delivery awaitDelivered(long deadlineNanos) {
+        return Delivery.DELIVERED;
+    }
+
+    @Override
+    default void accept(String log) {
+        byte[] line = log.getBytes(StandardCharsets.UTF_8);
+        accept(line, 0, line.length);
+    }
 }
@@ -0,0 +1,99 @@
+package lt.rieske.logs.forwarder;
+
+final class LogRecord {
+
+    static final byte MISSING = 0;
+    static final byte NULL = 1;
+    static final byte STRING = 2;
+    static final byte LITERAL = 3;
+
+    private final int fieldCount;
+    private final byte[] types;
+    private final byte[][] sources;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final ByteArrayBuilder unescapedValues = new ByteArrayBuilder(256);
+
+    LogRecord(int fieldCount) {
+        this(fieldCount, fieldCount);
+    }
+
+    // The fields past the field count are extracted but not encoded, e.g. the keys of a line looked up by deduplication
+    LogRecord(int fieldCount, int extractedFieldCount) {
+        this.fieldCount = fieldCount;
+        this.types = new byte[extractedFieldCount];
+        this.sources = new byte[extractedFieldCount][];
+        this.offsets = new int[extractedFieldCount];
+        this.lengths = new int[extractedFieldCount];
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    byte type(int field) {
+        return types[field];
+    }
+
+    boolean isNull(int field) {
+        return types[field] <= NULL;
+    }
+
+    byte[] source(int field) {
+        return sources[field] != null ? sources[field] : unescapedValues.array();
+    }
+
+    int offset(int field) {
+        return offsets[field];
+    }
+
+    int length(int field) {
+        return lengths[field];
+    }
+
+    void writeTo(int field, ByteArrayBuilder out) {
+        out.append(source(field), offsets[field], lengths[field]);
+    }
+
+    void clear() {
+        for (int i = 0; i < types.length; i++) {
+            types[i] = MISSING;
+            sources[i] = null;
+        }
+        unescapedValues.setLength(0);
+    }
+
+    void setNull(int field) {
+        types[field] = NULL;
+        sources[field] = null;
+    }
+
+    void set(int field, byte type, byte[] source, int offset, int length) {
+        types[field] = type;
+        sources[field] = source;
+        offsets[field] = offset;
+        lengths[field] = length;
+    }
+
+    // Unescaped values are appended to a buffer that may be reallocated while it grows,
+    // so they are referenced by offset and resolved against the buffer at read time.
+    ByteArrayBuilder beginUnescapedValue(int field) {
+        return beginValue(field, STRING);
+    }
+
+    // A value written by the caller rather than extracted from a source, e.g. a number formatted for a rollup record
+    ByteArrayBuilder beginValue(int field, byte type) {
+        types[field] = type;
+        sources[field] = null;
+        offsets[field] = unescapedValues.length();
+        return unescapedValues;
+    }
+
+    void endValue(int field) {
+        lengths[field] = unescapedValues.length() - offsets[field];
+    }
+
+    void endUnescapedValue(int field) {
+        endValue(field);
+    }
+}
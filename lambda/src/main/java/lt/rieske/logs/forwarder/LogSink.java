@@ -0,0 +1,14 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.Locale;
+
+enum LogSink {
+    // Batches POSTed to the HTTP endpoint of a log aggregator
+    HTTP,
+    // Batches written as objects under an S3 prefix, for analytics engines to query
+    S3;
+
+    static LogSink fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
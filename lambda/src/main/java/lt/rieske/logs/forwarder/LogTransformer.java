@@ -0,0 +1,16 @@
+package lt.rieske.logs.forwarder;
+
+interface LogTransformer {
+    // The record is reused by the next line. A truncated line is the head of a line over the line length limit.
+    LogRecord parse(byte[] line, int offset, int length, boolean truncated);
+
+    void encode(LogRecord record, ByteArrayBuilder out);
+
+    default void transform(byte[] line, int offset, int length, ByteArrayBuilder out) {
+        encode(parse(line, offset, length, false), out);
+    }
+
+    default void transformTruncated(byte[] line, int offset, int length, ByteArrayBuilder out) {
+        encode(parse(line, offset, length, true), out);
+    }
+}
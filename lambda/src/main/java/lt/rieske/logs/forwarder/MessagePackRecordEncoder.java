@@ -0,0 +1,146 @@
+package lt.rieske.logs.forwarder;
+
+import java.nio.charset.StandardCharsets;
+
+// A MessagePack array of the configured fields in order, with nil standing in for null and missing fields.
+// Integers that fit a long are written in their smallest MessagePack form, other numbers as 64-bit floats.
+// Strings found in the dictionary of their field are written as their position in it - see FieldDictionary.
+// The records are self-delimiting, so a batch is their plain concatenation.
+final class MessagePackRecordEncoder implements RecordEncoder {
+
+    private static final byte NIL = (byte) 0xc0;
+    private static final byte FALSE = (byte) 0xc2;
+    private static final byte TRUE = (byte) 0xc3;
+
+    private final FieldDictionary[] dictionaries;
+
+    MessagePackRecordEncoder(LogFormat format) {
+        this.dictionaries = format.fields().stream().map(FieldDictionary::of).toArray(FieldDictionary[]::new);
+    }
+
+    @Override
+    public void encode(LogRecord record, ByteArrayBuilder out) {
+        writeArrayHeader(record.fieldCount(), out);
+        for (int field = 0; field < record.fieldCount(); field++) {
+            switch (record.type(field)) {
+                case LogRecord.STRING -> writeString(dictionaries[field], record.source(field), record.offset(field), record.length(field), out);
+                case LogRecord.LITERAL -> writeLiteral(record.source(field), record.offset(field), record.length(field), out);
+                default -> out.append(NIL);
+            }
+        }
+    }
+
+    private static void writeArrayHeader(int size, ByteArrayBuilder out) {
+        if (size < 16) {
+            out.append((byte) (0x90 | size));
+        } else if (size < 0x10000) {
+            out.append((byte) 0xdc);
+            writeBigEndian(size, 2, out);
+        } else {
+            out.append((byte) 0xdd);
+            writeBigEndian(size, 4, out);
+        }
+    }
+
+    private static void writeString(FieldDictionary dictionary, byte[] source, int offset, int length, ByteArrayBuilder out) {
+        int code = dictionary != null ? dictionary.code(source, offset, length) : -1;
+        if (code >= 0) {
+            writeLong(code, out);
+            return;
+        }
+        if (length < 32) {
+            out.append((byte) (0xa0 | length));
+        } else if (length < 0x100) {
+            out.append((byte) 0xd9);
+            writeBigEndian(length, 1, out);
+        } else if (length < 0x10000) {
+            out.append((byte) 0xda);
+            writeBigEndian(length, 2, out);
+        } else {
+            out.append((byte) 0xdb);
+            writeBigEndian(length, 4, out);
+        }
+        out.append(source, offset, length);
+    }
+
+    // The extractor only lets through true, false and JSON numbers as literals
+    private static void writeLiteral(byte[] source, int offset, int length, ByteArrayBuilder out) {
+        if (source[offset] == 't') {
+            out.append(TRUE);
+        } else if (source[offset] == 'f') {
+            out.append(FALSE);
+        } else if (!writeInteger(source, offset, length, out)) {
+            out.append((byte) 0xcb);
+            writeBigEndian(Double.doubleToLongBits(Double.parseDouble(new String(source, offset, length, StandardCharsets.US_ASCII))), 8, out);
+        }
+    }
+
+    // Returns false if the number is not an integer or does not fit a long
+    private static boolean writeInteger(byte[] source, int offset, int length, ByteArrayBuilder out) {
+        boolean negative = source[offset] == '-';
+        int i = negative ? offset + 1 : offset;
+        if (i == offset + length) {
+            return false;
+        }
+        long value = 0;
+        for (; i < offset + length; i++) {
+            int digit = source[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            // accumulated as a negative number, which has room for Long.MIN_VALUE
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return false;
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                return false;
+            }
+            value = -value;
+        }
+        writeLong(value, out);
+        return true;
+    }
+
+    private static void writeLong(long value, ByteArrayBuilder out) {
+        if (value >= 0) {
+            if (value < 0x80) {
+                out.append((byte) value);
+            } else if (value < 0x100) {
+                out.append((byte) 0xcc);
+                writeBigEndian(value, 1, out);
+            } else if (value < 0x10000) {
+                out.append((byte) 0xcd);
+                writeBigEndian(value, 2, out);
+            } else if (value < 0x100000000L) {
+                out.append((byte) 0xce);
+                writeBigEndian(value, 4, out);
+            } else {
+                out.append((byte) 0xcf);
+                writeBigEndian(value, 8, out);
+            }
+        } else if (value >= -32) {
+            out.append((byte) value);
+        } else if (value >= Byte.MIN_VALUE) {
+            out.append((byte) 0xd0);
+            writeBigEndian(value, 1, out);
+        } else if (value >= Short.MIN_VALUE) {
+            out.append((byte) 0xd1);
+            writeBigEndian(value, 2, out);
+        } else if (value >= Integer.MIN_VALUE) {
+            out.append((byte) 0xd2);
+            writeBigEndian(value, 4, out);
+        } else {
+            out.append((byte) 0xd3);
+            writeBigEndian(value, 8, out);
+        }
+    }
+
+    private static void writeBigEndian(long value, int bytes, ByteArrayBuilder out) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            out.append((byte) (value >>> shift));
+        }
+    }
+}
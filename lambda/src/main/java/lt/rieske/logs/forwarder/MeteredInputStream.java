@@ -0,0 +1,50 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Counts the bytes read and the time spent waiting for them. Reads are done in large chunks,
+// so taking the time around every read is cheap.
+class MeteredInputStream extends FilterInputStream {
+
+    private final ForwarderMetrics metrics;
+    private final ForwarderMetrics.Counter bytesCounter;
+    private final ForwarderMetrics.Counter nanosCounter;
+
+    private long readNanos;
+
+    MeteredInputStream(InputStream in, ForwarderMetrics metrics, ForwarderMetrics.Counter bytesCounter, ForwarderMetrics.Counter nanosCounter) {
+        super(in);
+        this.metrics = metrics;
+        this.bytesCounter = bytesCounter;
+        this.nanosCounter = nanosCounter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = in.read();
+        recordRead(b == -1 ? 0 : 1, System.nanoTime() - start);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int count = in.read(b, off, len);
+        recordRead(Math.max(count, 0), System.nanoTime() - start);
+        return count;
+    }
+
+    // Time spent in reads by the thread reading this stream
+    long readNanos() {
+        return readNanos;
+    }
+
+    private void recordRead(int bytes, long nanos) {
+        readNanos += nanos;
+        metrics.add(bytesCounter, bytes);
+        metrics.add(nanosCounter, nanos);
+    }
+}
@@ -0,0 +1,75 @@
+package lt.rieske.logs.forwarder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+// A JSON object of the configured fields that are present and not null - the original log line without the fields of no interest.
+// String values are escaped again, as the extracted values are unescaped.
+final class NdjsonRecordEncoder implements RecordEncoder {
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // "name": of every field, escaped up front
+    private final byte[][] keys;
+
+    NdjsonRecordEncoder(LogFormat format) {
+        List<String> fields = format.fields();
+        this.keys = new byte[fields.size()][];
+        var key = new ByteArrayBuilder(64);
+        for (int i = 0; i < keys.length; i++) {
+            byte[] name = fields.get(i).getBytes(StandardCharsets.UTF_8);
+            key.setLength(0);
+            key.append((byte) '"');
+            appendEscaped(name, 0, name.length, key);
+            key.append((byte) '"').append((byte) ':');
+            keys[i] = Arrays.copyOf(key.array(), key.length());
+        }
+    }
+
+    @Override
+    public void encode(LogRecord record, ByteArrayBuilder out) {
+        out.append((byte) '{');
+        boolean first = true;
+        for (int field = 0; field < record.fieldCount(); field++) {
+            if (record.isNull(field)) {
+                continue;
+            }
+            if (!first) {
+                out.append((byte) ',');
+            }
+            first = false;
+            out.append(keys[field]);
+            if (record.type(field) == LogRecord.STRING) {
+                out.append((byte) '"');
+                appendEscaped(record.source(field), record.offset(field), record.length(field), out);
+                out.append((byte) '"');
+            } else {
+                record.writeTo(field, out);
+            }
+        }
+        out.append((byte) '}');
+    }
+
+    private static void appendEscaped(byte[] value, int offset, int length, ByteArrayBuilder out) {
+        int runStart = offset;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = value[i];
+            if (b != '"' && b != '\\' && (b < 0 || b >= 0x20)) {
+                continue;
+            }
+            out.append(value, runStart, i - runStart);
+            out.append((byte) '\\');
+            switch (b) {
+                case '"', '\\' -> out.append(b);
+                case '\n' -> out.append((byte) 'n');
+                case '\r' -> out.append((byte) 'r');
+                case '\t' -> out.append((byte) 't');
+                default -> out.append((byte) 'u').append((byte) '0').append((byte) '0')
+                        .append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xF]);
+            }
+            runStart = i + 1;
+        }
+        out.append(value, runStart, offset + length - runStart);
+    }
+}
@@ -0,0 +1,72 @@
+package lt.rieske.logs.forwarder;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+enum OutputEncoding {
+
+    // Compacted lines of the field values
+    TEXT("text/plain", StandardCharsets.UTF_8, ".txt", true) {
+        @Override
+        RecordEncoder encoder(LogFormat format) {
+            return new TextRecordEncoder(format);
+        }
+    },
+
+    // JSON lines of the configured fields only
+    NDJSON("application/x-ndjson", StandardCharsets.UTF_8, ".ndjson", true) {
+        @Override
+        RecordEncoder encoder(LogFormat format) {
+            return new NdjsonRecordEncoder(format);
+        }
+    },
+
+    // Concatenated MessagePack arrays of the field values
+    MSGPACK("application/msgpack", null, ".msgpack", false) {
+        @Override
+        RecordEncoder encoder(LogFormat format) {
+            return new MessagePackRecordEncoder(format);
+        }
+    };
+
+    private final String mimeType;
+    private final Charset charset;
+    private final String fileExtension;
+    private final boolean newlineTerminated;
+
+    OutputEncoding(String mimeType, Charset charset, String fileExtension, boolean newlineTerminated) {
+        this.mimeType = mimeType;
+        this.charset = charset;
+        this.fileExtension = fileExtension;
+        this.newlineTerminated = newlineTerminated;
+    }
+
+    abstract RecordEncoder encoder(LogFormat format);
+
+    String mimeType() {
+        return mimeType;
+    }
+
+    // Null for binary encodings
+    Charset charset() {
+        return charset;
+    }
+
+    String contentType() {
+        return charset != null ? mimeType + "; charset=" + charset.name() : mimeType;
+    }
+
+    String fileExtension() {
+        return fileExtension;
+    }
+
+    // Whether the records in a batch are terminated by newlines
+    boolean newlineTerminated() {
+        return newlineTerminated;
+    }
+
+    static OutputEncoding fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,15 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.Locale;
+
+// What becomes of log lines longer than the line length limit
+enum OversizedLines {
+    // Forwarded with the fields that fit within the limit, the rest as null
+    TRUNCATE,
+    // Not forwarded
+    DROP;
+
+    static OversizedLines fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
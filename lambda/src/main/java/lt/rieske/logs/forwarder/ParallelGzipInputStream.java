@@ -0,0 +1,258 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Inflates the members of a multi-member gzip stream concurrently, in segments cut at bytes that look like a member header.
+// Once a cut turns out wrong or a segment too large, the rest of the stream is inflated sequentially.
+class ParallelGzipInputStream extends InputStream {
+
+    private static final int HEADER_SIZE = 10;
+    private static final int READ_AHEAD_CHUNK_SIZE = 64 * 1024;
+    private static final int READ_AHEAD_CHUNKS = 4;
+    private static final int INFLATE_CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream source;
+    private final ExecutorService executor;
+    private final int segmentSize;
+    private final int maxSegmentSize;
+    private final int maxInflatedSize;
+    private final int segmentsInFlight;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Queue<ByteArrayBuilder> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final ByteArrayBuilder pending;
+    private final GzipMemberListener memberListener;
+
+    private long pendingOffset = 0;
+    private long inflatedOffset = 0;
+
+    private boolean sourceExhausted = false;
+    private boolean sequential = false;
+    private InputStream sequentialRemainder;
+
+    private ByteArrayBuilder current;
+    private int position;
+
+    ParallelGzipInputStream(InputStream source, ExecutorService executor, int segmentSize, int segmentsInFlight) {
+        this(source, executor, segmentSize, segmentsInFlight, GzipMemberListener.NONE);
+    }
+
+    // Only the first member of every segment is reported to the member listener until the stream falls back to sequential inflation
+    ParallelGzipInputStream(InputStream source, ExecutorService executor, int segmentSize, int segmentsInFlight, GzipMemberListener memberListener) {
+        this.source = source;
+        this.executor = executor;
+        this.segmentSize = segmentSize;
+        this.maxSegmentSize = segmentSize * 8;
+        this.maxInflatedSize = segmentSize * 16;
+        this.segmentsInFlight = segmentsInFlight;
+        this.pending = new ByteArrayBuilder(segmentSize * 2);
+        this.memberListener = memberListener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || position == current.length()) {
+            if (sequentialRemainder != null) {
+                return sequentialRemainder.read(b, off, len);
+            }
+            if (!nextSegment()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, current.length() - position);
+        System.arraycopy(current.array(), position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments.forEach(segment -> segment.inflated.cancel(true));
+        segments.clear();
+        if (sequentialRemainder != null) {
+            sequentialRemainder.close();
+        }
+        source.close();
+    }
+
+    private boolean nextSegment() throws IOException {
+        if (current != null) {
+            inflatedOffset += current.length();
+            current.setLength(0);
+            freeBuffers.offer(current);
+            current = null;
+        }
+        submitSegments();
+        var segment = segments.poll();
+        if (segment == null) {
+            if (sequential) {
+                inflateSequentially(List.of(), pendingOffset);
+                return true;
+            }
+            return false;
+        }
+        var inflated = await(segment);
+        if (inflated == null) {
+            // the segment does not start or end at a member boundary, or inflates to more than maxInflatedSize
+            List<InputStream> remainingSegments = new ArrayList<>();
+            remainingSegments.add(new ByteArrayInputStream(segment.compressed));
+            for (var next : segments) {
+                next.inflated.cancel(true);
+                remainingSegments.add(new ByteArrayInputStream(next.compressed));
+            }
+            segments.clear();
+            inflateSequentially(remainingSegments, segment.compressedOffset);
+            return true;
+        }
+        memberListener.memberStart(segment.compressedOffset, inflatedOffset);
+        current = inflated;
+        position = 0;
+        submitSegments();
+        return true;
+    }
+
+    private void inflateSequentially(List<InputStream> compressedPrefix, long compressedOffset) {
+        List<InputStream> remainder = new ArrayList<>(compressedPrefix);
+        remainder.add(new ByteArrayInputStream(pending.array(), 0, pending.length()));
+        remainder.add(source);
+        var members = new GzipMembersInputStream(new SequenceInputStream(Collections.enumeration(remainder)), segmentSize,
+                memberListener, compressedOffset, inflatedOffset);
+        sequentialRemainder = new ReadAheadInputStream(members, executor, READ_AHEAD_CHUNK_SIZE, READ_AHEAD_CHUNKS);
+    }
+
+    private void submitSegments() throws IOException {
+        while (!sequential && segments.size() < segmentsInFlight) {
+            long compressedOffset = pendingOffset;
+            byte[] compressed = cutSegment();
+            if (compressed == null) {
+                return;
+            }
+            segments.add(new Segment(compressed, compressedOffset, executor.submit(() -> inflate(compressed))));
+        }
+    }
+
+    // Returns the compressed bytes up to the first likely member header past segmentSize, or null once there are none left
+    private byte[] cutSegment() throws IOException {
+        int searchFrom = segmentSize;
+        while (true) {
+            if (pending.length() < searchFrom + HEADER_SIZE && !sourceExhausted) {
+                readSource(searchFrom + HEADER_SIZE - pending.length());
+                continue;
+            }
+            int cut = findMemberHeader(pending.array(), Math.max(searchFrom, 1), pending.length());
+            if (cut >= 0) {
+                return takePending(cut);
+            }
+            if (sourceExhausted) {
+                return pending.length() > 0 ? takePending(pending.length()) : null;
+            }
+            if (pending.length() >= maxSegmentSize) {
+                sequential = true;
+                return null;
+            }
+            searchFrom = pending.length() - HEADER_SIZE + 1;
+            readSource(segmentSize);
+        }
+    }
+
+    private void readSource(int count) throws IOException {
+        pending.ensureCapacity(pending.length() + count, maxSegmentSize + segmentSize + HEADER_SIZE);
+        int remaining = count;
+        while (remaining > 0) {
+            int read = source.read(pending.array(), pending.length(), remaining);
+            if (read < 0) {
+                sourceExhausted = true;
+                return;
+            }
+            pending.setLength(pending.length() + read);
+            remaining -= read;
+        }
+    }
+
+    private byte[] takePending(int length) {
+        byte[] taken = new byte[length];
+        System.arraycopy(pending.array(), 0, taken, 0, length);
+        System.arraycopy(pending.array(), length, pending.array(), 0, pending.length() - length);
+        pending.setLength(pending.length() - length);
+        pendingOffset += length;
+        return taken;
+    }
+
+    private ByteArrayBuilder inflate(byte[] compressed) {
+        var inflated = freeBuffers.poll();
+        if (inflated == null) {
+            inflated = new ByteArrayBuilder(Math.min(compressed.length * 8, maxInflatedSize));
+        }
+        // a byte past maxInflatedSize tells a segment that exceeds it from one that fills it
+        int limit = maxInflatedSize + 1;
+        try (var members = new GzipMembersInputStream(compressed, compressed.length)) {
+            while (true) {
+                inflated.ensureCapacity(Math.min(inflated.length() + INFLATE_CHUNK_SIZE, limit), limit);
+                int read = members.read(inflated.array(), inflated.length(), Math.min(inflated.capacity(), limit) - inflated.length());
+                if (read < 0) {
+                    return inflated;
+                }
+                inflated.setLength(inflated.length() + read);
+                if (inflated.length() > maxInflatedSize) {
+                    return recycle(inflated);
+                }
+            }
+        } catch (IOException e) {
+            return recycle(inflated);
+        }
+    }
+
+    private ByteArrayBuilder recycle(ByteArrayBuilder inflated) {
+        inflated.setLength(0);
+        freeBuffers.offer(inflated);
+        return null;
+    }
+
+    private static ByteArrayBuilder await(Segment segment) throws IOException {
+        try {
+            return segment.inflated.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to inflate gzip segment", e.getCause());
+        }
+    }
+
+    // Checks the fixed part of a member header - magic, deflate method, no reserved flags, a known XFL and OS
+    static int findMemberHeader(byte[] bytes, int from, int to) {
+        for (int i = from; i + HEADER_SIZE <= to; i++) {
+            if (bytes[i] == 0x1F && bytes[i + 1] == (byte) 0x8B && bytes[i + 2] == 8 && (bytes[i + 3] & 0xE0) == 0
+                    && (bytes[i + 8] == 0 || bytes[i + 8] == 2 || bytes[i + 8] == 4)
+                    && ((bytes[i + 9] >= 0 && bytes[i + 9] <= 13) || bytes[i + 9] == (byte) 0xFF)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private record Segment(byte[] compressed, long compressedOffset, Future<ByteArrayBuilder> inflated) {
+    }
+}
@@ -0,0 +1,22 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.Locale;
+
+enum PayloadCompression {
+    NONE(null),
+    GZIP("gzip");
+
+    private final String contentEncoding;
+
+    PayloadCompression(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    String contentEncoding() {
+        return contentEncoding;
+    }
+
+    static PayloadCompression fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,49 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+// Counts the batches of a single log file that have been handed over for sending but not released yet
+class PendingBatches {
+
+    private int pending = 0;
+    private Delivery delivery = Delivery.DELIVERED;
+
+    synchronized void submitted() {
+        pending++;
+    }
+
+    synchronized void released(Delivery delivery) {
+        pending--;
+        this.delivery = this.delivery.and(delivery);
+        if (pending == 0) {
+            notifyAll();
+        }
+    }
+
+    // The outcome of every batch released so far - once a batch was not delivered, none of the later ones make up for it
+    synchronized Delivery awaitReleased() {
+        return awaitReleased(Long.MAX_VALUE);
+    }
+
+    synchronized Delivery awaitReleased(long deadlineNanos) {
+        try {
+            while (pending > 0) {
+                if (deadlineNanos == Long.MAX_VALUE) {
+                    wait();
+                    continue;
+                }
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    return delivery.and(Delivery.UNCONFIRMED);
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException());
+        }
+        return delivery;
+    }
+}
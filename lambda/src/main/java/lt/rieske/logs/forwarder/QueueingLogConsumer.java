@@ -0,0 +1,132 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Decouples the threads producing log batches from the sender - producers block once the queue is full
+class QueueingLogConsumer implements CloseableLogConsumer {
+
+    private static final LogBatch END = new LogBatch(null, 0);
+
+    private final CloseableLogConsumer logConsumer;
+    private final int capacity;
+    private final BlockingQueue<LogBatch> queue;
+    private final Thread sender;
+
+    private volatile RuntimeException failure;
+    private int queuedBatches;
+
+    QueueingLogConsumer(CloseableLogConsumer logConsumer, int capacity) {
+        this.logConsumer = logConsumer;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sender = Thread.ofVirtual().name("log-sender").start(this::sendBatches);
+    }
+
+    @Override
+    public void accept(LogBatch batch) {
+        if (failure != null) {
+            batch.release();
+            throw failure;
+        }
+        batchQueued();
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            batchTaken();
+            batch.release();
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException());
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flush(Long.MAX_VALUE);
+    }
+
+    // The sender thread is kept between invocations - only the batches queued so far are waited for
+    @Override
+    public void flush(long deadlineNanos) throws IOException {
+        try {
+            synchronized (this) {
+                while (queuedBatches > 0) {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        var sendFailure = failure;
+        failure = null;
+        logConsumer.flush(deadlineNanos);
+        if (sendFailure != null) {
+            throw sendFailure;
+        }
+    }
+
+    @Override
+    public void closeIdleConnections() {
+        logConsumer.closeIdleConnections();
+    }
+
+    // The queued batches, the one taken by the sender and those held by the consumer it hands them to
+    @Override
+    public int maxHeldBatches() {
+        return (int) Math.min(Integer.MAX_VALUE, (long) capacity + 1 + logConsumer.maxHeldBatches());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            try {
+                queue.put(END);
+                sender.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            logConsumer.close();
+        }
+    }
+
+    private synchronized void batchQueued() {
+        queuedBatches++;
+    }
+
+    private synchronized void batchTaken() {
+        if (--queuedBatches == 0) {
+            notifyAll();
+        }
+    }
+
+    private void sendBatches() {
+        while (true) {
+            LogBatch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == END) {
+                return;
+            }
+            try {
+                if (failure != null) {
+                    batch.release();
+                } else {
+                    logConsumer.accept(batch);
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                batchTaken();
+            }
+        }
+    }
+}
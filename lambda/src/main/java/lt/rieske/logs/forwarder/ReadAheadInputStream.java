@@ -0,0 +1,133 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+// Reads the source on a separate thread, handing over the filled chunks through a bounded queue
+class ReadAheadInputStream extends InputStream {
+
+    private static final Chunk END = new Chunk(0);
+
+    private final InputStream source;
+    private final BlockingQueue<Chunk> freeChunks;
+    private final BlockingQueue<Chunk> filledChunks;
+    private final CountDownLatch readerFinished = new CountDownLatch(1);
+
+    private volatile boolean closed = false;
+    private volatile IOException failure;
+    private volatile Thread reader;
+
+    private Chunk current;
+    private int position;
+
+    ReadAheadInputStream(InputStream source, Executor executor, int chunkSize, int chunkCount) {
+        this.source = source;
+        this.freeChunks = new ArrayBlockingQueue<>(chunkCount);
+        this.filledChunks = new ArrayBlockingQueue<>(chunkCount + 1);
+        for (int i = 0; i < chunkCount; i++) {
+            freeChunks.add(new Chunk(chunkSize));
+        }
+        executor.execute(this::readAhead);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return current.bytes[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current.bytes, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        var readerThread = reader;
+        if (readerThread != null) {
+            readerThread.interrupt();
+        }
+        try {
+            readerFinished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        if (current != null && position < current.length) {
+            return true;
+        }
+        if (current == END) {
+            return false;
+        }
+        if (current != null) {
+            freeChunks.add(current);
+        }
+        try {
+            current = filledChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        position = 0;
+        if (current == END) {
+            if (failure != null) {
+                throw failure;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void readAhead() {
+        reader = Thread.currentThread();
+        try (source) {
+            while (!closed) {
+                var chunk = freeChunks.take();
+                chunk.length = source.readNBytes(chunk.bytes, 0, chunk.bytes.length);
+                if (chunk.length > 0) {
+                    filledChunks.put(chunk);
+                }
+                if (chunk.length < chunk.bytes.length) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // closed before the source was fully read
+        } finally {
+            filledChunks.add(END);
+            reader = null;
+            readerFinished.countDown();
+        }
+    }
+
+    private static final class Chunk {
+        private final byte[] bytes;
+        private int length;
+
+        private Chunk(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package lt.rieske.logs.forwarder;
+
+// Writes the fields extracted from a log line as one record of the output encoding
+interface RecordEncoder {
+    void encode(LogRecord record, ByteArrayBuilder out);
+}
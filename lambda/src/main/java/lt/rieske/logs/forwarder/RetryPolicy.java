@@ -0,0 +1,25 @@
+package lt.rieske.logs.forwarder;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+
+// Exponential backoff with full jitter - the delay before a retry is random between zero and the exponential bound,
+// so that batches failed by the same endpoint hiccup do not all come back at the same time
+record RetryPolicy(int maxRetries, Duration baseDelay, Duration maxDelay) {
+
+    // not ThreadLocalRandom, whose seeds would be restored from a SnapStart snapshot alike in every environment
+    private static final SecureRandom JITTER = new SecureRandom();
+
+    static RetryPolicy noRetries() {
+        return new RetryPolicy(0, Duration.ZERO, Duration.ZERO);
+    }
+
+    boolean canRetry(int retries) {
+        return retries < maxRetries;
+    }
+
+    long delayMillis(int retry) {
+        long bound = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(retry, 30));
+        return bound > 0 ? JITTER.nextLong(bound + 1) : 0;
+    }
+}
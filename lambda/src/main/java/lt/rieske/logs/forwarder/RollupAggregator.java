@@ -0,0 +1,137 @@
+package lt.rieske.logs.forwarder;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// The rollups of the files of an invocation, written out at the end of the invocation, and of a single file at its every checkpoint.
+// Counts and sums add up across records of the same key, latency percentiles do not. Thread safe.
+class RollupAggregator {
+
+    static final List<String> FIELDS = List.of(
+            "Minute",
+            "ClientRequestHost",
+            "EdgeResponseStatus",
+            "ClientCountry",
+            "CacheCacheStatus",
+            "Requests",
+            "EdgeResponseBytes",
+            "ServerErrors",
+            "LatencyP50Millis",
+            "LatencyP90Millis",
+            "LatencyP99Millis",
+            "LatencyMaxMillis"
+    );
+    private static final int MINUTE = 0;
+    private static final int HOST = 1;
+    private static final int STATUS = 2;
+    private static final int COUNTRY = 3;
+    private static final int CACHE_STATUS = 4;
+    private static final int REQUESTS = 5;
+    private static final int RESPONSE_BYTES = 6;
+    private static final int SERVER_ERRORS = 7;
+    private static final int LATENCY_P50 = 8;
+    private static final int LATENCY_P90 = 9;
+    private static final int LATENCY_P99 = 10;
+    private static final int LATENCY_MAX = 11;
+
+    private final Map<Object, RollupTable> fileRollups = new HashMap<>();
+    private final RecordEncoder encoder;
+    private final Supplier<LogForwarder> recordForwarders;
+    private final ForwarderMetrics metrics;
+    private final LogRecord record = new LogRecord(FIELDS.size());
+    private final ByteArrayBuilder encodedRecord = new ByteArrayBuilder(256);
+
+    // Every write-out goes through a forwarder of its own, which tells whether that write-out was delivered
+    RollupAggregator(LogFormat format, OutputEncoding encoding, Supplier<LogForwarder> recordForwarders, ForwarderMetrics metrics) {
+        this.encoder = encoding.encoder(format.withFields(FIELDS));
+        this.recordForwarders = recordForwarders;
+        this.metrics = metrics;
+    }
+
+    // The rollups of each file are kept apart until the invocation is done
+    synchronized void merge(Object file, RollupTable table) {
+        fileRollups.computeIfAbsent(file, f -> new RollupTable()).mergeFrom(table);
+    }
+
+    // Writes out the rollups of every file merged so far, together, and starts over
+    synchronized Delivery writeOut() {
+        RollupTable rollups = null;
+        for (var table : fileRollups.values()) {
+            if (rollups == null) {
+                rollups = table;
+            } else {
+                rollups.mergeFrom(table);
+            }
+        }
+        fileRollups.clear();
+        return rollups != null ? writeOut(rollups, Long.MAX_VALUE) : Delivery.DELIVERED;
+    }
+
+    // Writes out the rollups of the given file merged so far, and starts that file over
+    synchronized Delivery writeOut(Object file, long deadlineNanos) {
+        var rollups = fileRollups.remove(file);
+        return rollups != null ? writeOut(rollups, deadlineNanos) : Delivery.DELIVERED;
+    }
+
+    private Delivery writeOut(RollupTable rollups, long deadlineNanos) {
+        if (rollups.rows() == 0) {
+            return Delivery.DELIVERED;
+        }
+        var forwarder = recordForwarders.get();
+        writeTo(rollups, forwarder);
+        forwarder.flush();
+        return forwarder.awaitDelivered(deadlineNanos);
+    }
+
+    private void writeTo(RollupTable rollups, LogForwarder forwarder) {
+        rollups.forEachRow((minute, host, status, country, cacheStatus, requests, responseBytes, serverErrors, latency) -> {
+            record.clear();
+            if (minute != RollupTable.NO_MINUTE) {
+                setValue(MINUTE, LogRecord.STRING, Instant.ofEpochSecond(minute * 60L).toString());
+            }
+            setString(HOST, host);
+            if (status != RollupTable.NO_STATUS) {
+                setValue(STATUS, LogRecord.LITERAL, Integer.toString(status));
+            }
+            setString(COUNTRY, country);
+            setString(CACHE_STATUS, cacheStatus);
+            setValue(REQUESTS, LogRecord.LITERAL, Long.toString(requests));
+            setValue(RESPONSE_BYTES, LogRecord.LITERAL, Long.toString(responseBytes));
+            setValue(SERVER_ERRORS, LogRecord.LITERAL, Long.toString(serverErrors));
+            if (latency.count() > 0) {
+                setValue(LATENCY_P50, LogRecord.LITERAL, millis(latency.percentileMicros(50)));
+                setValue(LATENCY_P90, LogRecord.LITERAL, millis(latency.percentileMicros(90)));
+                setValue(LATENCY_P99, LogRecord.LITERAL, millis(latency.percentileMicros(99)));
+                setValue(LATENCY_MAX, LogRecord.LITERAL, millis(latency.maxMicros()));
+            }
+            encodedRecord.setLength(0);
+            encoder.encode(record, encodedRecord);
+            forwarder.accept(encodedRecord.array(), 0, encodedRecord.length());
+        });
+        metrics.add(ForwarderMetrics.Counter.ROLLUP_RECORDS, rollups.rows());
+    }
+
+    synchronized void clear() {
+        fileRollups.clear();
+    }
+
+    private void setString(int field, byte[] value) {
+        if (value != null) {
+            record.set(field, LogRecord.STRING, value, 0, value.length);
+        }
+    }
+
+    private void setValue(int field, byte type, String value) {
+        record.beginValue(field, type).append(value.getBytes(StandardCharsets.US_ASCII));
+        record.endValue(field);
+    }
+
+    private static String millis(long micros) {
+        return BigDecimal.valueOf(micros, 3).stripTrailingZeros().toPlainString();
+    }
+}
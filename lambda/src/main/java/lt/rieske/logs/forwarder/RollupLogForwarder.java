@@ -0,0 +1,237 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.List;
+
+// Aggregates the log lines of a file into a rollup table of its own, optionally passing them on to a forwarder of the raw lines.
+// The table is merged into the shared rollups on flush, and the rollups of the file are written out before its checkpoint is
+// saved, so that the rollups of a file handed off to a retry cover exactly the lines before its checkpoint.
+// Confined to the thread processing one file, like the other forwarders.
+class RollupLogForwarder implements LogForwarder {
+
+    static final List<String> FIELDS = List.of(
+            "ClientRequestHost",
+            "EdgeResponseStatus",
+            "ClientCountry",
+            "CacheCacheStatus",
+            "EdgeResponseBytes",
+            "EdgeStartTimestamp",
+            "EdgeEndTimestamp"
+    );
+    private static final int HOST = 0;
+    private static final int STATUS = 1;
+    private static final int COUNTRY = 2;
+    private static final int CACHE_STATUS = 3;
+    private static final int RESPONSE_BYTES = 4;
+    private static final int START_TIMESTAMP = 5;
+    private static final int END_TIMESTAMP = 6;
+
+    private static final FieldMatcher FIELD_MATCHER = new FieldMatcher(FIELDS);
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final long NANOS_PER_MINUTE = 60_000_000_000L;
+
+    private static final LogForwarder DISCARDING = new LogForwarder() {
+        @Override
+        public void accept(byte[] line, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+    };
+
+    private final RollupAggregator rollups;
+    private final LogForwarder logForwarder;
+    private final ForwarderMetrics metrics;
+    private final JsonFieldExtractor extractor = new JsonFieldExtractor(FIELD_MATCHER);
+    private final LogRecord record = new LogRecord(FIELDS.size());
+    private final RollupTable table = new RollupTable();
+
+    private long linesAggregated;
+
+    // Rollups instead of the raw lines
+    RollupLogForwarder(RollupAggregator rollups, ForwarderMetrics metrics) {
+        this(rollups, DISCARDING, metrics);
+    }
+
+    RollupLogForwarder(RollupAggregator rollups, LogForwarder logForwarder, ForwarderMetrics metrics) {
+        this.rollups = rollups;
+        this.logForwarder = logForwarder;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void accept(byte[] line, int offset, int length) {
+        logForwarder.accept(line, offset, length);
+        aggregate(line, offset, length, false);
+    }
+
+    @Override
+    public void acceptTruncated(byte[] line, int offset, int length) {
+        logForwarder.acceptTruncated(line, offset, length);
+        aggregate(line, offset, length, true);
+    }
+
+    private void aggregate(byte[] line, int offset, int length, boolean truncated) {
+        if (length == 0) {
+            return;
+        }
+        extractor.extract(line, offset, length, record, truncated);
+        long start = epochNanos(START_TIMESTAMP);
+        long end = epochNanos(END_TIMESTAMP);
+        long responseBytes = integer(RESPONSE_BYTES);
+        table.add(
+                start != NO_TIMESTAMP ? (int) Math.floorDiv(start, NANOS_PER_MINUTE) : RollupTable.NO_MINUTE,
+                id(table.hosts(), HOST),
+                (int) Math.max(RollupTable.NO_STATUS, Math.min(integer(STATUS), Integer.MAX_VALUE)),
+                id(table.countries(), COUNTRY),
+                id(table.cacheStatuses(), CACHE_STATUS),
+                Math.max(responseBytes, 0),
+                start != NO_TIMESTAMP && end != NO_TIMESTAMP && end >= start ? (end - start) / 1000 : RollupTable.NO_LATENCY);
+        linesAggregated++;
+    }
+
+    @Override
+    public void flush() {
+        logForwarder.flush();
+        rollups.merge(this, table);
+        table.clear();
+        metrics.add(ForwarderMetrics.Counter.LINES_AGGREGATED, linesAggregated);
+        linesAggregated = 0;
+    }
+
+    @Override
+    public Delivery awaitDelivered(long deadlineNanos) {
+        var linesDelivered = logForwarder.awaitDelivered(deadlineNanos);
+        return rollups.writeOut(this, deadlineNanos).and(linesDelivered);
+    }
+
+    private int id(ValueDictionary dictionary, int field) {
+        if (record.isNull(field)) {
+            return ValueDictionary.NO_VALUE;
+        }
+        return dictionary.idOf(record.source(field), record.offset(field), record.length(field));
+    }
+
+    // -1 for values that are missing or not integers
+    private long integer(int field) {
+        if (record.type(field) != LogRecord.LITERAL) {
+            return -1;
+        }
+        long value = parseLong(record.source(field), record.offset(field), record.length(field));
+        return value != Long.MIN_VALUE ? value : -1;
+    }
+
+    // Cloudflare writes timestamps as unixnano or unix integers, or as RFC 3339 strings, depending on the logpush job
+    private long epochNanos(int field) {
+        return switch (record.type(field)) {
+            case LogRecord.LITERAL -> unixEpochNanos(parseLong(record.source(field), record.offset(field), record.length(field)));
+            case LogRecord.STRING -> rfc3339EpochNanos(record.source(field), record.offset(field), record.length(field));
+            default -> NO_TIMESTAMP;
+        };
+    }
+
+    // The magnitude tells the units apart - seconds since the epoch reach 10^11 some 3000 years from now
+    private static long unixEpochNanos(long value) {
+        if (value < 0) {
+            return NO_TIMESTAMP;
+        }
+        if (value >= 100_000_000_000_000_000L) {
+            return value;
+        }
+        if (value >= 100_000_000_000_000L) {
+            return value * 1000;
+        }
+        if (value >= 100_000_000_000L) {
+            return value * 1_000_000;
+        }
+        return value * 1_000_000_000;
+    }
+
+    // yyyy-MM-ddTHH:mm:ss[.fraction](Z|+HH:mm|-HH:mm)
+    static long rfc3339EpochNanos(byte[] source, int offset, int length) {
+        int end = offset + length;
+        if (length < 20 || source[offset + 4] != '-' || source[offset + 7] != '-' || (source[offset + 10] != 'T' && source[offset + 10] != 't')
+                || source[offset + 13] != ':' || source[offset + 16] != ':') {
+            return NO_TIMESTAMP;
+        }
+        int year = digits(source, offset, 4);
+        int month = digits(source, offset + 5, 2);
+        int day = digits(source, offset + 8, 2);
+        int hour = digits(source, offset + 11, 2);
+        int minute = digits(source, offset + 14, 2);
+        int second = digits(source, offset + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0) {
+            return NO_TIMESTAMP;
+        }
+        int i = offset + 19;
+        long nanos = 0;
+        if (source[i] == '.') {
+            int scale = 100_000_000;
+            for (i++; i < end && source[i] >= '0' && source[i] <= '9'; i++) {
+                nanos += (long) (source[i] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        long offsetSeconds;
+        if (i < end && (source[i] == 'Z' || source[i] == 'z')) {
+            offsetSeconds = 0;
+            i++;
+        } else if (i + 6 <= end && (source[i] == '+' || source[i] == '-') && source[i + 3] == ':') {
+            int offsetHours = digits(source, i + 1, 2);
+            int offsetMinutes = digits(source, i + 4, 2);
+            if (offsetHours < 0 || offsetMinutes < 0) {
+                return NO_TIMESTAMP;
+            }
+            offsetSeconds = (source[i] == '-' ? -1 : 1) * (offsetHours * 3600L + offsetMinutes * 60L);
+            i += 6;
+        } else {
+            return NO_TIMESTAMP;
+        }
+        if (i != end) {
+            return NO_TIMESTAMP;
+        }
+        long epochSeconds = daysFromCivil(year, month, day) * 86400 + hour * 3600L + minute * 60L + second - offsetSeconds;
+        return epochSeconds * 1_000_000_000 + nanos;
+    }
+
+    // Days since 1970-01-01 of a proleptic Gregorian date
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    // -1 unless all count bytes are digits
+    private static int digits(byte[] source, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = source[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Long.MIN_VALUE unless the bytes are an integer that fits a long
+    private static long parseLong(byte[] source, int offset, int length) {
+        boolean negative = length > 0 && source[offset] == '-';
+        int i = negative ? offset + 1 : offset;
+        if (i == offset + length) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (; i < offset + length; i++) {
+            int digit = source[i] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+}
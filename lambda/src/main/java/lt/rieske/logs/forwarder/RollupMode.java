@@ -0,0 +1,16 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.Locale;
+
+enum RollupMode {
+    // Raw log lines only
+    NONE,
+    // Per-minute rollups instead of the raw log lines
+    ONLY,
+    // Per-minute rollups in addition to the raw log lines
+    BOTH;
+
+    static RollupMode fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
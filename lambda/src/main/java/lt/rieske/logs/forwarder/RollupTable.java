@@ -0,0 +1,185 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.Arrays;
+
+// Per-minute request counts, response byte sums, 5xx counts and latency sketches by host, status, country and cache status.
+// The string dimensions are interned as ids, so that a row key packs into two longs and the table is open addressing over
+// primitive arrays - nothing is boxed or allocated per log line, bar a latency sketch for every new row.
+// Not thread safe.
+final class RollupTable {
+
+    static final int NO_MINUTE = Integer.MIN_VALUE;
+    static final int NO_STATUS = -1;
+    static final long NO_LATENCY = -1;
+
+    // The ids of every dimension but the host have to fit 21 bits of the second key long
+    private static final int MAX_DIMENSION_VALUES = 1 << 16;
+    private static final int MAX_STATUS = (1 << 21) - 2;
+
+    private final ValueDictionary hosts = new ValueDictionary(MAX_DIMENSION_VALUES);
+    private final ValueDictionary countries = new ValueDictionary(MAX_DIMENSION_VALUES);
+    private final ValueDictionary cacheStatuses = new ValueDictionary(MAX_DIMENSION_VALUES);
+
+    private long[] minuteHostKeys;
+    private long[] statusCountryCacheKeys;
+    // zero requests marks an empty slot
+    private long[] requests;
+    private long[] responseBytes;
+    private long[] serverErrors;
+    private LatencySketch[] latencies;
+    private int rows;
+
+    RollupTable() {
+        allocate(64);
+    }
+
+    ValueDictionary hosts() {
+        return hosts;
+    }
+
+    ValueDictionary countries() {
+        return countries;
+    }
+
+    ValueDictionary cacheStatuses() {
+        return cacheStatuses;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    void add(int minute, int host, int status, int country, int cacheStatus, long bytes, long latencyMicros) {
+        int slot = slotOf(minute, host, Math.min(status, MAX_STATUS), country, cacheStatus);
+        requests[slot]++;
+        responseBytes[slot] += bytes;
+        if (status >= 500 && status < 600) {
+            serverErrors[slot]++;
+        }
+        if (latencyMicros >= 0) {
+            latencies[slot].record(latencyMicros);
+        }
+    }
+
+    void mergeFrom(RollupTable other) {
+        int[] hostIds = translation(other.hosts, hosts);
+        int[] countryIds = translation(other.countries, countries);
+        int[] cacheStatusIds = translation(other.cacheStatuses, cacheStatuses);
+        for (int i = 0; i < other.requests.length; i++) {
+            if (other.requests[i] == 0) {
+                continue;
+            }
+            long minuteHost = other.minuteHostKeys[i];
+            long statusCountryCache = other.statusCountryCacheKeys[i];
+            int slot = slotOf((int) (minuteHost >> 32), hostIds[(int) minuteHost], (int) (statusCountryCache >>> 42) - 1,
+                    countryIds[(int) (statusCountryCache >>> 21) & 0x1FFFFF], cacheStatusIds[(int) statusCountryCache & 0x1FFFFF]);
+            requests[slot] += other.requests[i];
+            responseBytes[slot] += other.responseBytes[i];
+            serverErrors[slot] += other.serverErrors[i];
+            latencies[slot].merge(other.latencies[i]);
+        }
+    }
+
+    void forEachRow(RowConsumer consumer) {
+        for (int i = 0; i < requests.length; i++) {
+            if (requests[i] == 0) {
+                continue;
+            }
+            long minuteHost = minuteHostKeys[i];
+            long statusCountryCache = statusCountryCacheKeys[i];
+            consumer.accept((int) (minuteHost >> 32), hosts.value((int) minuteHost), (int) (statusCountryCache >>> 42) - 1,
+                    countries.value((int) (statusCountryCache >>> 21) & 0x1FFFFF), cacheStatuses.value((int) statusCountryCache & 0x1FFFFF),
+                    requests[i], responseBytes[i], serverErrors[i], latencies[i]);
+        }
+    }
+
+    // Keeps the capacity, which the next rows are likely to need again
+    void clear() {
+        Arrays.fill(requests, 0);
+        Arrays.fill(latencies, null);
+        rows = 0;
+        hosts.clear();
+        countries.clear();
+        cacheStatuses.clear();
+    }
+
+    private int slotOf(int minute, int host, int status, int country, int cacheStatus) {
+        long minuteHost = (long) minute << 32 | host;
+        long statusCountryCache = (long) (status + 1) << 42 | (long) country << 21 | cacheStatus;
+        int mask = requests.length - 1;
+        for (int slot = hash(minuteHost, statusCountryCache) & mask; ; slot = (slot + 1) & mask) {
+            if (requests[slot] == 0) {
+                if ((rows + 1) * 2 > requests.length) {
+                    grow();
+                    return slotOf(minute, host, status, country, cacheStatus);
+                }
+                rows++;
+                minuteHostKeys[slot] = minuteHost;
+                statusCountryCacheKeys[slot] = statusCountryCache;
+                responseBytes[slot] = 0;
+                serverErrors[slot] = 0;
+                latencies[slot] = new LatencySketch();
+                return slot;
+            }
+            if (minuteHostKeys[slot] == minuteHost && statusCountryCacheKeys[slot] == statusCountryCache) {
+                return slot;
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldMinuteHostKeys = minuteHostKeys;
+        long[] oldStatusCountryCacheKeys = statusCountryCacheKeys;
+        long[] oldRequests = requests;
+        long[] oldResponseBytes = responseBytes;
+        long[] oldServerErrors = serverErrors;
+        LatencySketch[] oldLatencies = latencies;
+        allocate(oldRequests.length * 2);
+        int mask = requests.length - 1;
+        for (int i = 0; i < oldRequests.length; i++) {
+            if (oldRequests[i] == 0) {
+                continue;
+            }
+            int slot = hash(oldMinuteHostKeys[i], oldStatusCountryCacheKeys[i]) & mask;
+            while (requests[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            minuteHostKeys[slot] = oldMinuteHostKeys[i];
+            statusCountryCacheKeys[slot] = oldStatusCountryCacheKeys[i];
+            requests[slot] = oldRequests[i];
+            responseBytes[slot] = oldResponseBytes[i];
+            serverErrors[slot] = oldServerErrors[i];
+            latencies[slot] = oldLatencies[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        minuteHostKeys = new long[capacity];
+        statusCountryCacheKeys = new long[capacity];
+        requests = new long[capacity];
+        responseBytes = new long[capacity];
+        serverErrors = new long[capacity];
+        latencies = new LatencySketch[capacity];
+    }
+
+    // Ids of the other table's dictionary in this table's dictionary
+    private static int[] translation(ValueDictionary from, ValueDictionary to) {
+        int[] ids = new int[from.size()];
+        ids[ValueDictionary.OTHER] = ValueDictionary.OTHER;
+        for (int id = ValueDictionary.OTHER + 1; id < ids.length; id++) {
+            ids[id] = to.idOf(from.value(id));
+        }
+        return ids;
+    }
+
+    private static int hash(long minuteHost, long statusCountryCache) {
+        long h = (minuteHost * 0x9E3779B97F4A7C15L) ^ (statusCountryCache * 0xC2B2AE3D27D4EB4FL);
+        return (int) (h ^ h >>> 32);
+    }
+
+    interface RowConsumer {
+        // Dimension values are null where the log lines had none
+        void accept(int minute, byte[] host, int status, byte[] country, byte[] cacheStatus,
+                    long requests, long responseBytes, long serverErrors, LatencySketch latency);
+    }
+}
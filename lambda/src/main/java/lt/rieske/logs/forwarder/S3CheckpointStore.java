@@ -0,0 +1,26 @@
+package lt.rieske.logs.forwarder;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.nio.charset.StandardCharsets;
+
+// Keeps the checkpoint of a log object in a sidecar object next to it
+class S3CheckpointStore implements CheckpointStore {
+
+    private final S3SidecarStore sidecars;
+
+    S3CheckpointStore(S3Client s3) {
+        this.sidecars = new S3SidecarStore(s3, S3SidecarStore.CHECKPOINT);
+    }
+
+    @Override
+    public Checkpoint load(String bucket, String key) {
+        byte[] checkpoint = sidecars.load(bucket, key);
+        return checkpoint != null ? Checkpoint.parse(new String(checkpoint, StandardCharsets.UTF_8)) : null;
+    }
+
+    @Override
+    public void save(String bucket, String key, Checkpoint checkpoint) {
+        sidecars.save(bucket, key, checkpoint.format().getBytes(StandardCharsets.UTF_8));
+    }
+}
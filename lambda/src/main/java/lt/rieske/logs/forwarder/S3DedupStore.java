@@ -0,0 +1,26 @@
+package lt.rieske.logs.forwarder;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+// Keeps the filter of the shipped lines of a log object in a sidecar object next to it.
+// Unlike a checkpoint the filter is not tied to the ETag of the object - it holds the lines, not their positions.
+class S3DedupStore implements DedupStore {
+
+    private final S3SidecarStore sidecars;
+
+    S3DedupStore(S3Client s3) {
+        this.sidecars = new S3SidecarStore(s3, S3SidecarStore.DEDUP_FILTER);
+    }
+
+    // A filter of an earlier layout is read as none
+    @Override
+    public BlockedBloomFilter load(String bucket, String key) {
+        byte[] filter = sidecars.load(bucket, key);
+        return filter != null ? BlockedBloomFilter.fromBytes(filter) : null;
+    }
+
+    @Override
+    public void save(String bucket, String key, BlockedBloomFilter shippedLines) {
+        sidecars.save(bucket, key, shippedLines.toBytes());
+    }
+}
@@ -6,96 +6,434 @@ import com.amazonaws.services.lambda.runtime.LambdaRuntime;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.S3Event;
 import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import org.crac.Core;
+import org.crac.Resource;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.ContainerCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
-import java.io.BufferedReader;
-import java.io.Closeable;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.zip.GZIPInputStream;
 
 
-public class S3EventHandler implements RequestHandler<S3Event, Integer> {
+public final class S3EventHandler implements RequestHandler<S3Event, Integer>, Resource {
 
     private static final LambdaLogger logger = LambdaRuntime.getLogger();
 
-    private final S3Client s3;
-    private final Function<String, String> logTransformer;
-    private final Consumer<String> logForwarder;
-    private final Closeable flusher;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String SPILL_FILE_PREFIX = "cloudflare-logs-forwarder";
+    private static final String SPILL_FILE_SUFFIX = ".spill";
+    private static final int HTTP_PRECONDITION_FAILED = 412;
+    private static final int WARM_UP_LINES = 2000;
+
+    // Shared by all the handlers in the JVM - there is only one in Lambda, and tests create many
+    private static final ExecutorService workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("log-worker-", 0).factory());
+
+    private final S3ObjectDownloader downloader;
+    private final Forwarders forwarders;
+    private final GzipDecoding gzipDecoding;
+    private final int maxLineBytes;
+    private final OversizedLines oversizedLines;
+    private final LogConsumerLifecycle logConsumer;
+    private final int parallelism;
+    private final Semaphore concurrentFiles;
+    private final CheckpointPolicy checkpointPolicy;
+    private final DedupPolicy dedupPolicy;
+    private final ForwarderMetrics metrics;
 
     // The no-args constructor is invoked by the AWS Lambda runtime
     @SuppressWarnings("unused")
     public S3EventHandler() {
-        this(S3Client.builder().build(), getRequiredEnvVar("LogForwarderHttpEndpoint"),
-                getRequiredEnvVar("LogForwarderCredentials"), 1000);
+        this(ForwarderEnvironment.configuration());
+    }
+
+    private S3EventHandler(ForwarderConfiguration configuration) {
+        this(s3Client(configuration.region()), configuration);
+        Runtime.getRuntime().addShutdownHook(Thread.ofPlatform().name("log-forwarder-shutdown").unstarted(this::shutdown));
+        Core.getGlobalContext().register(this);
+        CompactingLogTransformer.warmUp(configuration.logFormat(), configuration.outputEncoding(), WARM_UP_LINES);
     }
 
     S3EventHandler(S3Client s3, String logConsumerEndpoint, String logConsumerCredentials, int batchSize) {
-        this(s3, new CompactingLogTransformer(), new HttpLogConsumer(logConsumerEndpoint, logConsumerCredentials), batchSize);
+        this(s3, new ForwarderConfiguration(logConsumerEndpoint, logConsumerCredentials).batchSize(batchSize));
     }
 
-    private S3EventHandler(S3Client s3, Function<String, String> logTransformer, CloseableLogConsumer logConsumer, int batchSize) {
-        this(s3, logTransformer, new BatchingLogForwarder(batchSize, logConsumer), logConsumer);
+    S3EventHandler(S3Client s3, ForwarderConfiguration configuration) {
+        this(s3, configuration, new ForwarderMetrics());
     }
 
-    private S3EventHandler(S3Client s3, Function<String, String> logTransformer, LogForwarder logForwarder, CloseableLogConsumer consumerFlusher) {
-        this(s3, logTransformer, logForwarder, () -> {
-            logForwarder.flush();
-            consumerFlusher.close();
-        });
+    private S3EventHandler(S3Client s3, ForwarderConfiguration configuration, ForwarderMetrics metrics) {
+        this(s3, configuration, destinations(s3, configuration, metrics), metrics);
     }
 
-    S3EventHandler(S3Client s3, Function<String, String> logTransformer, Consumer<String> logForwarder, Closeable flusher) {
-        this.s3 = s3;
-        this.logTransformer = logTransformer;
-        this.logForwarder = logForwarder;
-        this.flusher = flusher;
+    // Every line is transformed once and forwarded to all the destinations - passed in by benchmarks that discard the batches
+    S3EventHandler(S3Client s3, ForwarderConfiguration configuration, List<LogDestination> destinations, ForwarderMetrics metrics) {
+        this(new S3ObjectDownloader(s3, configuration.downloadPartSize(), configuration.downloadConcurrency(), configuration.parallelism()),
+                new Forwarders(() -> new CompactingLogTransformer(configuration.logFormat(), configuration.outputEncoding()), destinations,
+                        configuration.outputEncoding(), configuration.logFilter(), configuration.rollupMode(), configuration.logFormat(),
+                        configuration.parallelism(), metrics),
+                configuration.gzipDecoding(), configuration.maxLineBytes(), configuration.oversizedLines(),
+                FanOutLogConsumer.of(destinations.stream().map(LogDestination::logConsumer).toList()), configuration.parallelism(),
+                configuration.checkpointPolicy(new S3CheckpointStore(s3)), configuration.dedupPolicy(new S3DedupStore(s3)), metrics);
+    }
+
+    S3EventHandler(S3Client s3, Function<String, String> logTransformer, Consumer<String> logForwarder, Flushable flusher) {
+        this(new S3ObjectDownloader(s3), new Forwarders(() -> stringForwarder(logTransformer, logForwarder)), GzipDecoding.PARALLEL, Integer.MAX_VALUE,
+                OversizedLines.TRUNCATE, flushing(flusher), 1, CheckpointPolicy.disabled(), DedupPolicy.disabled(), new ForwarderMetrics());
+    }
+
+    private S3EventHandler(S3ObjectDownloader downloader, Forwarders forwarders, GzipDecoding gzipDecoding, int maxLineBytes, OversizedLines oversizedLines,
+                           LogConsumerLifecycle logConsumer, int parallelism, CheckpointPolicy checkpointPolicy, DedupPolicy dedupPolicy,
+                           ForwarderMetrics metrics) {
+        this.downloader = downloader;
+        this.forwarders = forwarders;
+        this.gzipDecoding = gzipDecoding;
+        this.maxLineBytes = maxLineBytes;
+        this.oversizedLines = oversizedLines;
+        this.logConsumer = logConsumer;
+        this.parallelism = parallelism;
+        this.concurrentFiles = new Semaphore(parallelism);
+        this.checkpointPolicy = checkpointPolicy;
+        this.dedupPolicy = dedupPolicy;
+        this.metrics = metrics;
     }
 
     @Override
     public Integer handleRequest(S3Event event, Context context) {
         logger.log("Handling S3 event: " + event);
 
-        event.getRecords().stream().map(record -> downloadS3Object(record.getS3())).forEach(this::processLogFile);
+        long deadlineNanos = handOffDeadline(context);
+        int handedOffFiles;
+        try {
+            List<Future<Boolean>> fileTasks = new ArrayList<>();
+            boolean rollupsDelivered;
+            try {
+                for (var record : event.getRecords()) {
+                    acquireFileSlot();
+                    // the slot is released even by a task cancelled before it got to run
+                    var fileTask = new FutureTask<>(() -> forwardLogFile(record.getS3(), deadlineNanos));
+                    fileTasks.add(fileTask);
+                    workers.execute(() -> {
+                        try {
+                            fileTask.run();
+                        } finally {
+                            concurrentFiles.release();
+                        }
+                    });
+                }
+                handedOffFiles = awaitCompletion(fileTasks);
+                rollupsDelivered = forwarders.writeOutRollups();
+            } catch (RuntimeException | Error e) {
+                cancel(fileTasks);
+                flushAfterFailure(e);
+                throw e;
+            }
 
+            try {
+                logConsumer.flush(deadline(context));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (!rollupsDelivered) {
+                throw new UncheckedIOException(new IOException("Failed to deliver log rollups"));
+            }
+        } finally {
+            // the rollups of a failed invocation are counted again by its retry
+            forwarders.clearRollups();
+            // a record on stdout in Embedded Metric Format is turned into CloudWatch metrics by CloudWatch Logs
+            System.out.println(metrics.emfRecordAndReset(functionName(context), System.currentTimeMillis()));
+        }
+
+        if (handedOffFiles > 0) {
+            // failing the invocation gets the event retried, and the retry resumes the files from their checkpoints
+            throw new IllegalStateException(handedOffFiles + " log files were checkpointed before the invocation timed out, to be resumed by a retry");
+        }
+        return 0;
+    }
+
+    // SnapStart snapshots the execution environment once initialized - connections opened by then would not survive a restore
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws IOException {
+        logConsumer.flush();
+        logConsumer.closeIdleConnections();
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        // connections are opened on demand
+    }
+
+    // Runs on SIGTERM, which the Lambda runtime sends before shutting down an execution environment with registered extensions
+    private void shutdown() {
+        workers.shutdownNow();
+        try {
+            logConsumer.close();
+        } catch (IOException | RuntimeException e) {
+            logger.log("Failed to close the log consumer on shutdown: " + e);
+        }
+    }
+
+    void processLogFile(InputStream s3Stream) {
+        var logForwarder = forwarders.fileForwarder();
+        forwardLines(s3Stream, logForwarder, lineReader(), logForwarder, GzipMemberListener.NONE);
+    }
+
+    // Returns false if the log file was checkpointed and handed off to a retry for running out of time
+    private boolean forwardLogFile(S3EventNotification.S3Entity s3Entity, long deadlineNanos) {
+        String key = s3Entity.getObject().getKey();
+        String bucket = s3Entity.getBucket().getName();
+        if (S3SidecarStore.isSidecar(key)) {
+            logger.log("Ignoring sidecar object " + key);
+            return true;
+        }
+
+        var checkpoint = checkpointPolicy.store().load(bucket, key);
+        if (checkpoint != null && checkpoint.completed()) {
+            if (downloader.eTag(bucket, key).equals(checkpoint.eTag())) {
+                logger.log(key + " from S3 bucket " + bucket + " has already been forwarded");
+                return true;
+            }
+            logger.log(key + " has changed since it was forwarded, forwarding it from the start");
+            checkpoint = null;
+        }
+        S3ObjectDownloader.RangedObjectInputStream s3Stream = null;
+        if (checkpoint != null) {
+            try {
+                logger.log("Resuming " + key + " from S3 bucket " + bucket + " at " + checkpoint);
+                s3Stream = downloader.download(bucket, key, checkpoint.memberOffset(), checkpoint.eTag());
+                metrics.add(ForwarderMetrics.Counter.FILES_RESUMED, 1);
+            } catch (S3Exception e) {
+                if (e.statusCode() != HTTP_PRECONDITION_FAILED) {
+                    throw e;
+                }
+                logger.log(key + " has changed since it was checkpointed, forwarding it from the start");
+                checkpoint = null;
+            }
+        }
+        if (s3Stream == null) {
+            logger.log("Downloading " + key + " from S3 bucket " + bucket);
+            s3Stream = downloader.download(bucket, key);
+        }
+        var deduplicator = dedupPolicy.enabled() ? dedupPolicy.deduplicator(bucket, key, forwarders.logFormat()) : null;
+        if (deduplicator != null && deduplicator.rerun()) {
+            logger.log("Skipping the log lines of " + key + " shipped before");
+        }
+        var fileForwarder = forwarders.fileForwarder(deduplicator);
+        var logForwarder = fileForwarder.logForwarder();
+        if (!checkpointPolicy.enabled()) {
+            forwardLines(s3Stream, logForwarder, lineReader(), logForwarder, GzipMemberListener.NONE);
+            if (deduplicator != null) {
+                fileForwarder.awaitLinesDelivered(key);
+            }
+            return true;
+        }
+
+        var lineReader = lineReader();
+        var checkpointingConsumer = new CheckpointingLineConsumer(bucket, key, s3Stream.eTag(), checkpoint, logForwarder, lineReader,
+                checkpointPolicy, deadlineNanos, metrics);
         try {
-            flusher.close();
+            forwardLines(s3Stream, logForwarder, lineReader, checkpointingConsumer, checkpointingConsumer);
+        } catch (CheckpointingLineConsumer.OutOfTime e) {
+            logger.log("Checkpointed " + key + " from S3 bucket " + bucket + " before running out of time");
+            metrics.add(ForwarderMetrics.Counter.FILES_HANDED_OFF, 1);
+            return false;
+        }
+        checkpointingConsumer.completed();
+        if (deduplicator != null) {
+            fileForwarder.awaitLinesDelivered(key);
+        }
+        return true;
+    }
+
+    private void forwardLines(InputStream s3Stream, LogForwarder logForwarder, LineReader lineReader, LineConsumer lineConsumer, GzipMemberListener members) {
+        var downloadStream = new MeteredInputStream(s3Stream, metrics, ForwarderMetrics.Counter.BYTES_DOWNLOADED, ForwarderMetrics.Counter.DOWNLOAD_NANOS);
+        try (var decompressedStream = new MeteredInputStream(gzipDecoding.decode(downloadStream, workers, members), metrics,
+                ForwarderMetrics.Counter.BYTES_DECOMPRESSED, ForwarderMetrics.Counter.DECOMPRESS_NANOS)) {
+            long start = System.nanoTime();
+            lineReader.forEachLine(decompressedStream, lineConsumer);
+            logForwarder.flush();
+            metrics.add(ForwarderMetrics.Counter.LINES_OVERSIZED, lineReader.oversizedLineCount());
+            // whatever the line reader did not spend waiting for decompressed bytes went into transforming and batching the lines
+            metrics.add(ForwarderMetrics.Counter.TRANSFORM_NANOS, System.nanoTime() - start - decompressedStream.readNanos());
+            metrics.add(ForwarderMetrics.Counter.FILES, 1);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+    }
 
-        return 0;
+    private LineReader lineReader() {
+        return new LineReader(BUFFER_SIZE, maxLineBytes, oversizedLines);
+    }
+
+    private long handOffDeadline(Context context) {
+        return checkpointPolicy.enabled() ? deadline(context) : Long.MAX_VALUE;
+    }
+
+    // The hand-off margin before the invocation times out
+    private long deadline(Context context) {
+        if (context == null) {
+            return Long.MAX_VALUE;
+        }
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(context.getRemainingTimeInMillis()) - checkpointPolicy.handOffMargin().toNanos();
+    }
+
+    private static String functionName(Context context) {
+        return context != null ? context.getFunctionName() : "local";
+    }
+
+    private void acquireFileSlot() {
+        try {
+            concurrentFiles.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException());
+        }
+    }
+
+    // Returns the number of tasks that did not complete their file
+    private static int awaitCompletion(List<Future<Boolean>> tasks) {
+        int incomplete = 0;
+        for (var task : tasks) {
+            try {
+                if (!task.get()) {
+                    incomplete++;
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw (RuntimeException) e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException());
+            }
+        }
+        return incomplete;
+    }
+
+    // Waits for the cancelled tasks to give up their file slots, so that none of them hands over a batch after the flush
+    private void cancel(List<Future<Boolean>> tasks) {
+        tasks.forEach(task -> task.cancel(true));
+        concurrentFiles.acquireUninterruptibly(parallelism);
+        concurrentFiles.release(parallelism);
     }
 
-    private void processLogFile(InputStream s3Stream) {
-        try (var gzip = new GZIPInputStream(s3Stream);
-             var reader = new BufferedReader(new InputStreamReader(gzip, StandardCharsets.UTF_8))) {
-            reader.lines().map(logTransformer).forEach(logForwarder);
+    // The log consumers hold on to a failure until flushed - left unflushed, it would fail every following warm invocation
+    private void flushAfterFailure(Throwable failure) {
+        try {
+            logConsumer.flush();
+        } catch (IOException | RuntimeException e) {
+            if (e != failure) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    // Spares the S3 client the provider chain lookups and the Apache HTTP client setup at cold start
+    static S3Client s3Client(String region) {
+        return S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider())
+                .httpClient(UrlConnectionHttpClient.create())
+                .build();
+    }
+
+    // Chosen on every resolution, so that an environment restored from a SnapStart snapshot uses its own credentials source
+    private static AwsCredentialsProvider credentialsProvider() {
+        var container = ContainerCredentialsProvider.builder().build();
+        var environment = EnvironmentVariableCredentialsProvider.create();
+        return () -> System.getenv("AWS_CONTAINER_CREDENTIALS_FULL_URI") != null
+                ? container.resolveCredentials()
+                : environment.resolveCredentials();
+    }
+
+    // Each destination has a queue of its own, so that a slow one holds back the others by no more than its queue.
+    // The HTTP destinations report their batch size and in flight batches under their number, the first one being 1.
+    private static List<LogDestination> destinations(S3Client s3, ForwarderConfiguration configuration, ForwarderMetrics metrics) {
+        int queueCapacity = configuration.parallelism() * 2;
+        List<LogDestination> destinations = new ArrayList<>();
+        if (configuration.sink() == LogSink.HTTP) {
+            var destination = configuration.httpDestination();
+            var limits = configuration.adaptivePolicy().limits(destination, metrics);
+            gaugeLimits(metrics, "1", limits);
+            destinations.add(httpDestination(destination, limits, SPILL_FILE_PREFIX + SPILL_FILE_SUFFIX, queueCapacity, configuration, metrics));
+        } else {
+            var logConsumer = new S3LogConsumer(s3, configuration.s3Bucket(), configuration.s3Prefix(), configuration.outputEncoding(), configuration.compression(),
+                    configuration.s3ObjectBytes(), metrics);
+            destinations.add(new LogDestination(configuration.batchLimits(), new QueueingLogConsumer(logConsumer, queueCapacity)));
+        }
+        int number = 2;
+        for (var destination : configuration.additionalDestinations()) {
+            var limits = configuration.adaptivePolicy().limits(destination, metrics);
+            gaugeLimits(metrics, Integer.toString(number), limits);
+            destinations.add(httpDestination(destination, limits, SPILL_FILE_PREFIX + "-" + number++ + SPILL_FILE_SUFFIX, queueCapacity, configuration, metrics));
+        }
+        return destinations;
+    }
+
+    private static void gaugeLimits(ForwarderMetrics metrics, String destination, AdaptiveLimits limits) {
+        metrics.gauge(ForwarderMetrics.Gauge.BATCH_SIZE, destination, limits::batchSize);
+        metrics.gauge(ForwarderMetrics.Gauge.IN_FLIGHT_BATCHES, destination, limits::inFlightLimit);
+    }
+
+    // Every destination spills to a file of its own
+    private static LogDestination httpDestination(HttpDestination destination, AdaptiveLimits limits, String spillFile, int queueCapacity,
+                                                  ForwarderConfiguration configuration, ForwarderMetrics metrics) {
+        try {
+            var spillQueue = new SpillQueue(configuration.spillDirectory().resolve(spillFile), configuration.maxSpillBytesPerDestination());
+            var logConsumer = new HttpLogConsumer(destination.endpoint(), destination.credentials(), configuration.outputEncoding(), limits,
+                    destination.compression(), destination.timeout(), destination.retryPolicy(), spillQueue, metrics);
+            return new LogDestination(destination.batchLimits(), new QueueingLogConsumer(logConsumer, queueCapacity), limits.adaptive() ? limits : null);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private InputStream downloadS3Object(S3EventNotification.S3Entity s3Entity) {
-        String key = s3Entity.getObject().getKey();
-        String bucket = s3Entity.getBucket().getName();
 
-        logger.log("Downloading " + key + " from S3 bucket " + bucket);
-        return s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build());
+    // The string forwarder sends the lines itself, leaving only the flushes to the handler
+    private static LogConsumerLifecycle flushing(Flushable flusher) {
+        return new LogConsumerLifecycle() {
+            @Override
+            public void flush() throws IOException {
+                flusher.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                flusher.flush();
+            }
+        };
     }
 
-    private static String getRequiredEnvVar(String varName) {
-        var value = System.getenv(varName);
-        if (value == null) {
-            throw new IllegalStateException(varName + " has to be configured");
-        }
-        return value;
+    private static LogForwarder stringForwarder(Function<String, String> logTransformer, Consumer<String> logForwarder) {
+        return new LogForwarder() {
+            @Override
+            public void accept(byte[] line, int offset, int length) {
+                logForwarder.accept(logTransformer.apply(new String(line, offset, length, StandardCharsets.UTF_8)));
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
     }
 }
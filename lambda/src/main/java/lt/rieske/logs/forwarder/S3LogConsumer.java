@@ -0,0 +1,194 @@
+package lt.rieske.logs.forwarder;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+// Appends the batches to objects of up to maxObjectBytes in hourly partitions of the key prefix, uploading them in parts as they
+// arrive. An object is completed once full and at every flush - its batches are unconfirmed until then.
+// Not thread safe - meant to be fed by the single sender thread of a QueueingLogConsumer, which also records the failures it throws.
+class S3LogConsumer implements CloseableLogConsumer {
+
+    // S3 takes no smaller parts but the last one
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private static final DateTimeFormatter PARTITION = DateTimeFormatter.ofPattern("yyyy/MM/dd/HH/").withZone(ZoneOffset.UTC);
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String keyPrefix;
+    private final OutputEncoding encoding;
+    private final String keySuffix;
+    private final GzipCompressor compressor;
+    private final long maxObjectBytes;
+    private final ForwarderMetrics metrics;
+    private final ByteArrayBuilder part = new ByteArrayBuilder(64 * 1024);
+    private final List<CompletedPart> uploadedParts = new ArrayList<>();
+
+    private String key;
+    private String uploadId;
+    private long uploadedBytes;
+
+    S3LogConsumer(S3Client s3, String bucket, String keyPrefix, OutputEncoding encoding, PayloadCompression compression, long maxObjectBytes,
+                  ForwarderMetrics metrics) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.keyPrefix = keyPrefix;
+        this.encoding = encoding;
+        this.keySuffix = encoding.fileExtension() + (compression == PayloadCompression.GZIP ? ".gz" : "");
+        // the objects are kept, so they are compressed harder than the batches sent over HTTP
+        this.compressor = compression == PayloadCompression.GZIP ? new GzipCompressor(Deflater.DEFAULT_COMPRESSION) : null;
+        this.maxObjectBytes = maxObjectBytes;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void accept(LogBatch batch) {
+        try {
+            if (key == null) {
+                key = keyPrefix + PARTITION.format(Instant.now()) + UUID.randomUUID() + keySuffix;
+            }
+            if (compressor != null) {
+                compressor.compress(batch.array(), 0, batch.length(), part);
+            } else {
+                part.append(batch.array(), 0, batch.length());
+            }
+            batch.markSpilled();
+        } finally {
+            batch.release();
+        }
+        try {
+            if (uploadedBytes + part.length() >= maxObjectBytes) {
+                completeObject();
+            } else if (part.length() >= MIN_PART_SIZE) {
+                uploadPart();
+            }
+        } catch (SdkException e) {
+            abortObject();
+            throw new UncheckedIOException(new IOException("Error writing logs to S3 bucket " + bucket, e));
+        }
+    }
+
+    // Batches are written one at a time, by the thread handing them over
+    @Override
+    public int maxHeldBatches() {
+        return 1;
+    }
+
+    // Completes the object, so that the batches written so far show up in the bucket
+    @Override
+    public void flush() throws IOException {
+        if (key == null) {
+            return;
+        }
+        try {
+            completeObject();
+        } catch (SdkException e) {
+            abortObject();
+            throw new IOException("Error writing logs to S3 bucket " + bucket, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (compressor != null) {
+                compressor.close();
+            }
+        }
+    }
+
+    // An object that fits a single part is put as a whole
+    private void completeObject() {
+        if (uploadId == null) {
+            var request = PutObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .contentType(encoding.contentType())
+                    .build();
+            long startNanos = System.nanoTime();
+            s3.putObject(request, partBody());
+            metrics.recordHttpRequest(part.length(), System.nanoTime() - startNanos);
+        } else {
+            if (part.length() > 0) {
+                uploadPart();
+            }
+            s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(uploadedParts).build())
+                    .build());
+        }
+        reset();
+    }
+
+    private void uploadPart() {
+        if (uploadId == null) {
+            uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .contentType(encoding.contentType())
+                    .build()).uploadId();
+        }
+        int partNumber = uploadedParts.size() + 1;
+        var request = UploadPartRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .build();
+        long startNanos = System.nanoTime();
+        var response = s3.uploadPart(request, partBody());
+        metrics.recordHttpRequest(part.length(), System.nanoTime() - startNanos);
+        uploadedParts.add(CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+        uploadedBytes += part.length();
+        part.setLength(0);
+    }
+
+    private RequestBody partBody() {
+        byte[] content = part.array();
+        int length = part.length();
+        return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(content, 0, length), length, encoding.contentType());
+    }
+
+    // The uploaded parts of a failed object are dropped - a bucket lifecycle rule cleans up after an abort that fails too
+    private void abortObject() {
+        if (uploadId != null) {
+            try {
+                s3.abortMultipartUpload(AbortMultipartUploadRequest.builder().bucket(bucket).key(key).uploadId(uploadId).build());
+            } catch (SdkException e) {
+                // left for the lifecycle rule
+            }
+        }
+        reset();
+    }
+
+    private void reset() {
+        key = null;
+        uploadId = null;
+        uploadedBytes = 0;
+        uploadedParts.clear();
+        part.setLength(0);
+    }
+}
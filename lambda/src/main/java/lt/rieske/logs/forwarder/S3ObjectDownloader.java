@@ -0,0 +1,256 @@
+package lt.rieske.logs.forwarder;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Downloads objects in byte range parts of partSize, up to concurrency parts at a time, into pooled buffers -
+// a download holds at most (concurrency + 1) * partSize bytes.
+class S3ObjectDownloader {
+
+    static final int MIN_PART_SIZE = 1024 * 1024;
+    static final int MAX_PART_SIZE = 8 * 1024 * 1024;
+    static final int MAX_CONCURRENCY = 4;
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final Part NO_PART = new Part(new byte[0], 0);
+
+    private final S3Client s3;
+    private final int partSize;
+    private final int concurrency;
+    private final ExecutorService partDownloads = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("s3-part-", 0).factory());
+    private final BlockingQueue<byte[]> partBuffers;
+
+    S3ObjectDownloader(S3Client s3) {
+        this(s3, MAX_PART_SIZE, MAX_CONCURRENCY, 1);
+    }
+
+    S3ObjectDownloader(S3Client s3, int partSize, int concurrency, int parallelism) {
+        this.s3 = s3;
+        this.partSize = partSize;
+        this.concurrency = concurrency;
+        this.partBuffers = new ArrayBlockingQueue<>(parallelism * (concurrency + 1));
+    }
+
+    // As many parts of the given size at a time as the memory budget of a download holds, next to the one being read
+    static int concurrency(long budgetBytes, int partSize) {
+        return Math.clamp(budgetBytes / partSize - 1, 1, MAX_CONCURRENCY);
+    }
+
+    // The largest parts the memory budget of a download holds at the given concurrency
+    static int partSize(long budgetBytes, int concurrency) {
+        return Math.clamp(budgetBytes / (concurrency + 1), MIN_PART_SIZE, MAX_PART_SIZE);
+    }
+
+    RangedObjectInputStream download(String bucket, String key) {
+        return download(bucket, key, 0, null);
+    }
+
+    // Downloads the object from the given offset on, failing with a 412 S3Exception if its ETag is not the expected one
+    RangedObjectInputStream download(String bucket, String key, long offset, String expectedETag) {
+        return new RangedObjectInputStream(bucket, key, offset, expectedETag);
+    }
+
+    // The ETag of the current version of the object, without downloading it
+    String eTag(String bucket, String key) {
+        return s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build()).eTag();
+    }
+
+    class RangedObjectInputStream extends InputStream {
+
+        private final String bucket;
+        private final String key;
+        private final Deque<Future<Part>> parts = new ArrayDeque<>();
+
+        private String eTag;
+        private long objectSize;
+        private long nextPartStart;
+
+        private Part part = NO_PART;
+        private int position = 0;
+
+        private RangedObjectInputStream(String bucket, String key, long offset, String expectedETag) {
+            this.bucket = bucket;
+            this.key = key;
+            this.eTag = expectedETag;
+
+            // The first part is requested up front - its Content-Range tells the object size needed to plan the remaining parts
+            ResponseInputStream<GetObjectResponse> firstPart;
+            try {
+                firstPart = s3.getObject(partRequest(offset, offset + partSize - 1));
+            } catch (S3Exception e) {
+                if (e.statusCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+                    return; // an empty object has no bytes to satisfy any range
+                }
+                throw e;
+            }
+            var response = firstPart.response();
+            eTag = response.eTag();
+            objectSize = objectSize(response);
+            nextPartStart = response.contentRange() != null ? Math.min(offset + partSize, objectSize) : objectSize;
+            parts.add(partDownloads.submit(() -> readPart(firstPart)));
+            requestParts();
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (position == part.length()) {
+                if (!nextPart()) {
+                    return -1;
+                }
+            }
+            return part.buffer()[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == part.length()) {
+                if (!nextPart()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(len, part.length() - position);
+            System.arraycopy(part.buffer(), position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return part.length() - position;
+        }
+
+        // Null for an empty object downloaded without an expected ETag
+        String eTag() {
+            return eTag;
+        }
+
+        @Override
+        public void close() {
+            for (var downloading : parts) {
+                if (!downloading.cancel(true) && downloading.state() == Future.State.SUCCESS) {
+                    recycle(downloading.resultNow());
+                }
+            }
+            parts.clear();
+            recycle(part);
+            part = NO_PART;
+            position = 0;
+        }
+
+        private boolean nextPart() throws IOException {
+            var next = parts.poll();
+            if (next == null) {
+                return false;
+            }
+            recycle(part);
+            part = NO_PART;
+            requestParts();
+            part = await(next);
+            position = 0;
+            return true;
+        }
+
+        private void requestParts() {
+            while (parts.size() < concurrency && nextPartStart < objectSize) {
+                long start = nextPartStart;
+                long end = Math.min(start + partSize, objectSize) - 1;
+                parts.add(partDownloads.submit(() -> readPart(s3.getObject(partRequest(start, end)))));
+                nextPartStart = end + 1;
+            }
+        }
+
+        private GetObjectRequest partRequest(long start, long end) {
+            // If-Match makes the download fail rather than stitch together parts of two different versions of the object
+            return GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .range("bytes=" + start + "-" + end)
+                    .ifMatch(eTag)
+                    .build();
+        }
+    }
+
+    // A part held in a pooled buffer, which can be longer than the part
+    private record Part(byte[] buffer, int length) {
+    }
+
+    private Part readPart(ResponseInputStream<GetObjectResponse> partStream) throws IOException {
+        try (partStream) {
+            int length = Math.toIntExact(partStream.response().contentLength());
+            var buffer = partBuffer(length);
+            int read = partStream.readNBytes(buffer, 0, length);
+            if (read < length) {
+                throw new EOFException("Part of " + length + " bytes ended after " + read + " bytes");
+            }
+            return new Part(buffer, length);
+        }
+    }
+
+    // Every part but the last one of an object fills a whole buffer, so pooled buffers fit all parts
+    private byte[] partBuffer(int length) {
+        var buffer = partBuffers.poll();
+        return buffer != null && buffer.length >= length ? buffer : new byte[Math.max(length, partSize)];
+    }
+
+    private void recycle(Part part) {
+        if (part != NO_PART) {
+            partBuffers.offer(part.buffer());
+        }
+    }
+
+    int pooledPartBuffers() {
+        return partBuffers.size();
+    }
+
+    private static long objectSize(GetObjectResponse response) {
+        var contentRange = response.contentRange();
+        if (contentRange == null) {
+            return response.contentLength();
+        }
+        return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1));
+    }
+
+    private static Part await(Future<Part> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package lt.rieske.logs.forwarder;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+// Keeps what the function records about a log object in a sidecar object next to it, named by the key and a suffix of its own.
+// The suffixes do not end with .gz, so the sidecar objects do not trigger the function themselves.
+class S3SidecarStore {
+
+    static final String CHECKPOINT = ".checkpoint";
+    static final String DEDUP_FILTER = ".dedup";
+
+    private static final List<String> SUFFIXES = List.of(CHECKPOINT, DEDUP_FILTER);
+    private static final int HTTP_FORBIDDEN = 403;
+
+    private final S3Client s3;
+    private final String suffix;
+
+    S3SidecarStore(S3Client s3, String suffix) {
+        this.s3 = s3;
+        this.suffix = suffix;
+    }
+
+    static boolean isSidecar(String key) {
+        return SUFFIXES.stream().anyMatch(key::endsWith);
+    }
+
+    // Returns null if there is no sidecar object
+    byte[] load(String bucket, String key) {
+        try (var sidecar = s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key + suffix).build())) {
+            return sidecar.readAllBytes();
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (S3Exception e) {
+            // without s3:ListBucket permission S3 responds to a missing key with 403
+            if (e.statusCode() == HTTP_FORBIDDEN) {
+                return null;
+            }
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void save(String bucket, String key, byte[] content) {
+        s3.putObject(PutObjectRequest.builder().bucket(bucket).key(key + suffix).build(), RequestBody.fromBytes(content));
+    }
+}
@@ -0,0 +1,167 @@
+package lt.rieske.logs.forwarder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Append-only file of log batches that could not be delivered. It lives in /tmp, which survives between warm invocations
+// of the same Lambda execution environment, and is bounded so that it never fills the disk.
+// Every record is [content length][payload compression][content] - a record cut short by a crash is dropped on reopening.
+// A delivered record has its compression overwritten right away, so that one delivered by a drain cut short is not sent again.
+class SpillQueue implements Closeable {
+
+    private static final int HEADER_SIZE = Integer.BYTES + 1;
+    private static final byte DELIVERED = -1;
+
+    interface SpilledBatchConsumer {
+        // Returns false if the batch could not be delivered
+        boolean accept(byte[] content, PayloadCompression compression) throws IOException;
+    }
+
+    private final Path file;
+    private final long maxBytes;
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+    private long size;
+
+    SpillQueue(Path file, long maxBytes) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.size = wholeRecordsSize();
+        channel.truncate(size);
+        removeHead(deliveredHead());
+    }
+
+    Path file() {
+        return file;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    // Returns false if the batch does not fit
+    synchronized boolean offer(byte[] content, int length, PayloadCompression compression) throws IOException {
+        long recordSize = HEADER_SIZE + (long) length;
+        if (size + recordSize > maxBytes) {
+            return false;
+        }
+        header.clear();
+        header.putInt(length).put((byte) compression.ordinal()).flip();
+        writeFully(header, size);
+        writeFully(ByteBuffer.wrap(content, 0, length), size + HEADER_SIZE);
+        channel.force(false);
+        size += recordSize;
+        return true;
+    }
+
+    int drain(SpilledBatchConsumer consumer) throws IOException {
+        return drain(consumer, Long.MAX_VALUE);
+    }
+
+    // Hands the spilled batches over in order until one is not delivered or the deadline passes, keeping that one and the rest.
+    // Returns the number of batches delivered.
+    synchronized int drain(SpilledBatchConsumer consumer, long deadlineNanos) throws IOException {
+        long position = 0;
+        int delivered = 0;
+        try {
+            while (position < size && System.nanoTime() < deadlineNanos) {
+                int length = readHeader(position);
+                var compression = PayloadCompression.values()[header.get(Integer.BYTES)];
+                var content = ByteBuffer.allocate(length);
+                readFully(content, position + HEADER_SIZE);
+                if (!consumer.accept(content.array(), compression)) {
+                    break;
+                }
+                markDelivered(position);
+                position += HEADER_SIZE + length;
+                delivered++;
+            }
+        } finally {
+            removeHead(position);
+        }
+        return delivered;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private long wholeRecordsSize() throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        while (position + HEADER_SIZE <= fileSize) {
+            int length = readHeader(position);
+            long next = position + HEADER_SIZE + length;
+            if (length < 0 || next > fileSize) {
+                break;
+            }
+            position = next;
+        }
+        return position;
+    }
+
+    // The records delivered by a drain that was cut short all precede the ones left to deliver
+    private long deliveredHead() throws IOException {
+        long position = 0;
+        while (position < size) {
+            int length = readHeader(position);
+            if (header.get(Integer.BYTES) != DELIVERED) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private void markDelivered(long position) throws IOException {
+        writeFully(ByteBuffer.wrap(new byte[]{DELIVERED}), position + Integer.BYTES);
+        channel.force(false);
+    }
+
+    private int readHeader(long position) throws IOException {
+        header.clear();
+        readFully(header, position);
+        return header.getInt(0);
+    }
+
+    // Moves the records that are left to the start of the file
+    private void removeHead(long head) throws IOException {
+        if (head == 0) {
+            return;
+        }
+        var buffer = ByteBuffer.allocate(64 * 1024);
+        long remaining = size - head;
+        for (long moved = 0; moved < remaining; ) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), remaining - moved));
+            readFully(buffer, head + moved);
+            buffer.flip();
+            moved += writeFully(buffer, moved);
+        }
+        channel.truncate(remaining);
+        channel.force(false);
+        size = remaining;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of spill file " + file);
+            }
+        }
+    }
+
+    private int writeFully(ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,27 @@
+package lt.rieske.logs.forwarder;
+
+// The field values in the configured order, separated by the separator, with the null value standing in for null and missing fields
+final class TextRecordEncoder implements RecordEncoder {
+
+    private final byte[] separator;
+    private final byte[] nullValue;
+
+    TextRecordEncoder(LogFormat format) {
+        this.separator = format.separator();
+        this.nullValue = format.nullValue();
+    }
+
+    @Override
+    public void encode(LogRecord record, ByteArrayBuilder out) {
+        for (int field = 0; field < record.fieldCount(); field++) {
+            if (field > 0) {
+                out.append(separator);
+            }
+            if (record.isNull(field)) {
+                out.append(nullValue);
+            } else {
+                record.writeTo(field, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package lt.rieske.logs.forwarder;
+
+// Line counts are kept in plain fields - a forwarder is confined to the thread processing one file -
+// and only added to the shared metrics on flush
+class TransformingLogForwarder implements LogForwarder {
+
+    private final LogFilter logFilter;
+    private final LogTransformer logTransformer;
+    private final Deduplicator deduplicator;
+    private final LogForwarder logForwarder;
+    private final ForwarderMetrics metrics;
+    private final ByteArrayBuilder transformedLine = new ByteArrayBuilder(1024);
+
+    private long linesParsed;
+    private long linesDropped;
+    private long linesFiltered;
+    private long linesSampledOut;
+    private long linesDeduplicated;
+
+    TransformingLogForwarder(LogTransformer logTransformer, LogForwarder logForwarder, ForwarderMetrics metrics) {
+        this(LogFilter.NONE, logTransformer, logForwarder, metrics);
+    }
+
+    TransformingLogForwarder(LogFilter logFilter, LogTransformer logTransformer, LogForwarder logForwarder, ForwarderMetrics metrics) {
+        this(logFilter, logTransformer, null, logForwarder, metrics);
+    }
+
+    // Lines dropped by the filter are never parsed, and lines skipped by the deduplicator are never encoded
+    TransformingLogForwarder(LogFilter logFilter, LogTransformer logTransformer, Deduplicator deduplicator, LogForwarder logForwarder,
+                             ForwarderMetrics metrics) {
+        this.logFilter = logFilter.enabled() ? logFilter : null;
+        this.logTransformer = logTransformer;
+        this.deduplicator = deduplicator;
+        this.logForwarder = logForwarder;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void accept(byte[] line, int offset, int length) {
+        accept(line, offset, length, false);
+    }
+
+    @Override
+    public void acceptTruncated(byte[] line, int offset, int length) {
+        accept(line, offset, length, true);
+    }
+
+    private void accept(byte[] line, int offset, int length, boolean truncated) {
+        if (length == 0) {
+            linesDropped++; // blank lines, e.g. an extra newline at the end of a file, carry no log record
+            return;
+        }
+        if (logFilter != null) {
+            switch (logFilter.decide(line, offset, length)) {
+                case DROP -> {
+                    linesFiltered++;
+                    return;
+                }
+                case SAMPLE_OUT -> {
+                    linesSampledOut++;
+                    return;
+                }
+                case KEEP -> {
+                }
+            }
+        }
+        var record = logTransformer.parse(line, offset, length, truncated);
+        if (deduplicator != null && deduplicator.shippedBefore(record)) {
+            linesDeduplicated++;
+            return;
+        }
+        linesParsed++;
+        transformedLine.setLength(0);
+        logTransformer.encode(record, transformedLine);
+        logForwarder.accept(transformedLine.array(), 0, transformedLine.length());
+    }
+
+    @Override
+    public void flush() {
+        logForwarder.flush();
+        metrics.add(ForwarderMetrics.Counter.LINES_PARSED, linesParsed);
+        metrics.add(ForwarderMetrics.Counter.LINES_DROPPED, linesDropped);
+        metrics.add(ForwarderMetrics.Counter.LINES_FILTERED, linesFiltered);
+        metrics.add(ForwarderMetrics.Counter.LINES_SAMPLED_OUT, linesSampledOut);
+        metrics.add(ForwarderMetrics.Counter.LINES_DEDUPLICATED, linesDeduplicated);
+        linesParsed = 0;
+        linesDropped = 0;
+        linesFiltered = 0;
+        linesSampledOut = 0;
+        linesDeduplicated = 0;
+    }
+
+    @Override
+    public Delivery awaitDelivered(long deadlineNanos) {
+        var delivery = logForwarder.awaitDelivered(deadlineNanos);
+        if (deduplicator != null) {
+            deduplicator.delivered(delivery);
+        }
+        return delivery;
+    }
+}
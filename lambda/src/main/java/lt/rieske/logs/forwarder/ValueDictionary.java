@@ -0,0 +1,95 @@
+package lt.rieske.logs.forwarder;
+
+import java.util.Arrays;
+
+// Interns the byte values of a rollup dimension as int ids, so that rollup keys pack into primitives.
+// Open addressing over the ids; once maxValues distinct values are interned, new values share OTHER.
+// Not thread safe.
+final class ValueDictionary {
+
+    static final int NO_VALUE = 0;
+    static final int OTHER = 1;
+    static final byte[] OTHER_VALUE = {'(', 'o', 't', 'h', 'e', 'r', ')'};
+
+    private final int maxValues;
+    private byte[][] values = new byte[16][];
+    private int[] hashes = new int[16];
+    private int size = OTHER + 1;
+    private int[] slots = new int[32];
+
+    ValueDictionary(int maxValues) {
+        this.maxValues = maxValues;
+        values[OTHER] = OTHER_VALUE;
+    }
+
+    int idOf(byte[] source, int offset, int length) {
+        int hash = hash(source, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (id == NO_VALUE) {
+                if (size - (OTHER + 1) >= maxValues) {
+                    return OTHER;
+                }
+                return add(Arrays.copyOfRange(source, offset, offset + length), hash, slot);
+            }
+            if (hashes[id] == hash && Arrays.equals(values[id], 0, values[id].length, source, offset, offset + length)) {
+                return id;
+            }
+        }
+    }
+
+    int idOf(byte[] value) {
+        return idOf(value, 0, value.length);
+    }
+
+    // Null for NO_VALUE
+    byte[] value(int id) {
+        return values[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, OTHER + 1, size, null);
+        Arrays.fill(slots, NO_VALUE);
+        size = OTHER + 1;
+    }
+
+    private int add(byte[] value, int hash, int slot) {
+        int id = size++;
+        if (id == values.length) {
+            values = Arrays.copyOf(values, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        values[id] = value;
+        hashes[id] = hash;
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = OTHER + 1; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != NO_VALUE) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    private static int hash(byte[] source, int offset, int length) {
+        int h = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ source[i]) * 0x01000193;
+        }
+        return h ^ h >>> 16;
+    }
+}
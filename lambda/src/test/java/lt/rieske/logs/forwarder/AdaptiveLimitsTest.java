@@ -0,0 +1,113 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveLimitsTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+
+    private final ForwarderMetrics metrics = new ForwarderMetrics();
+    private final AdaptiveLimits limits = new AdaptiveLimits(100, 1000, 1, 8, Duration.ofSeconds(1), metrics);
+
+    @Test
+    void doublesBatchSizeAndThenInFlightBatchesUpToTheirMaximums() {
+        deliverWindows(12, FAST);
+
+        assertThat(limits.batchSize()).isEqualTo(1000);
+        assertThat(limits.inFlightLimit()).isEqualTo(8);
+        assertThat(metrics.get(ForwarderMetrics.Counter.BATCH_SIZE_INCREASES)).isEqualTo(4);
+        assertThat(metrics.get(ForwarderMetrics.Counter.IN_FLIGHT_INCREASES)).isEqualTo(3);
+    }
+
+    @Test
+    void halvesInFlightBatchesOnCongestionAndGrowsThemBackByOne() {
+        deliverWindows(12, FAST);
+
+        limits.congested(limits.epoch());
+        assertThat(limits.inFlightLimit()).isEqualTo(4);
+
+        deliverWindows(1, FAST);
+        assertThat(limits.inFlightLimit()).isEqualTo(5);
+        assertThat(limits.batchSize()).isEqualTo(1000);
+        assertThat(metrics.get(ForwarderMetrics.Counter.IN_FLIGHT_DECREASES)).isEqualTo(1);
+    }
+
+    @Test
+    void halvesBatchSizeOfSlowBatchesAndThenInFlightBatches() {
+        deliverWindows(12, FAST);
+
+        for (int i = 0; i < 5; i++) {
+            limits.delivered(limits.epoch(), SLOW);
+        }
+
+        assertThat(limits.batchSize()).isEqualTo(100);
+        assertThat(limits.inFlightLimit()).isEqualTo(4);
+        assertThat(metrics.get(ForwarderMetrics.Counter.BATCH_SIZE_DECREASES)).isEqualTo(4);
+
+        deliverWindows(1, FAST);
+        assertThat(limits.batchSize()).isEqualTo(200);
+    }
+
+    @Test
+    void ignoresResponsesToBatchesSentBeforeLastChange() {
+        deliverWindows(12, FAST);
+        long sentBefore = limits.epoch();
+
+        limits.congested(sentBefore);
+        limits.congested(sentBefore);
+        limits.delivered(sentBefore, SLOW);
+
+        assertThat(limits.inFlightLimit()).isEqualTo(4);
+        assertThat(limits.batchSize()).isEqualTo(1000);
+    }
+
+    @Test
+    void fixedLimitsNeverChange() {
+        var fixed = AdaptiveLimits.fixed(1000, 4, metrics);
+
+        fixed.delivered(fixed.epoch(), FAST);
+        fixed.delivered(fixed.epoch(), SLOW);
+        fixed.congested(fixed.epoch());
+
+        assertThat(fixed.adaptive()).isFalse();
+        assertThat(fixed.batchSize()).isEqualTo(1000);
+        assertThat(fixed.inFlightLimit()).isEqualTo(4);
+        assertThat(metrics.emfRecordAndReset("forwarder", 0)).contains("\"BatchSizeIncreases\":0,", "\"InFlightBatchesDecreases\":0,");
+    }
+
+    @Test
+    void blocksSendersBeyondInFlightLimit() throws Exception {
+        limits.acquire();
+        var blocked = CompletableFuture.runAsync(() -> {
+            try {
+                limits.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(50);
+        assertThat(blocked.isDone()).isFalse();
+
+        limits.release();
+        blocked.get(1, TimeUnit.SECONDS);
+        limits.release();
+        limits.awaitIdle();
+    }
+
+    private void deliverWindows(int windows, long latencyNanos) {
+        for (int i = 0; i < windows; i++) {
+            int window = limits.inFlightLimit();
+            for (int j = 0; j < window; j++) {
+                limits.delivered(limits.epoch(), latencyNanos);
+            }
+        }
+    }
+}
@@ -2,8 +2,11 @@ package lt.rieske.logs.forwarder;
 
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -72,6 +75,104 @@ class BatchingLogForwarderTest {
         assertThat(batchConsumer).isEmpty();
     }
 
+    @Test
+    void reusesReleasedBatches() {
+        List<String> batchConsumer = new ArrayList<>();
+        List<LogBatch> batches = new ArrayList<>();
+        var forwarder = new BatchingLogForwarder(BatchLimits.ofLines(2), new LogBatchPool(16), batch -> {
+            batches.add(batch);
+            batchConsumer.add(batch.toString());
+            batch.release();
+        }, System::nanoTime);
+
+        sendLogMessages(forwarder, 6);
+
+        assertThat(batchConsumer).containsExactly("0\n1\n", "2\n3\n", "4\n5\n");
+        assertThat(batches.get(1)).isSameAs(batches.get(0));
+        assertThat(batches.get(2)).isSameAs(batches.get(0));
+    }
+
+    @Test
+    void flushesBatchBeforeItExceedsMaxBytes() {
+        List<String> batchConsumer = new ArrayList<>();
+        var forwarder = forwarder(new BatchLimits(100, 7, Duration.ofHours(1)), batchConsumer, () -> 0);
+
+        sendLogMessages(forwarder, 12);
+        forwarder.flush();
+
+        assertThat(batchConsumer).containsExactly("0\n1\n2\n", "3\n4\n5\n", "6\n7\n8\n", "9\n10\n", "11\n");
+    }
+
+    @Test
+    void flushesBatchThatReachedMaxBytes() {
+        List<String> batchConsumer = new ArrayList<>();
+        var forwarder = forwarder(new BatchLimits(100, 6, Duration.ofHours(1)), batchConsumer, () -> 0);
+
+        sendLogMessages(forwarder, 4);
+
+        assertThat(batchConsumer).containsExactly("0\n1\n2\n");
+    }
+
+    @Test
+    void forwardsLineLongerThanMaxBytesInItsOwnBatch() {
+        List<String> batchConsumer = new ArrayList<>();
+        var forwarder = forwarder(new BatchLimits(100, 4, Duration.ofHours(1)), batchConsumer, () -> 0);
+
+        forwarder.accept("0");
+        forwarder.accept("123456");
+        forwarder.accept("1");
+        forwarder.flush();
+
+        assertThat(batchConsumer).containsExactly("0\n", "123456\n", "1\n");
+    }
+
+    @Test
+    void flushesBatchOnceItLingeredForMaxLingerTime() {
+        List<String> batchConsumer = new ArrayList<>();
+        var nanoTime = new AtomicLong();
+        var forwarder = forwarder(new BatchLimits(100, 1024, Duration.ofNanos(10)), batchConsumer, nanoTime::get);
+
+        forwarder.accept("0");
+        nanoTime.set(9);
+        forwarder.accept("1");
+
+        assertThat(batchConsumer).isEmpty();
+
+        nanoTime.set(10);
+        forwarder.accept("2");
+        forwarder.accept("3");
+
+        assertThat(batchConsumer).containsExactly("0\n1\n2\n");
+
+        nanoTime.set(20);
+        forwarder.accept("4");
+
+        assertThat(batchConsumer).containsExactly("0\n1\n2\n", "3\n4\n");
+    }
+
+    @Test
+    void takesLineLimitAsEveryBatchIsStarted() {
+        List<String> batchConsumer = new ArrayList<>();
+        var maxLines = new AtomicLong(2);
+        var forwarder = new BatchingLogForwarder(BatchLimits.ofLines(10), () -> (int) maxLines.get(), new LogBatchPool(16), batch -> {
+            batchConsumer.add(batch.toString());
+            batch.release();
+        }, System::nanoTime);
+
+        forwarder.accept("0");
+        maxLines.set(3);
+        sendLogMessages(forwarder, 4);
+
+        assertThat(batchConsumer).containsExactly("0\n0\n", "1\n2\n3\n");
+    }
+
+    private static BatchingLogForwarder forwarder(BatchLimits limits, List<String> batchConsumer, LongSupplier nanoClock) {
+        return new BatchingLogForwarder(limits, new LogBatchPool(16), batch -> {
+            batchConsumer.add(batch.toString());
+            batch.release();
+        }, nanoClock);
+    }
+
     private static void sendLogMessages(LogForwarder forwarder, int upperBound) {
         for (int i = 0; i < upperBound; i++) {
             forwarder.accept(Integer.toString(i));
@@ -0,0 +1,71 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BlockedBloomFilterTest {
+
+    @Test
+    void containsEveryHashPut() {
+        var filter = new BlockedBloomFilter(64 * 1024, 0.001);
+        var random = new SplittableRandom(42);
+
+        long[] hashes = random.longs(filter.capacity()).toArray();
+        for (long hash : hashes) {
+            assertThat(filter.put(hash)).isTrue();
+        }
+
+        for (long hash : hashes) {
+            assertThat(filter.mightContain(hash)).isTrue();
+        }
+    }
+
+    @Test
+    void holdsToFalsePositiveRateAtCapacity() {
+        var filter = new BlockedBloomFilter(64 * 1024, 0.001);
+        var random = new SplittableRandom(42);
+        random.longs(filter.capacity()).forEach(filter::put);
+
+        long falsePositives = random.longs(1_000_000).filter(filter::mightContain).count();
+
+        assertThat(filter.capacity()).isGreaterThan(30_000);
+        assertThat(falsePositives).isLessThan(1500);
+    }
+
+    @Test
+    void takesNoMoreHashesThanItsCapacity() {
+        var filter = new BlockedBloomFilter(64, 0.01);
+        var random = new SplittableRandom(42);
+        random.longs(filter.capacity()).forEach(filter::put);
+
+        assertThat(filter.put(random.nextLong())).isFalse();
+        assertThat(filter.count()).isEqualTo(filter.capacity());
+    }
+
+    @Test
+    void restoresFromItsBytes() {
+        var filter = new BlockedBloomFilter(1024, 0.01);
+        filter.put(1);
+        filter.put(BlockedBloomFilter.hash(new byte[]{'f', 'o', 'o'}, 0, 3, 0));
+
+        var restored = BlockedBloomFilter.fromBytes(filter.toBytes());
+
+        assertThat(restored.mightContain(1)).isTrue();
+        assertThat(restored.mightContain(BlockedBloomFilter.hash(new byte[]{'f', 'o', 'o'}, 0, 3, 0))).isTrue();
+        assertThat(restored.count()).isEqualTo(2);
+        assertThat(restored.capacity()).isEqualTo(filter.capacity());
+        assertThatThrownBy(() -> BlockedBloomFilter.fromBytes(new byte[10])).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void readsFilterOfEarlierLayoutAsNone() {
+        byte[] earlierLayout = new BlockedBloomFilter(1024, 0.01).toBytes();
+        earlierLayout[0] = 13;
+
+        assertThat(BlockedBloomFilter.fromBytes(earlierLayout)).isNull();
+    }
+}
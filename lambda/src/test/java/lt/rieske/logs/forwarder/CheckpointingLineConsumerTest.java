@@ -0,0 +1,140 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CheckpointingLineConsumerTest {
+
+    private static final int MEMBERS = 4;
+    private static final int LINES_PER_MEMBER = 1000;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final InMemoryCheckpointStore store = new InMemoryCheckpointStore();
+    private final List<String> forwarded = new ArrayList<>();
+    private final Queue<Delivery> deliveries = new ArrayDeque<>();
+    private Duration checkpointInterval = Duration.ofHours(1);
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    void checkpointsAtMemberStartWhenOutOfTimeAndResumesWithoutLosingOrRepeatingLines() throws IOException {
+        byte[] gzipped = gzippedMembers();
+
+        assertThatThrownBy(() -> forward(gzipped, null, 0))
+                .isInstanceOf(CheckpointingLineConsumer.OutOfTime.class);
+        var checkpoint = store.load("bucket", "key");
+        assertThat(checkpoint.memberOffset()).isPositive();
+        assertThat(checkpoint.linesToSkip()).isLessThan(LINES_PER_MEMBER);
+        assertThat(checkpoint.completed()).isFalse();
+
+        var consumer = forward(Arrays.copyOfRange(gzipped, (int) checkpoint.memberOffset(), gzipped.length), checkpoint, Long.MAX_VALUE);
+        consumer.completed();
+
+        assertThat(forwarded).isEqualTo(lines(0, MEMBERS * LINES_PER_MEMBER));
+        assertThat(store.load("bucket", "key").completed()).isTrue();
+    }
+
+    @Test
+    void doesNotMarkObjectThatWasNeverCheckpointedAsCompleted() throws IOException {
+        forward(gzippedMembers(), null, Long.MAX_VALUE).completed();
+
+        assertThat(forwarded).hasSize(MEMBERS * LINES_PER_MEMBER);
+        assertThat(store.load("bucket", "key")).isNull();
+    }
+
+    @Test
+    void savesNoCheckpointOnceLinesWereNotDelivered() throws IOException {
+        checkpointInterval = Duration.ZERO;
+        deliveries.add(Delivery.UNCONFIRMED);
+
+        forward(gzippedMembers(), null, Long.MAX_VALUE).completed();
+
+        assertThat(forwarded).hasSize(MEMBERS * LINES_PER_MEMBER);
+        assertThat(deliveries).isEmpty();
+        assertThat(store.load("bucket", "key")).isNull();
+    }
+
+    private CheckpointingLineConsumer forward(byte[] gzipped, Checkpoint resumed, long deadlineNanos) throws IOException {
+        LogForwarder logForwarder = new LogForwarder() {
+            @Override
+            public void accept(byte[] line, int offset, int length) {
+                forwarded.add(new String(line, offset, length, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public Delivery awaitDelivered(long deadlineNanos) {
+                return deliveries.isEmpty() ? Delivery.DELIVERED : deliveries.poll();
+            }
+        };
+        var lineReader = new LineReader(1024);
+        var policy = new CheckpointPolicy(store, checkpointInterval, Duration.ZERO);
+        var consumer = new CheckpointingLineConsumer("bucket", "key", "etag", resumed, logForwarder, lineReader, policy, deadlineNanos, new ForwarderMetrics());
+        // small segments so that every gzip member is a segment of its own
+        try (var inflated = new ParallelGzipInputStream(new ByteArrayInputStream(gzipped), executor, 1024, 2, consumer)) {
+            lineReader.forEachLine(inflated, consumer);
+        }
+        return consumer;
+    }
+
+    private static byte[] gzippedMembers() throws IOException {
+        var gzipped = new ByteArrayOutputStream();
+        for (int member = 0; member < MEMBERS; member++) {
+            var memberBytes = new ByteArrayOutputStream();
+            try (var gzip = new GZIPOutputStream(memberBytes)) {
+                for (String line : lines(member * LINES_PER_MEMBER, LINES_PER_MEMBER)) {
+                    gzip.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            gzipped.writeBytes(memberBytes.toByteArray());
+        }
+        return gzipped.toByteArray();
+    }
+
+    private static List<String> lines(int from, int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            lines.add("{\"RayID\":\"" + i + "\"}");
+        }
+        return lines;
+    }
+
+    private static class InMemoryCheckpointStore implements CheckpointStore {
+        private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+
+        @Override
+        public Checkpoint load(String bucket, String key) {
+            return checkpoints.get(bucket + "/" + key);
+        }
+
+        @Override
+        public void save(String bucket, String key, Checkpoint checkpoint) {
+            checkpoints.put(bucket + "/" + key, checkpoint);
+        }
+    }
+}
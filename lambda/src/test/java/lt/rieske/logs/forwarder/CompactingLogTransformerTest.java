@@ -2,7 +2,12 @@ package lt.rieske.logs.forwarder;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class CompactingLogTransformerTest {
 
@@ -58,4 +63,100 @@ class CompactingLogTransformerTest {
 
         assertThat(logLine).isEqualTo("null null null null null null null null null null null null");
     }
+
+    @Test
+    void deserializesEscapedValues() {
+        var logLine = transformer.apply("{" +
+                "\"ClientRequestURI\":\"/foo\\/bar?q=\\\"baz\\\"\"," +
+                "\"ClientRequestUserAgent\":\"caf\\u00e9 \\ud83d\\ude00 \\\\ tab\\there\"," +
+                "\"Client\\u0052equestMethod\":\"GET\"" +
+                "}");
+
+        assertThat(logLine).isEqualTo("GET null /foo/bar?q=\"baz\" null null null null null null null null caf\u00e9 \uD83D\uDE00 \\ tab\there");
+    }
+
+    @Test
+    void deserializesNonStringValues() {
+        var logLine = transformer.apply("{ \"ClientRequestMethod\" : true, \"EdgeResponseBytes\" : -1.5e3, \"RayID\" : null }");
+
+        assertThat(logLine).isEqualTo("true null null null null null -1.5e3 null null null null null");
+    }
+
+    @Test
+    void writesConfiguredFieldsWithConfiguredSeparatorAndNullValue() {
+        var transformer = new CompactingLogTransformer(LogFormat.parse("RayID, ClientRequestReferer,EdgeResponseStatus", "\\t", "-"));
+
+        var logLine = transformer.apply("{" +
+                "\"ClientRequestMethod\":\"GET\"," +
+                "\"ClientRequestReferer\":null," +
+                "\"EdgeResponseStatus\":200," +
+                "\"RayID\":\"foobar\"" +
+                "}");
+
+        assertThat(logLine).isEqualTo("foobar\t-\t200");
+    }
+
+    @Test
+    void writesPresentFieldsAsJsonWithValuesEscapedAgain() {
+        var transformer = new CompactingLogTransformer(
+                LogFormat.parse("RayID,ClientRequestUserAgent,ClientRequestReferer,EdgeResponseStatus", " ", "null"), OutputEncoding.NDJSON);
+
+        var logLine = transformer.apply("{" +
+                "\"ClientRequestReferer\":null," +
+                "\"EdgeResponseStatus\":200," +
+                "\"ClientRequestUserAgent\":\"a\\\\b\\tc\\u0001\"," +
+                "\"RayID\":\"foo\\\"bar\"" +
+                "}");
+
+        assertThat(logLine).isEqualTo("{\"RayID\":\"foo\\\"bar\",\"ClientRequestUserAgent\":\"a\\\\b\\tc\\u0001\",\"EdgeResponseStatus\":200}");
+    }
+
+    @Test
+    void writesFieldsAsMessagePackArray() {
+        var transformer = new CompactingLogTransformer(
+                LogFormat.parse("RayID,EdgeResponseStatus,EdgeStartTimestamp,ClientRequestReferer,EdgeResponseBytes", " ", "null"), OutputEncoding.MSGPACK);
+        byte[] line = "{\"RayID\":\"foobar\",\"EdgeResponseStatus\":200,\"EdgeStartTimestamp\":-40,\"EdgeResponseBytes\":1.5}".getBytes(StandardCharsets.UTF_8);
+        var out = new ByteArrayBuilder(64);
+
+        transformer.transform(line, 0, line.length, out);
+
+        assertThat(HexFormat.of().formatHex(out.array(), 0, out.length())).isEqualTo(
+                "95" + "a6666f6f626172" + "ccc8" + "d0d8" + "c0" + "cb3ff8000000000000");
+    }
+
+    @Test
+    void writesDictionaryValuesAsTheirPositionsInMessagePack() {
+        var transformer = new CompactingLogTransformer(
+                LogFormat.parse("ClientRequestMethod,CacheCacheStatus,ClientCountry,RayID", " ", "null"), OutputEncoding.MSGPACK);
+        byte[] line = "{\"ClientRequestMethod\":\"PATCH\",\"CacheCacheStatus\":\"hit\",\"ClientCountry\":\"us\",\"RayID\":\"GET\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] unknownValues = "{\"ClientRequestMethod\":\"FOO\",\"CacheCacheStatus\":\"HIT\",\"ClientCountry\":\"zz\"}".getBytes(StandardCharsets.UTF_8);
+        var out = new ByteArrayBuilder(64);
+
+        transformer.transform(line, 0, line.length, out);
+        transformer.transform(unknownValues, 0, unknownValues.length, out);
+
+        assertThat(HexFormat.of().formatHex(out.array(), 0, out.length())).isEqualTo(
+                "94" + "06" + "05" + "cce8" + "a3474554" +
+                        "94" + "a3464f4f" + "a3484954" + "a27a7a" + "c0");
+    }
+
+    @Test
+    void writesFieldsCutOffByTruncationAsNull() {
+        var transformer = new CompactingLogTransformer(LogFormat.parse("RayID,EdgeResponseStatus,ClientRequestURI", " ", "null"));
+        byte[] line = "{\"RayID\":\"foobar\",\"EdgeResponseStatus\":200,\"ClientRequestURI\":\"/foo".getBytes(StandardCharsets.UTF_8);
+        var out = new ByteArrayBuilder(64);
+
+        transformer.transformTruncated(line, 0, line.length, out);
+        transformer.transformTruncated(line, 0, line.length - 25, out);
+
+        assertThat(new String(out.array(), 0, out.length(), StandardCharsets.UTF_8)).isEqualTo("foobar 200 null" + "foobar null null");
+    }
+
+    @Test
+    void rejectsMalformedLogLine() {
+        assertThatThrownBy(() -> transformer.apply("{\"ClientRequestMethod\":\"GET\""))
+                .isInstanceOf(UncheckedIOException.class);
+        assertThatThrownBy(() -> transformer.apply("{\"ClientRequestMethod\":{\"nested\":1}}"))
+                .isInstanceOf(UncheckedIOException.class);
+    }
 }
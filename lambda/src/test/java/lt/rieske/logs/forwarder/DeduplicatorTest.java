@@ -0,0 +1,155 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeduplicatorTest {
+
+    private static final LogFormat FORMAT = LogFormat.parse("ClientRequestURI,RayID", " ", "-");
+
+    private final List<String> forwarded = new ArrayList<>();
+    private final List<BlockedBloomFilter> stored = new ArrayList<>();
+    private final ForwarderMetrics metrics = new ForwarderMetrics();
+
+    @Test
+    void forwardsEveryLineOfFirstRunAndStoresThemOnceDelivered() {
+        var logForwarder = deduplicating(new BlockedBloomFilter(4096, 0.0001), false);
+
+        forward(logForwarder, line("foo", 1), line("foo", 1), line("bar", 1));
+        assertThat(stored).isEmpty();
+        assertThat(logForwarder.awaitDelivered()).isEqualTo(Delivery.DELIVERED);
+        assertThat(logForwarder.awaitDelivered()).isEqualTo(Delivery.DELIVERED);
+
+        assertThat(forwarded).containsExactly("/ foo", "/ foo", "/ bar");
+        assertThat(stored).hasSize(1);
+        assertThat(metrics.get(ForwarderMetrics.Counter.LINES_DEDUPLICATED)).isZero();
+    }
+
+    @Test
+    void skipsLinesShippedByEarlierRun() {
+        var firstRun = deduplicating(new BlockedBloomFilter(4096, 0.0001), false);
+        forward(firstRun, line("foo", 1), line("bar", 1));
+        firstRun.awaitDelivered();
+        forwarded.clear();
+
+        var rerun = deduplicating(BlockedBloomFilter.fromBytes(stored.getFirst().toBytes()), true);
+        forward(rerun, line("foo", 1), line("bar", 1), line("bar", 2), line("baz", 1), line("baz", 1));
+
+        assertThat(forwarded).containsExactly("/ bar", "/ baz");
+        assertThat(metrics.get(ForwarderMetrics.Counter.LINES_DEDUPLICATED)).isEqualTo(3);
+        assertThat(metrics.get(ForwarderMetrics.Counter.LINES_PARSED)).isEqualTo(4);
+    }
+
+    @Test
+    void forwardsLinesOfFirstRunPastFilterCapacityWithoutAddingThem() {
+        var shippedLines = new BlockedBloomFilter(64, 0.0001);
+        for (long hash = 0; shippedLines.put(hash); hash++) {
+        }
+        var firstRun = deduplicating(shippedLines, false);
+
+        forward(firstRun, line("foo", 1), line("foo", 1));
+        firstRun.awaitDelivered();
+
+        assertThat(forwarded).containsExactly("/ foo", "/ foo");
+        assertThat(shippedLines.full()).isTrue();
+        assertThat(stored).isEmpty();
+    }
+
+    @Test
+    void doesNotAddLinesDroppedByFilterToShippedLines() {
+        var logFilter = LogFilter.parse(1, "/health", "", "");
+        var firstRun = deduplicating(logFilter, new BlockedBloomFilter(4096, 0.0001), false);
+        forward(firstRun, "{\"ClientRequestURI\":\"/health\",\"EdgeStartTimestamp\":1,\"RayID\":\"foo\"}");
+        firstRun.awaitDelivered();
+
+        assertThat(forwarded).isEmpty();
+        assertThat(stored).isEmpty();
+    }
+
+    @Test
+    void findsKeysWhereverTheyAreInLine() {
+        var rerun = deduplicating(new BlockedBloomFilter(4096, 0.0001), true);
+
+        forward(rerun,
+                "{\"RayID\":\"foo\",\"ClientRequestURI\":\"/\",\"EdgeStartTimestamp\":1}",
+                "{\"ClientRequestURI\":\"/a/much/longer/path\",\"EdgeStartTimestamp\":1,\"RayID\":\"foo\"}",
+                "{\"EdgeStartTimestamp\":1,\"ClientRequestUserAgent\":\"\\\"RayID\\\":\\\"bar\\\"\",\"RayID\":\"foo\"}",
+                "{\"ClientRequestURI\":\"/\",\"EdgeStartTimestamp\":1,\"RayID\":\"bar\"}");
+
+        assertThat(forwarded).containsExactly("/ foo", "/ bar");
+        assertThat(metrics.get(ForwarderMetrics.Counter.LINES_DEDUPLICATED)).isEqualTo(2);
+    }
+
+    @Test
+    void deduplicatesOnKeysThatAreNotForwarded() {
+        var rerun = new TransformingLogForwarder(LogFilter.NONE, new CompactingLogTransformer(LogFormat.parse("ClientRequestURI", " ", "-")),
+                new Deduplicator(new BlockedBloomFilter(4096, 0.0001), true, stored::add, FORMAT), collecting(), metrics);
+
+        forward(rerun, line("foo", 1), line("foo", 1), line("foo", 2));
+
+        assertThat(forwarded).containsExactly("/", "/");
+    }
+
+    @Test
+    void alwaysForwardsLinesWithoutKeys() {
+        var rerun = deduplicating(new BlockedBloomFilter(4096, 0.0001), true);
+
+        forward(rerun, "{\"RayID\":\"foo\"}", "{\"RayID\":\"foo\"}", "{\"EdgeStartTimestamp\":1}", "{\"EdgeStartTimestamp\":1}",
+                "{\"RayID\":null,\"EdgeStartTimestamp\":1}", "{\"RayID\":null,\"EdgeStartTimestamp\":1}");
+        byte[] cutOffInKeys = line("foo", 1).getBytes(StandardCharsets.UTF_8);
+        rerun.acceptTruncated(cutOffInKeys, 0, cutOffInKeys.length - 20);
+        rerun.acceptTruncated(cutOffInKeys, 0, cutOffInKeys.length - 20);
+
+        assertThat(forwarded).hasSize(8);
+    }
+
+    @Test
+    void deduplicatesTruncatedLinesWithWholeKeys() {
+        var rerun = deduplicating(new BlockedBloomFilter(4096, 0.0001), true);
+
+        byte[] line = line("foo", 1).getBytes(StandardCharsets.UTF_8);
+        rerun.acceptTruncated(line, 0, line.length - 3);
+        rerun.acceptTruncated(line, 0, line.length - 3);
+
+        assertThat(forwarded).hasSize(1);
+    }
+
+    private LogForwarder deduplicating(BlockedBloomFilter shippedLines, boolean rerun) {
+        return deduplicating(LogFilter.NONE, shippedLines, rerun);
+    }
+
+    private LogForwarder deduplicating(LogFilter logFilter, BlockedBloomFilter shippedLines, boolean rerun) {
+        return new TransformingLogForwarder(logFilter, new CompactingLogTransformer(FORMAT),
+                new Deduplicator(shippedLines, rerun, stored::add, FORMAT), collecting(), metrics);
+    }
+
+    private LogForwarder collecting() {
+        return new LogForwarder() {
+            @Override
+            public void accept(byte[] line, int offset, int length) {
+                forwarded.add(new String(line, offset, length, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+    }
+
+    private static void forward(LogForwarder logForwarder, String... lines) {
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            logForwarder.accept(bytes, 0, bytes.length);
+        }
+        logForwarder.flush();
+    }
+
+    private static String line(String rayId, long startTimestamp) {
+        return "{\"ClientRequestURI\":\"/\",\"EdgeStartTimestamp\":\"" + startTimestamp + "\",\"RayID\":\"" + rayId + "\",\"ZoneID\":1}";
+    }
+}
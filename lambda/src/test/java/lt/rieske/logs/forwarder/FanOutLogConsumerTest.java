@@ -0,0 +1,178 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FanOutLogConsumerTest {
+
+    private final LogBatchPool batchPool = new LogBatchPool(64);
+    private final PendingBatches pendingBatches = new PendingBatches();
+
+    @Test
+    void sharesBatchWithEveryConsumerAndReturnsItToPoolOnceAllReleasedIt() {
+        var first = new RecordingConsumer(true);
+        var second = new RecordingConsumer(true);
+        var batch = batch("foo");
+
+        FanOutLogConsumer.of(List.of(first, second)).accept(batch);
+
+        assertThat(first.batches).containsExactly(batch);
+        assertThat(second.batches).containsExactly(batch);
+        first.releaseAll();
+        assertThat(batchPool.acquire()).isNotSameAs(batch);
+        second.releaseAll();
+        assertThat(batchPool.acquire()).isSameAs(batch);
+        assertThat(pendingBatches.awaitReleased()).isEqualTo(Delivery.DELIVERED);
+    }
+
+    @Test
+    void batchIsUndeliveredUnlessEveryConsumerDeliveredIt() {
+        var delivering = new RecordingConsumer(true);
+        var failing = new RecordingConsumer(false);
+
+        FanOutLogConsumer.of(List.of(delivering, failing)).accept(batch("foo"));
+        delivering.releaseAll();
+        failing.releaseAll();
+
+        assertThat(pendingBatches.awaitReleased()).isEqualTo(Delivery.FAILED);
+    }
+
+    @Test
+    void batchIsUnconfirmedIfSomeConsumerOnlySpilledIt() {
+        var delivering = new RecordingConsumer(true);
+        var spilling = new RecordingConsumer(true);
+
+        FanOutLogConsumer.of(List.of(delivering, spilling)).accept(batch("foo"));
+        delivering.releaseAll();
+        spilling.batches.getFirst().markSpilled();
+        spilling.batches.getFirst().release();
+
+        assertThat(pendingBatches.awaitReleased()).isEqualTo(Delivery.UNCONFIRMED);
+    }
+
+    @Test
+    void batchStillInFlightAtDeadlineIsUnconfirmed() {
+        var consumer = new RecordingConsumer(true);
+
+        consumer.accept(batch("foo"));
+
+        assertThat(pendingBatches.awaitReleased(System.nanoTime() + 1_000_000)).isEqualTo(Delivery.UNCONFIRMED);
+        consumer.releaseAll();
+        assertThat(pendingBatches.awaitReleased()).isEqualTo(Delivery.DELIVERED);
+    }
+
+    @Test
+    void givesEveryConsumerBufferOfItsOwnToEncodeBatchInto() {
+        var batch = batch("foo");
+        batch.share(1);
+
+        var firstBuffer = batch.encodingBuffer();
+        var secondBuffer = batch.encodingBuffer();
+
+        assertThat(firstBuffer).isNotSameAs(secondBuffer);
+    }
+
+    @Test
+    void releasesReferencesOfConsumersAfterOneRejectingBatch() {
+        var rejecting = new CloseableLogConsumer() {
+            @Override
+            public void accept(LogBatch batch) {
+                batch.release();
+                throw new IllegalStateException("rejected");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        var batch = batch("foo");
+
+        assertThatThrownBy(() -> FanOutLogConsumer.of(List.of(rejecting, new RecordingConsumer(true))).accept(batch))
+                .hasMessage("rejected");
+
+        assertThat(batchPool.acquire()).isSameAs(batch);
+        assertThat(pendingBatches.awaitReleased()).isEqualTo(Delivery.FAILED);
+    }
+
+    @Test
+    void flushesEveryConsumerAndThrowsFirstFailure() {
+        var failing = new RecordingConsumer(true) {
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("flush failed");
+            }
+        };
+        var flushed = new RecordingConsumer(true);
+
+        assertThatThrownBy(() -> FanOutLogConsumer.of(List.of(failing, flushed)).flush()).hasMessage("flush failed");
+
+        assertThat(flushed.flushes).isEqualTo(1);
+    }
+
+    @Test
+    void batchesLinesSeparatelyForDestinationsWithDifferentLimits() {
+        List<String> small = new ArrayList<>();
+        List<String> large = new ArrayList<>();
+        var forwarder = FanOutLogForwarder.of(List.of(new BatchingLogForwarder(1, small::add), new BatchingLogForwarder(2, large::add)));
+
+        forwarder.accept("foo");
+        forwarder.accept("bar");
+
+        assertThat(small).containsExactly("foo\n", "bar\n");
+        assertThat(large).containsExactly("foo\nbar\n");
+        assertThat(forwarder.awaitDelivered()).isEqualTo(Delivery.DELIVERED);
+    }
+
+    private LogBatch batch(String line) {
+        var batch = batchPool.acquire();
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        batch.append(bytes, 0, bytes.length);
+        batch.track(pendingBatches);
+        return batch;
+    }
+
+    private static class RecordingConsumer implements CloseableLogConsumer {
+        private final boolean delivers;
+        private final List<LogBatch> batches = new ArrayList<>();
+        private int flushes;
+
+        RecordingConsumer(boolean delivers) {
+            this.delivers = delivers;
+        }
+
+        @Override
+        public void accept(LogBatch batch) {
+            batches.add(batch);
+        }
+
+        void releaseAll() {
+            for (var batch : batches) {
+                if (delivers) {
+                    batch.markDelivered();
+                }
+                batch.release();
+            }
+            batches.clear();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FieldMatcherTest {
+
+    @Test
+    void matchesEveryFieldToItsIndex() {
+        var matcher = new FieldMatcher(LogFormat.DEFAULT_FIELDS);
+
+        for (int i = 0; i < LogFormat.DEFAULT_FIELDS.size(); i++) {
+            assertThat(fieldOf(matcher, LogFormat.DEFAULT_FIELDS.get(i))).isEqualTo(i);
+        }
+    }
+
+    @Test
+    void doesNotMatchOtherKeys() {
+        var matcher = new FieldMatcher(LogFormat.DEFAULT_FIELDS);
+
+        assertThat(fieldOf(matcher, "ClientRequestBytes")).isEqualTo(-1);
+        assertThat(fieldOf(matcher, "ClientRequestMethoD")).isEqualTo(-1);
+        assertThat(fieldOf(matcher, "RayId")).isEqualTo(-1);
+        assertThat(fieldOf(matcher, "")).isEqualTo(-1);
+    }
+
+    @Test
+    void matchesFieldsThatDifferOnlyInTheMiddle() {
+        List<String> fields = new ArrayList<>();
+        for (char c = 'a'; c <= 'z'; c++) {
+            fields.add("Prefix" + c + c + "Suffix");
+            fields.add("Prefix" + c + "Suffix");
+        }
+        var matcher = new FieldMatcher(fields);
+
+        for (int i = 0; i < fields.size(); i++) {
+            assertThat(fieldOf(matcher, fields.get(i))).isEqualTo(i);
+        }
+        assertThat(fieldOf(matcher, "PrefixabSuffix")).isEqualTo(-1);
+    }
+
+    @Test
+    void rejectsDuplicateFields() {
+        assertThatThrownBy(() -> new FieldMatcher(List.of("RayID", "ClientIP", "RayID")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static int fieldOf(FieldMatcher matcher, String key) {
+        byte[] padded = ("{\"" + key + "\"").getBytes(StandardCharsets.UTF_8);
+        return matcher.fieldOf(padded, 2, padded.length - 3);
+    }
+}
@@ -0,0 +1,85 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ForwarderMetricsTest {
+
+    private final ForwarderMetrics metrics = new ForwarderMetrics();
+
+    @Test
+    void rendersEmbeddedMetricFormatRecord() {
+        metrics.add(ForwarderMetrics.Counter.LINES_PARSED, 40);
+        metrics.add(ForwarderMetrics.Counter.LINES_PARSED, 2);
+        metrics.add(ForwarderMetrics.Counter.DOWNLOAD_NANOS, TimeUnit.MILLISECONDS.toNanos(1500));
+        metrics.recordHttpRequest(1024, TimeUnit.MILLISECONDS.toNanos(20));
+
+        String record = metrics.emfRecordAndReset("forwarder", 1700000000000L);
+
+        assertThat(record)
+                .startsWith("{\"_aws\":{\"Timestamp\":1700000000000,\"CloudWatchMetrics\":[{\"Namespace\":\"CloudflareLogsForwarder\",\"Dimensions\":[[\"FunctionName\"]],\"Metrics\":[")
+                .contains("{\"Name\":\"LinesParsed\",\"Unit\":\"Count\"}", "{\"Name\":\"HttpLatencyP99\",\"Unit\":\"Milliseconds\"}")
+                .contains("\"FunctionName\":\"forwarder\"", "\"LinesParsed\":42,", "\"DownloadTime\":1500,", "\"BatchesSent\":1,", "\"BytesSent\":1024,",
+                        "\"HttpTime\":20,", "\"HttpLatencyMax\":20}")
+                .doesNotContain("\n");
+    }
+
+    @Test
+    void rendersGaugesInRecordPerDestination() {
+        metrics.gauge(ForwarderMetrics.Gauge.BATCH_SIZE, "1", () -> 500);
+        metrics.gauge(ForwarderMetrics.Gauge.IN_FLIGHT_BATCHES, "1", () -> 4);
+        metrics.gauge(ForwarderMetrics.Gauge.BATCH_SIZE, "2", () -> 100);
+        metrics.gauge(ForwarderMetrics.Gauge.IN_FLIGHT_BATCHES, "2", () -> 1);
+
+        String[] records = metrics.emfRecordAndReset("forwarder", 0).split("\n");
+
+        assertThat(records).hasSize(3);
+        assertThat(records[0]).doesNotContain("BatchSize\"", "InFlightBatches\"", "Destination");
+        assertThat(records[1])
+                .contains("\"Dimensions\":[[\"FunctionName\",\"Destination\"]]", "{\"Name\":\"BatchSize\",\"Unit\":\"Count\"}")
+                .endsWith(",\"FunctionName\":\"forwarder\",\"Destination\":\"1\",\"BatchSize\":500,\"InFlightBatches\":4}");
+        assertThat(records[2]).endsWith(",\"FunctionName\":\"forwarder\",\"Destination\":\"2\",\"BatchSize\":100,\"InFlightBatches\":1}");
+    }
+
+    @Test
+    void startsOverAfterRendering() {
+        metrics.add(ForwarderMetrics.Counter.LINES_PARSED, 42);
+        metrics.recordHttpRequest(1024, TimeUnit.MILLISECONDS.toNanos(20));
+
+        metrics.emfRecordAndReset("forwarder", 0);
+
+        assertThat(metrics.get(ForwarderMetrics.Counter.LINES_PARSED)).isZero();
+        assertThat(metrics.emfRecordAndReset("forwarder", 0)).contains("\"LinesParsed\":0,", "\"HttpLatencyP50\":0,", "\"HttpLatencyMax\":0}");
+    }
+
+    @Test
+    void histogramPercentilesAreWithinBucketPrecision() {
+        var histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        var snapshot = histogram.snapshotAndReset();
+
+        assertThat(snapshot.count()).isEqualTo(1000);
+        assertThat(snapshot.maxMicros()).isEqualTo(1_000_000);
+        assertThat(snapshot.percentileMicros(50)).isBetween(500_000L, 520_000L);
+        assertThat(snapshot.percentileMicros(99)).isBetween(990_000L, 1_000_000L);
+        assertThat(snapshot.percentileMicros(100)).isEqualTo(1_000_000);
+    }
+
+    @Test
+    void everyLatencyFallsIntoBucketCoveringIt() {
+        for (long micros : new long[]{0, 1, 31, 32, 63, 64, 65, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(micros);
+
+            assertThat(LatencyHistogram.bucketUpperBound(bucket)).isGreaterThanOrEqualTo(micros);
+            if (bucket > 0) {
+                assertThat(LatencyHistogram.bucketUpperBound(bucket - 1)).isLessThan(micros);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GzipCompressorTest {
+
+    private final GzipCompressor compressor = new GzipCompressor(Deflater.BEST_SPEED);
+
+    @Test
+    void producesGzipReadableByStandardDecoder() throws IOException {
+        byte[] input = "GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        var out = new ByteArrayBuilder(16);
+
+        compressor.compress(input, 0, input.length, out);
+
+        assertThat(out.length()).isLessThan(input.length / 10);
+        assertThat(gunzip(out)).isEqualTo(input);
+    }
+
+    @Test
+    void compressesIncompressibleInputLargerThanOutputBuffer() throws IOException {
+        byte[] input = new byte[100_000];
+        new Random(42).nextBytes(input);
+        var out = new ByteArrayBuilder(16);
+
+        compressor.compress(input, 0, input.length, out);
+
+        assertThat(gunzip(out)).isEqualTo(input);
+    }
+
+    @Test
+    void reusesCompressorForSubsequentPayloads() throws IOException {
+        byte[] input = "foo bar\nfizz buzz\n".getBytes(StandardCharsets.UTF_8);
+        var out = new ByteArrayBuilder(16);
+
+        for (int i = 0; i < 3; i++) {
+            out.setLength(0);
+            compressor.compress(input, 4, input.length - 4, out);
+
+            assertThat(new String(gunzip(out), StandardCharsets.UTF_8)).isEqualTo("bar\nfizz buzz\n");
+        }
+    }
+
+    private static byte[] gunzip(ByteArrayBuilder compressed) throws IOException {
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(compressed.array(), 0, compressed.length()))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LineReaderTest {
+
+    @Test
+    void splitsLinesOnNewlines() throws IOException {
+        assertThat(readLines("foo\nbar\nbaz\n", 1024)).containsExactly("foo", "bar", "baz");
+    }
+
+    @Test
+    void emitsLastLineWithoutTrailingNewline() throws IOException {
+        assertThat(readLines("foo\nbar", 1024)).containsExactly("foo", "bar");
+    }
+
+    @Test
+    void stripsCarriageReturns() throws IOException {
+        assertThat(readLines("foo\r\nbar\r\n", 1024)).containsExactly("foo", "bar");
+    }
+
+    @Test
+    void emitsEmptyLines() throws IOException {
+        assertThat(readLines("\nfoo\n\n", 1024)).containsExactly("", "foo", "");
+    }
+
+    @Test
+    void readsLinesSpanningBufferBoundaries() throws IOException {
+        assertThat(readLines("foo\nbarbazfizzbuzz\nbanana\nś\n", 4))
+                .containsExactly("foo", "barbazfizzbuzz", "banana", "ś");
+    }
+
+    @Test
+    void truncatesOversizedLinesWithoutBufferingThem() throws IOException {
+        var lines = new ArrayList<String>();
+        var lineEnds = new ArrayList<Long>();
+        var lineReader = new LineReader(4, 6, OversizedLines.TRUNCATE);
+        lineReader.forEachLine(new ByteArrayInputStream("foo\nbarbazfizzbuzz\nbanana\nbananas\nkiwi".getBytes(StandardCharsets.UTF_8)), new LineConsumer() {
+            @Override
+            public void accept(byte[] line, int offset, int length) {
+                lines.add(new String(line, offset, length, StandardCharsets.UTF_8));
+                lineEnds.add(lineReader.lineEnd());
+            }
+
+            @Override
+            public void acceptTruncated(byte[] line, int offset, int length) {
+                lines.add(new String(line, offset, length, StandardCharsets.UTF_8) + "...");
+                lineEnds.add(lineReader.lineEnd());
+            }
+        });
+
+        assertThat(lines).containsExactly("foo", "barbaz...", "banana", "banana...", "kiwi");
+        assertThat(lineEnds).containsExactly(4L, 19L, 26L, 34L, 38L);
+        assertThat(lineReader.oversizedLineCount()).isEqualTo(2);
+    }
+
+    @Test
+    void dropsOversizedLinesAsEmptyLines() throws IOException {
+        var lines = new ArrayList<String>();
+        var lineReader = new LineReader(4, 6, OversizedLines.DROP);
+        lineReader.forEachLine(new ByteArrayInputStream("foo\nbarbazfizzbuzz\nbanana\nbarbazfizzbuzz".getBytes(StandardCharsets.UTF_8)),
+                (line, offset, length) -> lines.add(new String(line, offset, length, StandardCharsets.UTF_8)));
+
+        assertThat(lines).containsExactly("foo", "", "banana", "");
+        assertThat(lineReader.oversizedLineCount()).isEqualTo(2);
+    }
+
+    private static List<String> readLines(String content, int bufferSize) throws IOException {
+        List<String> lines = new ArrayList<>();
+        new LineReader(bufferSize).forEachLine(
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)),
+                (line, offset, length) -> lines.add(new String(line, offset, length, StandardCharsets.UTF_8)));
+        return lines;
+    }
+}
@@ -0,0 +1,64 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LogFilterTest {
+
+    private final LogFilter filter = LogFilter.parse(1, "/health, /ping", ".css,.PNG", "bot,Spider");
+
+    @Test
+    void dropsHealthChecksCachedStaticAssetsAndBots() {
+        assertThat(decide(filter, line(200, "/health/live", "miss", "curl"))).isEqualTo(LogFilter.Decision.DROP);
+        assertThat(decide(filter, line(200, "/assets/logo.png?v=2", "hit", "curl"))).isEqualTo(LogFilter.Decision.DROP);
+        assertThat(decide(filter, line(200, "/assets/logo.png", "miss", "curl"))).isEqualTo(LogFilter.Decision.KEEP);
+        assertThat(decide(filter, line(200, "/assets/logo.png.html", "hit", "curl"))).isEqualTo(LogFilter.Decision.KEEP);
+        assertThat(decide(filter, line(200, "/", "hit", "Mozilla/5.0 (compatible; Googlebot/2.1)"))).isEqualTo(LogFilter.Decision.DROP);
+        assertThat(decide(filter, line(200, "/", "hit", "Mozilla/5.0"))).isEqualTo(LogFilter.Decision.KEEP);
+    }
+
+    @Test
+    void keepsEveryErrorResponse() {
+        assertThat(decide(filter, line(404, "/health", "hit", "bot"))).isEqualTo(LogFilter.Decision.KEEP);
+        assertThat(decide(filter, line(503, "/style.css", "hit", "bot"))).isEqualTo(LogFilter.Decision.KEEP);
+    }
+
+    @Test
+    void ignoresKeysInsideStringValues() {
+        String line = "{\"ClientRequestUserAgent\":\"x\\\",\\\"ClientRequestURI\\\":\\\"/health\",\"ClientRequestURI\":\"/\",\"EdgeResponseStatus\":200}";
+
+        assertThat(decide(filter, line)).isEqualTo(LogFilter.Decision.KEEP);
+    }
+
+    @Test
+    void samplesSuccessfulResponsesByRayId() {
+        var sampling = new LogFilter(10, List.of(), List.of(), List.of());
+        int kept = 0;
+        for (int i = 0; i < 10_000; i++) {
+            String line = "{\"EdgeResponseStatus\":200,\"RayID\":\"" + Long.toHexString(0x7f3a1c2b4d5e0000L + i) + "\"}";
+            var decision = decide(sampling, line);
+            assertThat(decide(sampling, line)).isEqualTo(decision);
+            if (decision == LogFilter.Decision.KEEP) {
+                kept++;
+            }
+        }
+
+        assertThat(kept).isBetween(900, 1100);
+        assertThat(decide(sampling, "{\"EdgeResponseStatus\":500,\"RayID\":\"7f3a1c2b4d5e0001\"}")).isEqualTo(LogFilter.Decision.KEEP);
+        assertThat(decide(sampling, "{\"EdgeResponseStatus\":200}")).isEqualTo(LogFilter.Decision.KEEP);
+    }
+
+    private static LogFilter.Decision decide(LogFilter filter, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return filter.decide(bytes, 0, bytes.length);
+    }
+
+    private static String line(int status, String uri, String cacheStatus, String userAgent) {
+        return "{\"CacheCacheStatus\":\"" + cacheStatus + "\",\"ClientRequestURI\":\"" + uri + "\",\"ClientRequestUserAgent\":\"" + userAgent + "\"," +
+                "\"EdgeResponseStatus\":" + status + ",\"RayID\":\"7f3a1c2b4d5e6f70\"}";
+    }
+}
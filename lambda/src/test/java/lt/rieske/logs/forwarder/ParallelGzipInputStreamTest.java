@@ -0,0 +1,149 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ParallelGzipInputStreamTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    void inflatesSingleMember() throws IOException {
+        byte[] content = logLines(0, 20_000);
+
+        assertThat(inflate(gzip(content, Deflater.DEFAULT_COMPRESSION))).isEqualTo(content);
+    }
+
+    @Test
+    void inflatesMembersLargerThanMaxSegmentSize() throws IOException {
+        byte[] content = logLines(0, 50_000);
+
+        assertThat(inflate(gzip(content, Deflater.NO_COMPRESSION))).isEqualTo(content);
+    }
+
+    @Test
+    void inflatesConcatenatedMembers() throws IOException {
+        var gzipped = new ByteArrayOutputStream();
+        var content = new ByteArrayOutputStream();
+        for (int member = 0; member < 50; member++) {
+            byte[] memberContent = logLines(member * 500, 500);
+            content.writeBytes(memberContent);
+            gzipped.writeBytes(gzip(memberContent, Deflater.DEFAULT_COMPRESSION));
+        }
+
+        assertThat(inflate(gzipped.toByteArray())).isEqualTo(content.toByteArray());
+    }
+
+    @Test
+    void inflatesSegmentsLargerThanMaxInflatedSizeSequentially() throws IOException {
+        var gzipped = new ByteArrayOutputStream();
+        var content = new ByteArrayOutputStream();
+        for (int member = 0; member < 20; member++) {
+            byte[] memberContent = "GET foo.bar /foo/bar 127.0.0.1 LT 200 0\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+            content.writeBytes(memberContent);
+            gzipped.writeBytes(gzip(memberContent, Deflater.BEST_COMPRESSION));
+        }
+
+        assertThat(inflate(gzipped.toByteArray())).isEqualTo(content.toByteArray());
+    }
+
+    @Test
+    void inflatesMemberContainingBytesThatLookLikeMemberHeader() throws IOException {
+        // stored deflate blocks keep the content as is, so the fake header ends up in the compressed member
+        byte[] fakeHeader = {0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, 3};
+        var content = new ByteArrayOutputStream();
+        content.writeBytes(logLines(0, 200));
+        content.writeBytes(fakeHeader);
+        content.writeBytes(logLines(200, 200));
+        var gzipped = new ByteArrayOutputStream();
+        gzipped.writeBytes(gzip(content.toByteArray(), Deflater.NO_COMPRESSION));
+        gzipped.writeBytes(gzip(logLines(400, 200), Deflater.DEFAULT_COMPRESSION));
+        content.writeBytes(logLines(400, 200));
+
+        assertThat(inflate(gzipped.toByteArray())).isEqualTo(content.toByteArray());
+    }
+
+    @Test
+    void ignoresTrailingGarbage() throws IOException {
+        byte[] content = logLines(0, 100);
+        var gzipped = new ByteArrayOutputStream();
+        gzipped.writeBytes(gzip(content, Deflater.DEFAULT_COMPRESSION));
+        gzipped.writeBytes(new byte[]{0, 0, 0, 0});
+
+        assertThat(inflate(gzipped.toByteArray())).isEqualTo(content);
+    }
+
+    @Test
+    void failsOnCorruptMember() throws IOException {
+        byte[] gzipped = gzip(logLines(0, 100), Deflater.DEFAULT_COMPRESSION);
+        gzipped[gzipped.length - 5] ^= 1;
+
+        assertThatThrownBy(() -> inflate(gzipped))
+                .isInstanceOf(ZipException.class)
+                .hasMessage("Corrupt gzip trailer");
+    }
+
+    @Test
+    void failsOnTruncatedMember() throws IOException {
+        byte[] gzipped = gzip(logLines(0, 100), Deflater.DEFAULT_COMPRESSION);
+
+        assertThatThrownBy(() -> inflate(Arrays.copyOf(gzipped, gzipped.length / 2)))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Unexpected end of gzip member");
+    }
+
+    @Test
+    void failsOnNonGzipContent() {
+        assertThatThrownBy(() -> inflate("not gzip".getBytes(StandardCharsets.UTF_8)))
+                .isInstanceOf(ZipException.class)
+                .hasMessage("Not in gzip format");
+    }
+
+    private byte[] inflate(byte[] gzipped) throws IOException {
+        try (InputStream in = new ParallelGzipInputStream(new ByteArrayInputStream(gzipped), executor, SEGMENT_SIZE, 3)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] logLines(int first, int count) {
+        var lines = new StringBuilder();
+        for (int i = first; i < first + count; i++) {
+            lines.append("GET foo.bar /foo/bar/").append(i).append(" 127.0.0.1 LT 200 ").append(i * 31 % 1000).append('\n');
+        }
+        return lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] content, int level) throws IOException {
+        var gzipped = new ByteArrayOutputStream();
+        try (var out = new GZIPOutputStream(gzipped) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            out.write(content);
+        }
+        return gzipped.toByteArray();
+    }
+}
@@ -0,0 +1,71 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReadAheadInputStreamTest {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Test
+    void readsWholeSourceAcrossChunks() throws IOException {
+        byte[] content = new byte[100_000];
+        new Random(42).nextBytes(content);
+
+        try (var stream = new ReadAheadInputStream(new ByteArrayInputStream(content), executor, 1000, 3)) {
+            assertThat(stream.readAllBytes()).isEqualTo(content);
+            assertThat(stream.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void propagatesSourceFailure() {
+        var source = new InputStream() {
+            private int remaining = 5000;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- == 0) {
+                    throw new IOException("broken source");
+                }
+                return 1;
+            }
+        };
+
+        var stream = new ReadAheadInputStream(source, executor, 1000, 2);
+
+        assertThatThrownBy(stream::readAllBytes).isInstanceOf(IOException.class).hasMessage("broken source");
+    }
+
+    @Test
+    void closesSourceWhenClosedBeforeFullyRead() throws IOException {
+        var sourceClosed = new AtomicBoolean(false);
+        var endlessSource = new InputStream() {
+            @Override
+            public int read() {
+                return 1;
+            }
+
+            @Override
+            public void close() {
+                sourceClosed.set(true);
+            }
+        };
+
+        var stream = new ReadAheadInputStream(endlessSource, executor, 100, 2);
+        assertThat(stream.readNBytes(1000)).hasSize(1000);
+        stream.close();
+
+        assertThat(sourceClosed.get()).isTrue();
+    }
+}
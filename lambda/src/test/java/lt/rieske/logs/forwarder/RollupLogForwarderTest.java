@@ -0,0 +1,118 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RollupLogForwarderTest {
+
+    private final List<String> records = new ArrayList<>();
+    private final ForwarderMetrics metrics = new ForwarderMetrics();
+    private final RollupAggregator rollups = new RollupAggregator(LogFormat.DEFAULT, OutputEncoding.TEXT, () -> new LogForwarder() {
+        @Override
+        public void accept(byte[] line, int offset, int length) {
+            records.add(new String(line, offset, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void flush() {
+        }
+    }, metrics);
+
+    @Test
+    void rollsUpLogLinesPerMinuteHostStatusCountryAndCacheStatus() {
+        var forwarder = new RollupLogForwarder(rollups, metrics);
+
+        forwarder.accept(line("a.com", 200, 100, 1700000000000000000L, 1700000000000010000L));
+        forwarder.accept(line("a.com", 200, 50, 1700000001000000000L, 1700000001000030000L));
+        forwarder.accept(line("a.com", 503, 10, 1700000002000000000L, 1700000003000000000L));
+        forwarder.accept(line("a.com", 200, 7, 1700000060000000000L, 1700000060000020000L));
+        forwarder.accept("{\"RayID\":\"foobar\"}");
+        forwarder.flush();
+        rollups.writeOut();
+
+        assertThat(records).containsExactlyInAnyOrder(
+                "2023-11-14T22:13:00Z a.com 200 lt hit 2 150 0 0.01 0.03 0.03 0.03",
+                "2023-11-14T22:13:00Z a.com 503 lt hit 1 10 1 1000 1000 1000 1000",
+                "2023-11-14T22:14:00Z a.com 200 lt hit 1 7 0 0.02 0.02 0.02 0.02",
+                "null null null null null 1 0 0 null null null null");
+        assertThat(metrics.get(ForwarderMetrics.Counter.LINES_AGGREGATED)).isEqualTo(5);
+        assertThat(metrics.get(ForwarderMetrics.Counter.ROLLUP_RECORDS)).isEqualTo(4);
+    }
+
+    @Test
+    void mergesRollupsOfFilesUntilWrittenOut() {
+        var firstFile = new RollupLogForwarder(rollups, metrics);
+        var secondFile = new RollupLogForwarder(rollups, metrics);
+
+        firstFile.accept("{\"ClientRequestHost\":\"a.com\",\"EdgeStartTimestamp\":\"2023-11-14T22:13:20Z\",\"EdgeEndTimestamp\":\"2023-11-14T22:13:21Z\"}");
+        secondFile.accept("{\"ClientRequestHost\":\"a.com\",\"EdgeStartTimestamp\":\"2023-11-14T23:13:40+01:00\",\"EdgeEndTimestamp\":\"2023-11-14T23:13:43+01:00\"}");
+        firstFile.flush();
+        secondFile.flush();
+        rollups.writeOut();
+        rollups.writeOut();
+
+        // the median is the upper bound of the sketch bucket of 1000ms
+        assertThat(records).containsExactly("2023-11-14T22:13:00Z a.com null null null 2 0 0 1015.807 3000 3000 3000");
+    }
+
+    @Test
+    void writesOutRollupsOfCheckpointedFileAlone() {
+        var checkpointedFile = new RollupLogForwarder(rollups, metrics);
+        var otherFile = new RollupLogForwarder(rollups, metrics);
+
+        checkpointedFile.accept(line("a.com", 200, 100, 1700000000000000000L, 1700000000000010000L));
+        otherFile.accept(line("b.com", 200, 100, 1700000000000000000L, 1700000000000010000L));
+        checkpointedFile.flush();
+        otherFile.flush();
+
+        assertThat(checkpointedFile.awaitDelivered()).isEqualTo(Delivery.DELIVERED);
+        assertThat(records).containsExactly("2023-11-14T22:13:00Z a.com 200 lt hit 1 100 0 0.01 0.01 0.01 0.01");
+        rollups.writeOut();
+        assertThat(records).hasSize(2);
+        assertThat(records.getLast()).startsWith("2023-11-14T22:13:00Z b.com ");
+    }
+
+    @Test
+    void passesLogLinesOnWhenRollingUpAlongside() {
+        List<String> lines = new ArrayList<>();
+        var forwarder = new RollupLogForwarder(rollups, new LogForwarder() {
+            @Override
+            public void accept(byte[] line, int offset, int length) {
+                lines.add(new String(line, offset, length, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, metrics);
+
+        forwarder.accept(line("a.com", 200, 100, 1700000000000000000L, 1700000000000010000L));
+        forwarder.flush();
+
+        assertThat(lines).hasSize(1);
+        assertThat(forwarder.awaitDelivered()).isEqualTo(Delivery.DELIVERED);
+        assertThat(records).hasSize(1);
+    }
+
+    @Test
+    void parsesRfc3339Timestamps() {
+        for (String timestamp : List.of("2023-11-14T22:13:20Z", "2023-11-14T22:13:20.123456789Z", "2023-11-14T22:13:20.5+02:00", "1969-12-31T23:59:59-00:30")) {
+            byte[] bytes = timestamp.getBytes(StandardCharsets.US_ASCII);
+            var instant = Instant.parse(timestamp);
+
+            assertThat(RollupLogForwarder.rfc3339EpochNanos(bytes, 0, bytes.length))
+                    .isEqualTo(instant.getEpochSecond() * 1_000_000_000 + instant.getNano());
+        }
+    }
+
+    private static String line(String host, int status, long responseBytes, long startNanos, long endNanos) {
+        return "{\"ClientRequestHost\":\"" + host + "\",\"EdgeResponseStatus\":" + status + ",\"ClientCountry\":\"lt\",\"CacheCacheStatus\":\"hit\"," +
+                "\"EdgeResponseBytes\":" + responseBytes + ",\"EdgeStartTimestamp\":" + startNanos + ",\"EdgeEndTimestamp\":" + endNanos + ",\"RayID\":\"foobar\"}";
+    }
+}
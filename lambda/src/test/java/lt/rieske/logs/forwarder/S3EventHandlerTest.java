@@ -4,14 +4,23 @@ import com.adobe.testing.s3mock.junit5.S3MockExtension;
 import com.amazonaws.services.lambda.runtime.events.S3Event;
 import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
 import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
 import com.github.tomakehurst.wiremock.http.RequestListener;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -26,6 +35,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 
 @ExtendWith(S3MockExtension.class)
@@ -36,6 +46,9 @@ class S3EventHandlerTest {
 
     private static final Path RESOURCES_DIR = Path.of("src/test/resources");
 
+    @TempDir
+    Path spillDirectory;
+
     @Test
     void consumesAllLogLinesFromS3(S3Client s3) {
         List<String> logs = new ArrayList<>();
@@ -54,7 +67,7 @@ class S3EventHandlerTest {
     @Test
     void transformsAndForwardsLogLinesFormS3(S3Client s3) {
         withLogConsumingHttpServer(endpoint -> {
-            var eventHandler = new S3EventHandler(s3, endpoint, "credentials", 100);
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(100));
 
             eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
         }).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
@@ -65,7 +78,7 @@ class S3EventHandlerTest {
     @Test
     void transformsAndForwardsLogLinesFormS3InTwoBatches(S3Client s3) {
         withLogConsumingHttpServer(endpoint -> {
-            var eventHandler = new S3EventHandler(s3, endpoint, "credentials", 2);
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(2));
 
             eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
         }).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
@@ -73,13 +86,304 @@ class S3EventHandlerTest {
         ).assertLogBodySent("POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n");
     }
 
+    @Test
+    void transformsAndForwardsLogLinesFromMultipleS3ObjectsConcurrently(S3Client s3) {
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(2).parallelism(3));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG, 5), null);
+        }).assertLogBodySent(5, "GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n"
+        ).assertLogBodySent(5, "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n");
+    }
+
+    @Test
+    void transformsAndForwardsLogLinesFromS3ObjectDownloadedInParts(S3Client s3) {
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).downloadPartSize(16).downloadConcurrency(3));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n" +
+                "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n");
+    }
+
+    @Test
+    void forwardsGzipCompressedLogBatches(S3Client s3) {
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(2).compression(PayloadCompression.GZIP));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n"
+        ).assertLogBodySent("POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n"
+        ).assertContentEncoding(2, "gzip");
+    }
+
+    @Test
+    void forwardsLogLinesToEveryDestinationInItsOwnBatches(S3Client s3) {
+        withLogConsumingHttpServer(firstEndpoint -> withLogConsumingHttpServer(secondEndpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(firstEndpoint).batchSize(2)
+                    .additionalDestination(new HttpDestination(secondEndpoint, "credentials", new BatchLimits(100, 1024 * 1024, Duration.ofSeconds(1)), PayloadCompression.GZIP, 1,
+                            Duration.ofSeconds(5), RetryPolicy.noRetries())));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n" +
+                "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n"
+        ).assertContentEncoding(1, "gzip")
+        ).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n"
+        ).assertLogBodySent("POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n");
+    }
+
+    @Test
+    void filtersLogLinesBeforeTransformingThem(S3Client s3) {
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).logFilter(LogFilter.parse(1, "/fizz", "", "")));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n");
+    }
+
+    @Test
+    void forwardsPerMinuteRollupsInsteadOfLogLines(S3Client s3) {
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(1).rollupMode(RollupMode.ONLY));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertLogBodySent("1970-01-01T00:00:00Z foo.bar 200 LT cache1 1 42 0 1000 1000 1000 1000\n"
+        ).assertLogBodySent("1970-01-01T00:00:00Z fizz.buzz 201 PL cache2 1 11 0 1000 1000 1000 1000\n"
+        ).assertLogBodySent("1970-01-01T00:00:00Z banana.potato 201 DE cache3 1 11 0 1000 1000 1000 1000\n"
+        ).assertNumberOfBatchesSent(3);
+    }
+
+    @Test
+    void retriesLogBatchesFailedByLogConsumer(S3Client s3) {
+        withLogConsumingHttpServer(List.of(503, 500), endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).retryBaseDelay(Duration.ofMillis(1)));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertLogBodySent(3, "GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n" +
+                "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n"
+        ).assertNumberOfBatchesSent(3);
+    }
+
+    @Test
+    void retriesLogBatchesStalledByLogConsumer(S3Client s3) {
+        withLogConsumingHttpServerResponding(List.of(aResponse().withStatus(200).withFixedDelay(2000)), endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).httpTimeout(Duration.ofMillis(200)).retryBaseDelay(Duration.ofMillis(1)));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertNumberOfBatchesSent(2);
+    }
+
+    @Test
+    void spillsLogBatchesOutOfRetriesAndSendsThemOnNextInvocation(S3Client s3) {
+        withLogConsumingHttpServer(503, endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).maxRetries(1).retryBaseDelay(Duration.ofMillis(1)));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertNumberOfBatchesSent(3); // two attempts and another one to send the spilled batch at the end of the invocation
+
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertLogBodySent(2, "GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n" +
+                "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n"
+        ).assertNumberOfBatchesSent(2);
+    }
+
+    @Test
+    void doesNotMarkLogFileForwardedWhileItsLinesAreOnlySpilled(S3Client s3) {
+        var event = logsUploadedEvent(s3, SMALL_LOG);
+        String bucket = event.getRecords().getFirst().getS3().getBucket().getName();
+        var checkpoints = new S3CheckpointStore(s3);
+        var checkpoint = new Checkpoint(eTag(s3, bucket, SMALL_LOG), 0, 0, false);
+        checkpoints.save(bucket, SMALL_LOG, checkpoint);
+
+        withLogConsumingHttpServer(503, endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).checkpointing(true).maxRetries(0));
+
+            eventHandler.handleRequest(event, null);
+        });
+
+        assertThat(checkpoints.load(bucket, SMALL_LOG)).isEqualTo(checkpoint);
+    }
+
+    @Test
+    void resumesLogFileFromCheckpointAndMarksItForwarded(S3Client s3) {
+        var event = logsUploadedEvent(s3, SMALL_LOG);
+        String bucket = event.getRecords().getFirst().getS3().getBucket().getName();
+        var checkpoints = new S3CheckpointStore(s3);
+        checkpoints.save(bucket, SMALL_LOG, new Checkpoint(eTag(s3, bucket, SMALL_LOG), 0, 2, false));
+
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).checkpointing(true).batchSize(100));
+
+            eventHandler.handleRequest(event, null);
+        }).assertLogBodySent("POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n")
+                .assertNumberOfBatchesSent(1);
+
+        assertThat(checkpoints.load(bucket, SMALL_LOG).completed()).isTrue();
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).checkpointing(true).batchSize(100));
+
+            eventHandler.handleRequest(event, null);
+        }).assertNumberOfBatchesSent(0);
+    }
+
+    @Test
+    void ignoresCheckpointsUnlessCheckpointing(S3Client s3) {
+        var event = logsUploadedEvent(s3, SMALL_LOG);
+        String bucket = event.getRecords().getFirst().getS3().getBucket().getName();
+        new S3CheckpointStore(s3).save(bucket, SMALL_LOG, new Checkpoint(eTag(s3, bucket, SMALL_LOG), 0, 2, true));
+
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(100));
+
+            eventHandler.handleRequest(event, null);
+        }).assertNumberOfBatchesSent(1);
+    }
+
+    @Test
+    void forwardsLogFileFromStartWhenItChangedSinceCheckpoint(S3Client s3) {
+        var event = logsUploadedEvent(s3, SMALL_LOG);
+        String bucket = event.getRecords().getFirst().getS3().getBucket().getName();
+        new S3CheckpointStore(s3).save(bucket, SMALL_LOG, new Checkpoint("\"stale\"", 0, 2, false));
+
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(100));
+
+            eventHandler.handleRequest(event, null);
+        }).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n" +
+                "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n"
+        );
+    }
+
+    @Test
+    void forwardsLogFileFromStartWhenItChangedSinceMarkedForwarded(S3Client s3) {
+        var event = logsUploadedEvent(s3, SMALL_LOG);
+        String bucket = event.getRecords().getFirst().getS3().getBucket().getName();
+        new S3CheckpointStore(s3).save(bucket, SMALL_LOG, new Checkpoint("\"stale\"", 0, 3, true));
+
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(100));
+
+            eventHandler.handleRequest(event, null);
+        }).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n" +
+                "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n"
+        );
+    }
+
+    @Test
+    void failsWhenLogConsumerRejectsLogs(S3Client s3) {
+        withLogConsumingHttpServer(400, endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(1).maxInFlightBatches(2));
+
+            assertThatThrownBy(() -> eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null))
+                    .isInstanceOf(UncheckedIOException.class)
+                    .hasMessageContaining("Error consuming logs");
+        });
+    }
+
+    @Test
+    void reusesLogConsumerAcrossWarmInvocations(S3Client s3) {
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(100));
+
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertNumberOfBatchesSent(2);
+    }
+
+    @Test
+    void recoversFromFailedInvocationOnNextWarmInvocation(S3Client s3) {
+        withLogConsumingHttpServer(List.of(400), endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(100));
+
+            assertThatThrownBy(() -> eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null))
+                    .isInstanceOf(UncheckedIOException.class);
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        }).assertNumberOfBatchesSent(2);
+    }
+
+    @Test
+    void recoversFromLogBatchRejectedMidFileOnNextWarmInvocation(S3Client s3) {
+        withLogConsumingHttpServer(List.of(200, 400), endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(1).maxInFlightBatches(1).parallelism(1));
+
+            // more batches than the queue holds, so that the rejection fails a file as it hands over its batches
+            assertThatThrownBy(() -> eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG, 10), null))
+                    .isInstanceOf(UncheckedIOException.class)
+                    .hasMessageContaining("Error consuming logs");
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+            eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+        });
+    }
+
+    @Test
+    void skipsLogLinesShippedByEarlierRunOfSameEvent(S3Client s3) {
+        var event = logsUploadedEvent(s3, SMALL_LOG);
+
+        withLogConsumingHttpServer(endpoint -> {
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).deduplication(true).dedupFilterBytes(4096));
+
+            eventHandler.handleRequest(event, null);
+            eventHandler.handleRequest(event, null);
+        }).assertLogBodySent("GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\n" +
+                "PATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n" +
+                "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n"
+        ).assertNumberOfBatchesSent(1);
+    }
+
+    @Test
+    void writesLogBatchesOfInvocationToS3AsOneObjectInConfiguredEncoding(S3Client s3) throws IOException {
+        String outputBucket = "test-forwarded-logs-" + UUID.randomUUID();
+        s3.createBucket(CreateBucketRequest.builder().bucket(outputBucket).build());
+        var eventHandler = new S3EventHandler(s3, new ForwarderConfiguration(null, null).spillDirectory(spillDirectory)
+                .sink(LogSink.S3).s3Bucket(outputBucket).s3Prefix("cloudflare/")
+                .outputEncoding(OutputEncoding.NDJSON).batchSize(2));
+
+        eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+
+        assertThat(s3Objects(s3, outputBucket, "cloudflare/", ".ndjson")).containsExactly(
+                "{\"ClientRequestMethod\":\"GET\",\"ClientRequestHost\":\"foo.bar\",\"ClientRequestURI\":\"/foo/bar\",\"ClientIP\":\"127.0.0.1\",\"ClientCountry\":\"LT\"," +
+                        "\"EdgeResponseStatus\":200,\"EdgeResponseBytes\":42,\"CacheCacheStatus\":\"cache1\",\"RayID\":\"foobar\",\"EdgeStartTimestamp\":1,\"EdgeEndTimestamp\":2}\n" +
+                        "{\"ClientRequestMethod\":\"PATCH\",\"ClientRequestHost\":\"fizz.buzz\",\"ClientRequestURI\":\"/fizz/buzz\",\"ClientIP\":\"127.0.0.2\",\"ClientCountry\":\"PL\"," +
+                        "\"EdgeResponseStatus\":201,\"EdgeResponseBytes\":11,\"CacheCacheStatus\":\"cache2\",\"RayID\":\"fizzbuzz\",\"EdgeStartTimestamp\":2,\"EdgeEndTimestamp\":3}\n" +
+                        "{\"ClientRequestMethod\":\"POST\",\"ClientRequestHost\":\"banana.potato\",\"ClientRequestURI\":\"/banana/potato\",\"ClientIP\":\"127.0.0.3\",\"ClientCountry\":\"DE\"," +
+                        "\"EdgeResponseStatus\":201,\"EdgeResponseBytes\":11,\"CacheCacheStatus\":\"cache3\",\"RayID\":\"bananapotato\",\"EdgeStartTimestamp\":2,\"EdgeEndTimestamp\":3}\n");
+    }
+
+    @Test
+    void startsNewS3ObjectOnceObjectIsFull(S3Client s3) throws IOException {
+        String outputBucket = "test-forwarded-logs-" + UUID.randomUUID();
+        s3.createBucket(CreateBucketRequest.builder().bucket(outputBucket).build());
+        var eventHandler = new S3EventHandler(s3, new ForwarderConfiguration(null, null).spillDirectory(spillDirectory)
+                .sink(LogSink.S3).s3Bucket(outputBucket).s3ObjectBytes(1)
+                .outputEncoding(OutputEncoding.TEXT).batchSize(2));
+
+        eventHandler.handleRequest(logsUploadedEvent(s3, SMALL_LOG), null);
+
+        assertThat(s3Objects(s3, outputBucket, "", ".txt")).containsExactlyInAnyOrder(
+                "GET foo.bar /foo/bar 127.0.0.1 LT 200 42 cache1 foobar 1 2 null\nPATCH fizz.buzz /fizz/buzz 127.0.0.2 PL 201 11 cache2 fizzbuzz 2 3 null\n",
+                "POST banana.potato /banana/potato 127.0.0.3 DE 201 11 cache3 bananapotato 2 3 null\n");
+    }
+
     @Test
     void transformsAndForwardsLargeLog(S3Client s3) {
         var bytesForwarded = new AtomicLong(0);
         RequestListener payloadSizeCounter = (request, response) -> bytesForwarded.addAndGet(request.getBody().length);
 
         withLogConsumingHttpServer(payloadSizeCounter, endpoint -> {
-            var eventHandler = new S3EventHandler(s3, endpoint, "credentials", 1000);
+            var eventHandler = new S3EventHandler(s3, configuration(endpoint).batchSize(1000));
 
             eventHandler.handleRequest(logsUploadedEvent(s3, LARGE_LOG), null);
         }).assertNumberOfBatchesSent(300);
@@ -87,16 +391,66 @@ class S3EventHandlerTest {
         System.out.println("Megabytes forwarded: " + bytesForwarded.get()/1024/1024);
     }
 
+    private static List<String> s3Objects(S3Client s3, String bucket, String prefix, String suffix) throws IOException {
+        List<String> objects = new ArrayList<>();
+        for (var object : s3.listObjectsV2(ListObjectsV2Request.builder().bucket(bucket).prefix(prefix).build()).contents()) {
+            assertThat(object.key()).endsWith(suffix);
+            try (var content = s3.getObject(GetObjectRequest.builder().bucket(bucket).key(object.key()).build())) {
+                objects.add(new String(content.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return objects;
+    }
+
+    // Spilled batches of one test must not be picked up by another, nor left behind in the shared temporary directory
+    private ForwarderConfiguration configuration(String endpoint) {
+        return new ForwarderConfiguration(endpoint, "credentials").spillDirectory(spillDirectory);
+    }
+
     private static LogDispatchAsserter withLogConsumingHttpServer(Consumer<String> test) {
         return withLogConsumingHttpServer((request, response) -> {}, test);
     }
 
+    private static LogDispatchAsserter withLogConsumingHttpServer(int responseStatus, Consumer<String> test) {
+        return withLogConsumingHttpServer(responseStatus, (request, response) -> {}, test);
+    }
+
     private static LogDispatchAsserter withLogConsumingHttpServer(RequestListener requestListener, Consumer<String> test) {
+        return withLogConsumingHttpServer(200, requestListener, test);
+    }
+
+    // Responds with the given statuses in turn, and with 200 afterwards
+    private static LogDispatchAsserter withLogConsumingHttpServer(List<Integer> failureStatuses, Consumer<String> test) {
+        return withLogConsumingHttpServerResponding(failureStatuses.stream().map(status -> aResponse().withStatus(status)).toList(), test);
+    }
+
+    // Responds with the given responses in turn, and with 200 afterwards
+    private static LogDispatchAsserter withLogConsumingHttpServerResponding(List<ResponseDefinitionBuilder> responses, Consumer<String> test) {
+        var server = new WireMockServer(options().dynamicPort());
+        try {
+            server.start();
+            for (int i = 0; i < responses.size(); i++) {
+                server.stubFor(post(urlPathEqualTo("/")).inScenario("failures")
+                        .whenScenarioStateIs(i == 0 ? Scenario.STARTED : "failure " + i)
+                        .willSetStateTo("failure " + (i + 1))
+                        .willReturn(responses.get(i)));
+            }
+            server.stubFor(post(urlPathEqualTo("/")).inScenario("failures")
+                    .whenScenarioStateIs("failure " + responses.size())
+                    .willReturn(aResponse().withStatus(200)));
+            test.accept(server.baseUrl());
+        } finally {
+            server.stop();
+        }
+        return new LogDispatchAsserter(server);
+    }
+
+    private static LogDispatchAsserter withLogConsumingHttpServer(int responseStatus, RequestListener requestListener, Consumer<String> test) {
         var server = new WireMockServer(options().dynamicPort());
         try {
             server.addMockServiceRequestListener(requestListener);
             server.start();
-            server.stubFor(post(urlPathEqualTo("/")).willReturn(aResponse().withStatus(200)));
+            server.stubFor(post(urlPathEqualTo("/")).willReturn(aResponse().withStatus(responseStatus)));
             test.accept(server.baseUrl());
         } finally {
             server.stop();
@@ -112,7 +466,16 @@ class S3EventHandlerTest {
         }
 
         LogDispatchAsserter assertLogBodySent(String body) {
-            server.verify(1, postRequestedFor(urlPathEqualTo("/")).withRequestBody(equalTo(body)));
+            return assertLogBodySent(1, body);
+        }
+
+        LogDispatchAsserter assertLogBodySent(int times, String body) {
+            server.verify(times, postRequestedFor(urlPathEqualTo("/")).withRequestBody(equalTo(body)));
+            return this;
+        }
+
+        LogDispatchAsserter assertContentEncoding(int batches, String contentEncoding) {
+            server.verify(batches, postRequestedFor(urlPathEqualTo("/")).withHeader("Content-Encoding", equalTo(contentEncoding)));
             return this;
         }
 
@@ -122,22 +485,38 @@ class S3EventHandlerTest {
         }
     }
 
+    private static String eTag(S3Client s3, String bucket, String key) {
+        try (var object = s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build())) {
+            return object.response().eTag();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private static S3Event logsUploadedEvent(S3Client s3, String key) {
+        return logsUploadedEvent(s3, key, 1);
+    }
+
+    private static S3Event logsUploadedEvent(S3Client s3, String resource, int objectCount) {
         String bucketName = "test-cloudflare-logs-" + UUID.randomUUID();
 
         s3.createBucket(CreateBucketRequest.builder().bucket(bucketName).build());
-        s3.putObject(PutObjectRequest.builder().bucket(bucketName).key(key).build(), RESOURCES_DIR.resolve(key));
-
-        var record = new S3EventNotification.S3EventNotificationRecord(
-                null, null, null, null,
-                null, null, null,
-                new S3EventNotification.S3Entity(
-                        null,
-                        new S3EventNotification.S3BucketEntity(bucketName, null, null),
-                        new S3EventNotification.S3ObjectEntity(key, null, null, null, null),
-                        null
-                ), null
-        );
-        return new S3Event(List.of(record));
+        List<S3EventNotification.S3EventNotificationRecord> records = new ArrayList<>();
+        for (int i = 0; i < objectCount; i++) {
+            String key = objectCount == 1 ? resource : i + "/" + resource;
+            s3.putObject(PutObjectRequest.builder().bucket(bucketName).key(key).build(), RESOURCES_DIR.resolve(resource));
+
+            records.add(new S3EventNotification.S3EventNotificationRecord(
+                    null, null, null, null,
+                    null, null, null,
+                    new S3EventNotification.S3Entity(
+                            null,
+                            new S3EventNotification.S3BucketEntity(bucketName, null, null),
+                            new S3EventNotification.S3ObjectEntity(key, null, null, null, null),
+                            null
+                    ), null
+            ));
+        }
+        return new S3Event(records);
     }
 }
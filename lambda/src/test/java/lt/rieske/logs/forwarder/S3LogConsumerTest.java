@@ -0,0 +1,114 @@
+package lt.rieske.logs.forwarder;
+
+import com.adobe.testing.s3mock.junit5.S3MockExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(S3MockExtension.class)
+class S3LogConsumerTest {
+
+    private static final int LINE_BYTES = 1024;
+
+    private final LogBatchPool batchPool = new LogBatchPool(64);
+    private final String bucket = "test-forwarded-logs-" + UUID.randomUUID();
+
+    @Test
+    void uploadsObjectLargerThanPartInParts(S3Client s3) throws IOException {
+        s3.createBucket(CreateBucketRequest.builder().bucket(bucket).build());
+        int lines = 3 * S3LogConsumer.MIN_PART_SIZE / LINE_BYTES;
+
+        try (var consumer = new S3LogConsumer(s3, bucket, "", OutputEncoding.TEXT, PayloadCompression.NONE, Long.MAX_VALUE, new ForwarderMetrics())) {
+            forward(consumer, lines);
+        }
+
+        var objects = objects(s3);
+        assertThat(objects).hasSize(1);
+        assertThat(new String(objects.getFirst(), StandardCharsets.UTF_8)).isEqualTo(lines(lines));
+    }
+
+    @Test
+    void writesGzippedBatchesAsMembersOfOneGzipObject(S3Client s3) throws IOException {
+        s3.createBucket(CreateBucketRequest.builder().bucket(bucket).build());
+
+        try (var consumer = new S3LogConsumer(s3, bucket, "", OutputEncoding.TEXT, PayloadCompression.GZIP, Long.MAX_VALUE, new ForwarderMetrics())) {
+            forward(consumer, 1000);
+        }
+
+        var objects = objects(s3);
+        assertThat(objects).hasSize(1);
+        try (var gunzipped = new GZIPInputStream(new ByteArrayInputStream(objects.getFirst()))) {
+            assertThat(new String(gunzipped.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(lines(1000));
+        }
+    }
+
+    @Test
+    void writesNothingWithoutBatches(S3Client s3) throws IOException {
+        s3.createBucket(CreateBucketRequest.builder().bucket(bucket).build());
+
+        try (var consumer = new S3LogConsumer(s3, bucket, "", OutputEncoding.TEXT, PayloadCompression.NONE, Long.MAX_VALUE, new ForwarderMetrics())) {
+            consumer.flush();
+        }
+
+        assertThat(objects(s3)).isEmpty();
+    }
+
+    // Ten lines a batch
+    private void forward(S3LogConsumer consumer, int lines) {
+        LogBatch batch = null;
+        for (int i = 0; i < lines; i++) {
+            if (batch == null) {
+                batch = batchPool.acquire();
+            }
+            byte[] line = line(i).getBytes(StandardCharsets.UTF_8);
+            batch.append(line, 0, line.length);
+            if (batch.lineCount() == 10) {
+                consumer.accept(batch);
+                batch = null;
+            }
+        }
+        if (batch != null) {
+            consumer.accept(batch);
+        }
+    }
+
+    private List<byte[]> objects(S3Client s3) throws IOException {
+        List<byte[]> objects = new ArrayList<>();
+        for (var object : s3.listObjectsV2(ListObjectsV2Request.builder().bucket(bucket).build()).contents()) {
+            try (var content = s3.getObject(GetObjectRequest.builder().bucket(bucket).key(object.key()).build())) {
+                objects.add(content.readAllBytes());
+            }
+        }
+        return objects;
+    }
+
+    private static String lines(int count) {
+        var lines = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            lines.append(line(i)).append('\n');
+        }
+        return lines.toString();
+    }
+
+    // Newline terminated lines of LINE_BYTES each
+    private static String line(int number) {
+        var line = new StringBuilder().append(number).append(' ');
+        while (line.length() < LINE_BYTES - 1) {
+            line.append('x');
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,137 @@
+package lt.rieske.logs.forwarder;
+
+import com.adobe.testing.s3mock.junit5.S3MockExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(S3MockExtension.class)
+class S3ObjectDownloaderTest {
+
+    private static final String KEY = "logs.json.gz";
+
+    @Test
+    void downloadsObjectInParts(S3Client s3) throws IOException {
+        byte[] content = randomBytes(100_000);
+        var bucket = bucketWithObject(s3, content);
+
+        try (var download = new S3ObjectDownloader(s3, 4096, 3, 1).download(bucket, KEY)) {
+            assertThat(download.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void downloadsObjectThatIsMultipleOfPartSize(S3Client s3) throws IOException {
+        byte[] content = randomBytes(3 * 1024);
+        var bucket = bucketWithObject(s3, content);
+
+        try (var download = new S3ObjectDownloader(s3, 1024, 2, 1).download(bucket, KEY)) {
+            assertThat(download.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void downloadsObjectSmallerThanPart(S3Client s3) throws IOException {
+        byte[] content = randomBytes(100);
+        var bucket = bucketWithObject(s3, content);
+
+        try (var download = new S3ObjectDownloader(s3, 1024, 2, 1).download(bucket, KEY)) {
+            assertThat(download.read()).isEqualTo(content[0] & 0xFF);
+            assertThat(download.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 1, content.length));
+            assertThat(download.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void downloadsEmptyObject(S3Client s3) throws IOException {
+        var bucket = bucketWithObject(s3, new byte[0]);
+
+        try (var download = new S3ObjectDownloader(s3, 1024, 2, 1).download(bucket, KEY)) {
+            assertThat(download.readAllBytes()).isEmpty();
+        }
+    }
+
+    @Test
+    void reusesPartBuffersAcrossDownloads(S3Client s3) throws IOException {
+        byte[] first = randomBytes(10_000);
+        byte[] second = randomBytes(4_500);
+        for (int i = 0; i < second.length; i++) {
+            second[i] ^= (byte) 0xFF;
+        }
+        var firstBucket = bucketWithObject(s3, first);
+        var secondBucket = bucketWithObject(s3, second);
+        var downloader = new S3ObjectDownloader(s3, 1024, 2, 1);
+
+        try (var download = downloader.download(firstBucket, KEY)) {
+            assertThat(download.readAllBytes()).isEqualTo(first);
+        }
+        try (var download = downloader.download(secondBucket, KEY)) {
+            assertThat(download.readAllBytes()).isEqualTo(second);
+        }
+    }
+
+    @Test
+    void poolsNoMorePartBuffersThanConcurrentDownloadsHold(S3Client s3) throws IOException {
+        var bucket = bucketWithObject(s3, randomBytes(10_000));
+        var downloader = new S3ObjectDownloader(s3, 1024, 2, 1);
+
+        // every download read to the end holds on to the buffer of its last part until closed
+        List<InputStream> downloads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            var download = downloader.download(bucket, KEY);
+            download.readAllBytes();
+            downloads.add(download);
+        }
+        for (var download : downloads) {
+            download.close();
+        }
+
+        assertThat(downloader.pooledPartBuffers()).isEqualTo(3);
+    }
+
+    @Test
+    void sizesPartsAndConcurrencyToMemoryBudget() {
+        assertThat(S3ObjectDownloader.concurrency(64L << 20, S3ObjectDownloader.MIN_PART_SIZE)).isEqualTo(4);
+        assertThat(S3ObjectDownloader.partSize(64L << 20, 4)).isEqualTo(S3ObjectDownloader.MAX_PART_SIZE);
+        assertThat(S3ObjectDownloader.partSize(10L << 20, 4)).isEqualTo(2 << 20);
+        assertThat(S3ObjectDownloader.concurrency(2L << 20, S3ObjectDownloader.MIN_PART_SIZE)).isEqualTo(1);
+        assertThat(S3ObjectDownloader.partSize(2L << 20, 1)).isEqualTo(S3ObjectDownloader.MIN_PART_SIZE);
+    }
+
+    @Test
+    void failsToDownloadMissingObject(S3Client s3) {
+        var bucket = bucketWithObject(s3, randomBytes(10));
+        var downloader = new S3ObjectDownloader(s3, 1024, 2, 1);
+
+        assertThatThrownBy(() -> downloader.download(bucket, "missing.json.gz"))
+                .isInstanceOf(NoSuchKeyException.class);
+    }
+
+    private static String bucketWithObject(S3Client s3, byte[] content) {
+        String bucket = "test-cloudflare-logs-" + UUID.randomUUID();
+        s3.createBucket(CreateBucketRequest.builder().bucket(bucket).build());
+        s3.putObject(PutObjectRequest.builder().bucket(bucket).key(KEY).build(), RequestBody.fromBytes(content));
+        return bucket;
+    }
+
+    private static byte[] randomBytes(int count) {
+        byte[] bytes = new byte[count];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
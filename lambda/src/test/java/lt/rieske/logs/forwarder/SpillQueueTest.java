@@ -0,0 +1,118 @@
+package lt.rieske.logs.forwarder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpillQueueTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void drainsSpilledBatchesInOrder() throws IOException {
+        try (var queue = new SpillQueue(directory.resolve("spill"), 1024)) {
+            offer(queue, "foo", PayloadCompression.NONE);
+            offer(queue, "bar", PayloadCompression.GZIP);
+
+            List<String> drained = new ArrayList<>();
+            int delivered = queue.drain((content, compression) -> drained.add(compression + " " + new String(content, StandardCharsets.UTF_8)));
+
+            assertThat(delivered).isEqualTo(2);
+            assertThat(drained).containsExactly("NONE foo", "GZIP bar");
+            assertThat(queue.size()).isZero();
+        }
+    }
+
+    @Test
+    void keepsBatchesThatWereNotDelivered() throws IOException {
+        try (var queue = new SpillQueue(directory.resolve("spill"), 1024)) {
+            offer(queue, "foo", PayloadCompression.NONE);
+            offer(queue, "bar", PayloadCompression.NONE);
+            offer(queue, "baz", PayloadCompression.NONE);
+
+            int delivered = queue.drain((content, compression) -> new String(content, StandardCharsets.UTF_8).equals("foo"));
+
+            assertThat(delivered).isEqualTo(1);
+            assertThat(drainAll(queue)).containsExactly("bar", "baz");
+        }
+    }
+
+    @Test
+    void doesNotResendBatchesDeliveredByDrainCutShort() throws IOException {
+        var file = directory.resolve("spill");
+        var cutShort = directory.resolve("cut-short");
+        try (var queue = new SpillQueue(file, 1024)) {
+            offer(queue, "foo", PayloadCompression.NONE);
+            offer(queue, "bar", PayloadCompression.NONE);
+            offer(queue, "baz", PayloadCompression.NONE);
+
+            // the file as a drain killed while sending the third batch leaves it
+            queue.drain((content, compression) -> {
+                if (new String(content, StandardCharsets.UTF_8).equals("baz")) {
+                    Files.copy(file, cutShort);
+                }
+                return true;
+            });
+        }
+
+        try (var queue = new SpillQueue(cutShort, 1024)) {
+            assertThat(queue.size()).isEqualTo(8);
+            assertThat(drainAll(queue)).containsExactly("baz");
+        }
+    }
+
+    @Test
+    void stopsDrainingAtDeadline() throws IOException {
+        try (var queue = new SpillQueue(directory.resolve("spill"), 1024)) {
+            offer(queue, "foo", PayloadCompression.NONE);
+
+            assertThat(queue.drain((content, compression) -> true, System.nanoTime())).isZero();
+            assertThat(drainAll(queue)).containsExactly("foo");
+        }
+    }
+
+    @Test
+    void refusesBatchesOverMaxSize() throws IOException {
+        try (var queue = new SpillQueue(directory.resolve("spill"), 20)) {
+            assertThat(offer(queue, "0123456789", PayloadCompression.NONE)).isTrue();
+            assertThat(offer(queue, "0123456789", PayloadCompression.NONE)).isFalse();
+
+            assertThat(drainAll(queue)).containsExactly("0123456789");
+        }
+    }
+
+    @Test
+    void reopensSpilledBatchesDroppingIncompleteRecord() throws IOException {
+        var file = directory.resolve("spill");
+        try (var queue = new SpillQueue(file, 1024)) {
+            offer(queue, "foo", PayloadCompression.NONE);
+            offer(queue, "bar", PayloadCompression.NONE);
+        }
+        Files.write(file, new byte[]{0, 0, 0, 42, 0, 'b'}, StandardOpenOption.APPEND);
+
+        try (var queue = new SpillQueue(file, 1024)) {
+            assertThat(drainAll(queue)).containsExactly("foo", "bar");
+        }
+    }
+
+    private static boolean offer(SpillQueue queue, String content, PayloadCompression compression) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return queue.offer(bytes, bytes.length, compression);
+    }
+
+    private static List<String> drainAll(SpillQueue queue) throws IOException {
+        List<String> drained = new ArrayList<>();
+        queue.drain((content, compression) -> drained.add(new String(content, StandardCharsets.UTF_8)));
+        return drained;
+    }
+}